@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingbackend;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control for the calls executors make to orchestrator.
+ *
+ * Every executor has a token bucket of its own, refilled at a constant rate, so a single executor calling too often can
+ * not starve the others. The number of calls processed at the same time is capped for all the executors together.
+ * Calls that are not admitted are supposed to be answered with "429 Too Many Requests" advising when to retry.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class AdmissionControl {
+
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final String PROPERTY_PREFIX = AdmissionControl.class.getName() + ".";
+
+    // Calls per second single executor is permitted to make in the long run
+    private static final int RATE = Integer.getInteger(PROPERTY_PREFIX + "RATE", 5);
+    // Calls single executor is permitted to make in a burst
+    private static final int BURST = Integer.getInteger(PROPERTY_PREFIX + "BURST", 20);
+    // Calls processed at the same time, from all the executors
+    private static final int MAX_CONCURRENT = Integer.getInteger(PROPERTY_PREFIX + "MAX_CONCURRENT", 32);
+    // Time in ms executor is advised to wait when too many calls are processed at the same time
+    private static final long BUSY_RETRY_AFTER = 1000;
+    // Number of buckets above which the full ones are discarded
+    private static final int MAX_BUCKETS = 1000;
+
+    private final int rate;
+    private final int burst;
+    private final @Nonnull Semaphore concurrent;
+    private final @Nonnull Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public AdmissionControl() {
+        this(RATE, BURST, MAX_CONCURRENT);
+    }
+
+    /*package*/ AdmissionControl(int rate, int burst, int maxConcurrent) {
+        this.rate = rate;
+        this.burst = burst;
+        this.concurrent = new Semaphore(maxConcurrent);
+    }
+
+    public static @Nonnull AdmissionControl getInstance() {
+        ExtensionList<AdmissionControl> list = Jenkins.get().getExtensionList(AdmissionControl.class);
+        assert list.size() == 1;
+        return list.iterator().next();
+    }
+
+    /**
+     * Admit the call from executor.
+     *
+     * @param executorUrl URL executor identifies itself with.
+     * @return Permit to be closed once the call is processed. The call is to be rejected unless it is admitted.
+     */
+    public @Nonnull Permit admit(@Nonnull String executorUrl) {
+        if (!concurrent.tryAcquire()) return new Permit(BUSY_RETRY_AFTER);
+
+        long now = System.nanoTime();
+        long retryAfter = getBucket(executorUrl, now).take(now);
+        if (retryAfter > 0) {
+            concurrent.release();
+            return new Permit(retryAfter);
+        }
+        return new Permit(0);
+    }
+
+    private @Nonnull Bucket getBucket(@Nonnull String executorUrl, long now) {
+        Bucket bucket = buckets.get(executorUrl);
+        if (bucket != null) return bucket;
+
+        // Executor with full bucket is no different from the one that have not called at all
+        if (buckets.size() >= MAX_BUCKETS) {
+            Iterator<Bucket> it = buckets.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isFull(now)) {
+                    it.remove();
+                }
+            }
+        }
+
+        Bucket created = new Bucket(now);
+        bucket = buckets.putIfAbsent(executorUrl, created);
+        return bucket == null ? created : bucket;
+    }
+
+    /**
+     * Admission of a single call.
+     */
+    public final class Permit implements AutoCloseable {
+        private final long retryAfter;
+        private final @Nonnull AtomicBoolean released;
+
+        private Permit(long retryAfter) {
+            this.retryAfter = retryAfter;
+            // Rejected calls hold nothing to release
+            this.released = new AtomicBoolean(retryAfter > 0);
+        }
+
+        public boolean isAdmitted() {
+            return retryAfter == 0;
+        }
+
+        /**
+         * @return Time in seconds the executor is advised to wait before calling again, 0 if admitted.
+         */
+        public long getRetryAfter() {
+            return TimeUnit.MILLISECONDS.toSeconds(retryAfter + 999);
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                concurrent.release();
+            }
+        }
+    }
+
+    private final class Bucket {
+        @GuardedBy("this")
+        private double tokens;
+        @GuardedBy("this")
+        private long refilled;
+
+        private Bucket(long now) {
+            this.tokens = burst;
+            this.refilled = now;
+        }
+
+        // Take a token returning 0, or the time in ms until there is one available
+        private synchronized long take(long now) {
+            tokens = available(now);
+            refilled = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) * 1000 / rate);
+        }
+
+        private synchronized boolean isFull(long now) {
+            return available(now) >= burst;
+        }
+
+        @GuardedBy("this")
+        private double available(long now) {
+            return Math.min(burst, tokens + (now - refilled) * rate / 1e9);
+        }
+    }
+}
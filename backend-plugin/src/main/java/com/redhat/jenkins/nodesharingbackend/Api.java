@@ -24,20 +24,30 @@
 package com.redhat.jenkins.nodesharingbackend;
 
 import com.redhat.jenkins.nodesharing.ActionFailed;
+import com.redhat.jenkins.nodesharing.Batch;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
+import com.redhat.jenkins.nodesharing.Deadline;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
 import com.redhat.jenkins.nodesharing.NodeDefinition;
+import com.redhat.jenkins.nodesharing.RecentKeys;
 import com.redhat.jenkins.nodesharing.RestEndpoint;
+import com.redhat.jenkins.nodesharing.transport.BatchRequest;
 import com.redhat.jenkins.nodesharing.transport.DiscoverRequest;
 import com.redhat.jenkins.nodesharing.transport.DiscoverResponse;
-import com.redhat.jenkins.nodesharing.transport.Entity;
 import com.redhat.jenkins.nodesharing.transport.NodeStatusRequest;
 import com.redhat.jenkins.nodesharing.transport.NodeStatusResponse;
+import com.redhat.jenkins.nodesharing.transport.NodeStatusesRequest;
+import com.redhat.jenkins.nodesharing.transport.NodeStatusesResponse;
+import com.redhat.jenkins.nodesharing.transport.PollRequest;
+import com.redhat.jenkins.nodesharing.transport.PollResponse;
 import com.redhat.jenkins.nodesharing.transport.ReportUsageRequest;
 import com.redhat.jenkins.nodesharing.transport.ReportUsageResponse;
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadDeltaRequest;
 import com.redhat.jenkins.nodesharing.transport.ReportWorkloadRequest;
 import com.redhat.jenkins.nodesharing.transport.ReportWorkloadResponse;
 import com.redhat.jenkins.nodesharing.transport.ReturnNodeRequest;
+import com.redhat.jenkins.nodesharing.transport.UsageEventsRequest;
+import com.redhat.jenkins.nodesharing.transport.UsageEventsResponse;
 import com.redhat.jenkins.nodesharing.transport.UtilizeNodeRequest;
 import com.redhat.jenkins.nodesharing.transport.UtilizeNodeResponse;
 import hudson.Extension;
@@ -53,17 +63,26 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 /**
@@ -77,8 +96,20 @@ public class Api implements RootAction {
 
     private static final String HIDDEN = null;
 
+    // Number of the most recent idempotency keys remembered
+    private static final int RECENT_KEYS = Integer.getInteger(Api.class.getName() + ".RECENT_KEYS", 1000);
+
     private final @Nonnull String version;
 
+    // Sequence of the last workload report applied per executor. Missing entry means full report is needed to continue.
+    private final @Nonnull Map<ExecutorJenkins, Long> workloadSequences = new ConcurrentHashMap<>();
+
+    // Channels executors poll for the calls, used while they are connected
+    private final @Nonnull Map<ExecutorJenkins, ExecutorChannel> channels = new ConcurrentHashMap<>();
+
+    // Status codes returnNode calls were answered with, so the replays are not served again
+    private final @Nonnull RecentKeys<Integer> returnedNodes = new RecentKeys<>(RECENT_KEYS);
+
     public Api() {
         try {
             // TODO getClass().getPackage().getImplementationVersion() might work equally well
@@ -117,6 +148,21 @@ public class Api implements RootAction {
 
     //// Outgoing
 
+    private @Nonnull RestEndpoint getRest(@Nonnull Pool pool, @Nonnull ExecutorJenkins executor) {
+        RestEndpoint rest = executor.getRest(pool.getConfigRepoUrl(), pool.getExecutorCredential(executor), pool.getTransport().get());
+        rest.setChannel(getChannel(executor));
+        return rest;
+    }
+
+    public @Nonnull ExecutorChannel getChannel(@Nonnull ExecutorJenkins executor) {
+        ExecutorChannel channel = channels.get(executor);
+        if (channel != null) return channel;
+
+        ExecutorChannel created = new ExecutorChannel();
+        channel = channels.putIfAbsent(executor, created);
+        return channel == null ? created : channel;
+    }
+
     /**
      * Signal to Executor Jenkins to start using particular node.
      *
@@ -125,12 +171,22 @@ public class Api implements RootAction {
      * @return true is the client accepted the node, false otherwise.
      */
     public boolean utilizeNode(@Nonnull ExecutorJenkins executor, @Nonnull ShareableNode node) {
+        return utilizeNode(executor, node, null);
+    }
+
+    /**
+     * Signal the node is reserved for the executor, resending the call in case it was not delivered.
+     *
+     * @param reservationId Reservation the node is utilized for, executor identifies the node returned with it.
+     * @return true if the node was accepted, false if rejected.
+     */
+    public boolean utilizeNode(@Nonnull ExecutorJenkins executor, @Nonnull ShareableNode node, @CheckForNull String reservationId) {
         Pool pool = Pool.getInstance();
         String configRepoUrl = pool.getConfigRepoUrl();
-        UtilizeNodeRequest request = new UtilizeNodeRequest(configRepoUrl, version, node.getNodeDefinition());
-        RestEndpoint rest = executor.getRest(configRepoUrl, pool.getExecutorCredential(executor));
+        UtilizeNodeRequest request = new UtilizeNodeRequest(configRepoUrl, version, node.getNodeDefinition(), reservationId);
+        RestEndpoint rest = getRest(pool, executor);
         try {
-            rest.executeRequest(rest.post("utilizeNode"), request, UtilizeNodeResponse.class);
+            rest.executeIdempotent("utilizeNode", request, UtilizeNodeResponse.class);
             return true;
         } catch (ActionFailed.RequestFailed ex) {
             if (ex.getStatusCode() == HttpStatus.SC_GONE) {
@@ -152,10 +208,32 @@ public class Api implements RootAction {
         Pool pool = Pool.getInstance();
         String configRepoUrl = pool.getConfigRepoUrl();
         ReportUsageRequest request = new ReportUsageRequest(configRepoUrl, version);
-        RestEndpoint rest = owner.getRest(configRepoUrl, pool.getExecutorCredential(owner));
+        RestEndpoint rest = getRest(pool, owner);
         return rest.executeRequest(rest.post("reportUsage"), request, ReportUsageResponse.class);
     }
 
+    /**
+     * Query executor Jenkins to report shared hosts it uses without blocking the caller.
+     *
+     * @see #reportUsage(ExecutorJenkins)
+     */
+    public @Nonnull CompletableFuture<ReportUsageResponse> reportUsageAsync(@Nonnull ExecutorJenkins owner) {
+        return reportUsageAsync(owner, Deadline.NONE);
+    }
+
+    /**
+     * Query executor Jenkins to report shared hosts it uses without blocking the caller, completing by the deadline.
+     *
+     * @see #reportUsage(ExecutorJenkins)
+     */
+    public @Nonnull CompletableFuture<ReportUsageResponse> reportUsageAsync(@Nonnull ExecutorJenkins owner, @Nonnull Deadline deadline) {
+        Pool pool = Pool.getInstance();
+        String configRepoUrl = pool.getConfigRepoUrl();
+        ReportUsageRequest request = new ReportUsageRequest(configRepoUrl, version);
+        RestEndpoint rest = getRest(pool, owner);
+        return rest.executeBatchedAsync(rest.post("reportUsage"), request, ReportUsageResponse.class, deadline);
+    }
+
     /**
      * Determine whether the host is still used by particular executor.
      *
@@ -177,35 +255,95 @@ public class Api implements RootAction {
         Pool pool = Pool.getInstance();
         String configRepoUrl = pool.getConfigRepoUrl();
         NodeStatusRequest request = new NodeStatusRequest(configRepoUrl, version, nodeName);
-        RestEndpoint rest = jenkins.getRest(configRepoUrl, pool.getExecutorCredential(jenkins));
-        NodeStatusResponse nodeStatus = rest.executeRequest(rest.post("nodeStatus"), request, NodeStatusResponse.class);
+        RestEndpoint rest = getRest(pool, jenkins);
+        NodeStatusResponse nodeStatus = rest.executeBatched(rest.post("nodeStatus"), request, NodeStatusResponse.class);
         return nodeStatus.getStatus();
     }
 
+    /**
+     * Query the status of several nodes in a single request.
+     *
+     * Executors not serving the bulk query are asked node by node.
+     *
+     * @return Node status per node name, in the order of nodeNames.
+     */
+    public @Nonnull Map<String, NodeStatusResponse.Status> nodeStatus(
+            @Nonnull final ExecutorJenkins jenkins, @Nonnull final Collection<String> nodeNames
+    ) {
+        if (nodeNames.isEmpty()) return Collections.emptyMap();
+
+        Pool pool = Pool.getInstance();
+        String configRepoUrl = pool.getConfigRepoUrl();
+        NodeStatusesRequest request = new NodeStatusesRequest(configRepoUrl, version, nodeNames);
+        RestEndpoint rest = getRest(pool, jenkins);
+        try {
+            return rest.executeRequest(rest.post("nodeStatuses"), request, NodeStatusesResponse.class).getStatuses();
+        } catch (ActionFailed.RequestFailed ex) {
+            if (ex.getStatusCode() != 404) throw ex;
+        }
+
+        LOGGER.fine(jenkins + " does not support bulk node status query");
+        Map<String, NodeStatusResponse.Status> statuses = new LinkedHashMap<>();
+        for (String nodeName : nodeNames) {
+            statuses.put(nodeName, nodeStatus(jenkins, nodeName));
+        }
+        return statuses;
+    }
+
     //// Incoming
 
+    /**
+     * Perform several operations sent together, in order.
+     */
+    @RequirePOST
+    public void doBatch(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(RestEndpoint.RESERVE);
+
+        String configRepoUrl = Pool.getInstance().getConfigRepoUrl(); // Fail early when there is no config
+        BatchRequest request = RestEndpoint.readEntity(req, BatchRequest.class);
+        RestEndpoint.writeEntity(req, rsp, Batch.serve(this, req, request, configRepoUrl, version));
+    }
+
     /**
      * Initial request to test the connection/compatibility.
+     *
+     * Response is tagged by ETag so executor having the same response already gets "304 Not Modified" with no body when
+     * sending it as If-None-Match.
      */
     @RequirePOST
+    @Batch.Batchable
     public void doDiscover(StaplerRequest req, StaplerResponse rsp) throws IOException {
         Jenkins.get().checkPermission(RestEndpoint.RESERVE);
 
         Pool pool = Pool.getInstance();
-        Collection<NodeDefinition> nodes = pool.getConfig().getNodes().values(); // Fail early when there is no config
+        ConfigRepo.Snapshot config = pool.getConfig(); // Fail early when there is no config
+
+        DiscoverRequest request = RestEndpoint.readEntity(req, DiscoverRequest.class);
 
-        DiscoverRequest request = Entity.fromInputStream(req.getInputStream(), DiscoverRequest.class);
+        try (AdmissionControl.Permit permit = admit(request.getExecutorUrl(), rsp)) {
+            if (permit != null) {
+                discover(req, rsp, pool, config, request);
+            }
+        }
+    }
 
+    private void discover(
+            @Nonnull StaplerRequest req,
+            @Nonnull StaplerResponse rsp,
+            @Nonnull Pool pool,
+            @Nonnull ConfigRepo.Snapshot config,
+            @Nonnull DiscoverRequest request
+    ) throws IOException {
         String version = this.version;
         String configEndpoint = pool.getConfigRepoUrl();
 
         String executorUrl = request.getExecutorUrl();
         try {
-            pool.getConfig().getJenkinsByUrl(executorUrl);
+            config.getJenkinsByUrl(executorUrl);
         } catch (NoSuchElementException ex) {
             // Do not disclose any other diagnostics to executor not approved in config repo
             String diagnosis = unknownExecutor(executorUrl, configEndpoint);
-            new DiscoverResponse(configEndpoint, "N/A", diagnosis, Collections.<NodeDefinition>emptyList()).toOutputStream(rsp.getOutputStream());
+            RestEndpoint.writeEntity(req, rsp, new DiscoverResponse(configEndpoint, "N/A", diagnosis, Collections.<NodeDefinition>emptyList()));
             return;
         }
 
@@ -229,7 +367,17 @@ public class Api implements RootAction {
         }
 
         String diagnosis = diagnosisBuilder.toString();
-        new DiscoverResponse(configEndpoint, version, diagnosis, nodes).toOutputStream(rsp.getOutputStream());
+
+        // The response changes with the config repo revision, unless the diagnosis or the version does
+        String etag = "\"" + config.getSource() + "-" + Integer.toHexString(Objects.hash(version, diagnosis)) + "\"";
+        rsp.setHeader("ETag", etag);
+        if (etag.equals(req.getHeader("If-None-Match"))) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        Collection<NodeDefinition> nodes = config.getNodes().values();
+        RestEndpoint.writeEntity(req, rsp, new DiscoverResponse(configEndpoint, version, diagnosis, nodes));
     }
 
     /**
@@ -239,16 +387,32 @@ public class Api implements RootAction {
      * scheduled on individual executor Jenkinses.
      */
     @RequirePOST
+    @Batch.Batchable
     public void doReportWorkload(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
         Jenkins.get().checkPermission(RestEndpoint.RESERVE);
 
         Pool pool = Pool.getInstance();
         final ConfigRepo.Snapshot config = pool.getConfig(); // Fail early when there is no config
 
-        final ReportWorkloadRequest request = Entity.fromInputStream(req.getInputStream(), ReportWorkloadRequest.class);
+        final ReportWorkloadRequest request = RestEndpoint.readEntity(req, ReportWorkloadRequest.class);
+
+        try (AdmissionControl.Permit permit = admit(request.getExecutorUrl(), rsp)) {
+            if (permit != null) {
+                reportWorkload(req, rsp, pool, config, request);
+            }
+        }
+    }
 
+    private void reportWorkload(
+            @Nonnull StaplerRequest req,
+            @Nonnull StaplerResponse rsp,
+            @Nonnull Pool pool,
+            @Nonnull final ConfigRepo.Snapshot config,
+            @Nonnull final ReportWorkloadRequest request
+    ) throws IOException {
         final List<ReportWorkloadRequest.Workload.WorkloadItem> reportedItems = request.getWorkload().getItems();
-        final ArrayList<ReservationTask> reportedTasks = new ArrayList<>(reportedItems.size());
+        // Keep the order so reservations are scheduled in the order executor did
+        final Set<ReservationTask> reportedTasks = new LinkedHashSet<>(reportedItems.size());
         final ExecutorJenkins executor;
         try {
             executor = config.getJenkinsByUrl(request.getExecutorUrl());
@@ -264,48 +428,281 @@ public class Api implements RootAction {
 
         Queue.withLock(new Runnable() {
             @Override public void run() {
+                if (request.getSequence() > 0) {
+                    workloadSequences.put(executor, request.getSequence());
+                } else {
+                    workloadSequences.remove(executor);
+                }
+
                 Queue queue = Jenkins.get().getQueue();
-                for (Queue.Item item : queue.getItems()) {
-                    if (item.task instanceof ReservationTask && ((ReservationTask) item.task).getOwner().equals(executor)) {
-                        // Cancel items executor is no longer interested in and keep those it cares for
-                        if (!reportedTasks.contains(item.task)) {
-                            queue.cancel(item);
-                        }
-                        reportedTasks.remove(item.task);
+                Map<ReservationTask, Queue.Item> queued = ReservationIndex.getInstance().getQueued(executor);
+                for (Map.Entry<ReservationTask, Queue.Item> entry : queued.entrySet()) {
+                    // Cancel items executor is no longer interested in and keep those it cares for
+                    if (!reportedTasks.contains(entry.getKey())) {
+                        queue.cancel(entry.getValue());
                     }
                 }
 
+                withdrawReservations(executor, reportedTasks, true);
+
                 // These might have been reported just before the build started the execution on Executor so now the
                 // ReservationTask might be executing or even completed on executor, though there is no way for orchestrator
                 // to know. This situation will be handled by executor rejecting the `utilizeNode` call.
                 for (ReservationTask newTask : reportedTasks) {
-                    queue.schedule2(newTask, 0);
+                    if (!queued.containsKey(newTask)) {
+                        queue.schedule2(newTask, 0);
+                    }
                 }
             }
         });
 
         String version = this.version;
-        new ReportWorkloadResponse(pool.getConfigRepoUrl(), version).toOutputStream(rsp.getOutputStream());
+        RestEndpoint.writeEntity(req, rsp, new ReportWorkloadResponse(pool.getConfigRepoUrl(), version));
+    }
+
+    /**
+     * Apply changes in executor workload since its last report.
+     *
+     * The delta is rejected asking for a full report unless it directly follows the last report applied.
+     */
+    @RequirePOST
+    @Batch.Batchable
+    public void doReportWorkloadDelta(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(RestEndpoint.RESERVE);
+
+        Pool pool = Pool.getInstance();
+        final ConfigRepo.Snapshot config = pool.getConfig(); // Fail early when there is no config
+
+        final ReportWorkloadDeltaRequest request = RestEndpoint.readEntity(req, ReportWorkloadDeltaRequest.class);
+
+        try (AdmissionControl.Permit permit = admit(request.getExecutorUrl(), rsp)) {
+            if (permit != null) {
+                reportWorkloadDelta(req, rsp, pool, config, request);
+            }
+        }
+    }
+
+    private void reportWorkloadDelta(
+            @Nonnull StaplerRequest req,
+            @Nonnull StaplerResponse rsp,
+            @Nonnull Pool pool,
+            @Nonnull ConfigRepo.Snapshot config,
+            @Nonnull final ReportWorkloadDeltaRequest request
+    ) throws IOException {
+        final ExecutorJenkins executor;
+        try {
+            executor = config.getJenkinsByUrl(request.getExecutorUrl());
+        } catch (NoSuchElementException ex) {
+            rsp.setStatus(HttpServletResponse.SC_CONFLICT);
+            rsp.getWriter().println(unknownExecutor(request.getExecutorUrl(), pool.getConfigRepoUrl()));
+            return;
+        }
+
+        final List<ReservationTask> removedTasks = new ArrayList<>(request.getRemoved().size());
+        for (ReportWorkloadRequest.Workload.WorkloadItem item : request.getRemoved()) {
+            removedTasks.add(new ReservationTask(executor, item.getLabel(), item.getName(), item.getId()));
+        }
+        final List<ReservationTask> addedTasks = new ArrayList<>(request.getAdded().size());
+        for (ReportWorkloadRequest.Workload.WorkloadItem item : request.getAdded()) {
+            addedTasks.add(new ReservationTask(executor, item.getLabel(), item.getName(), item.getId()));
+        }
+
+        final AtomicBoolean applied = new AtomicBoolean();
+        Queue.withLock(new Runnable() {
+            @Override public void run() {
+                Long last = workloadSequences.get(executor);
+                if (last == null || last + 1 != request.getSequence()) {
+                    LOGGER.fine("Workload delta " + request.getSequence() + " from " + executor + " does not follow " + last);
+                    workloadSequences.remove(executor);
+                    return;
+                }
+                workloadSequences.put(executor, request.getSequence());
+                applied.set(true);
+
+                Queue queue = Jenkins.get().getQueue();
+                if (!removedTasks.isEmpty()) {
+                    Map<ReservationTask, Queue.Item> queued = ReservationIndex.getInstance().getQueued(executor);
+                    for (ReservationTask removedTask : removedTasks) {
+                        Queue.Item item = queued.get(removedTask);
+                        if (item != null) {
+                            queue.cancel(item);
+                        }
+                    }
+                    withdrawReservations(executor, removedTasks, false);
+                }
+                for (ReservationTask newTask : addedTasks) {
+                    queue.schedule2(newTask, 0);
+                }
+            }
+        });
+
+        RestEndpoint.writeEntity(req, rsp, new ReportWorkloadResponse(pool.getConfigRepoUrl(), version, !applied.get()));
+    }
+
+    /**
+     * Mark the reservations in progress whose items executor no longer has queued.
+     *
+     * @param tasks Tasks from executor workload.
+     * @param reported True if the tasks are all the items executor has queued, false if they are the removed ones.
+     */
+    private static void withdrawReservations(
+            @Nonnull ExecutorJenkins executor, @Nonnull Collection<ReservationTask> tasks, boolean reported
+    ) {
+        for (ReservationTask.ReservationExecutable reservation : ShareableComputer.getAllReservations().values()) {
+            if (reservation == null) continue;
+            ReservationTask task = reservation.getParent();
+            if (task.getOwner().equals(executor) && tasks.contains(task) != reported) {
+                reservation.withdraw();
+            }
+        }
+    }
+
+    /**
+     * Make executor report its full workload next time.
+     *
+     * @param executor Executor to resynchronize, null for all of them.
+     */
+    /*package*/ void requestWorkloadResync(@CheckForNull ExecutorJenkins executor) {
+        if (executor == null) {
+            workloadSequences.clear();
+        } else {
+            workloadSequences.remove(executor);
+        }
     }
 
     private String unknownExecutor(String executorUrl, String configRepoUrl) {
         return "Executor '" + executorUrl + "' is not declared to be a member of the sharing pool in " + configRepoUrl;
     }
 
+    /**
+     * Admit the call from executor, answering with "429 Too Many Requests" when it is over the limit.
+     *
+     * @return Permit to close once the call is processed, null when rejected.
+     * @see AdmissionControl
+     */
+    private @CheckForNull AdmissionControl.Permit admit(@Nonnull String executorUrl, @Nonnull StaplerResponse rsp) throws IOException {
+        AdmissionControl.Permit permit = AdmissionControl.getInstance().admit(executorUrl);
+        if (permit.isAdmitted()) return permit;
+
+        LOGGER.fine("Rejecting call from " + executorUrl + " for " + permit.getRetryAfter() + "s");
+        rsp.setStatus(AdmissionControl.SC_TOO_MANY_REQUESTS);
+        rsp.setHeader("Retry-After", String.valueOf(permit.getRetryAfter()));
+        rsp.getWriter().println("Too many calls from executor '" + executorUrl + "', retry in " + permit.getRetryAfter() + " seconds");
+        return null;
+    }
+
+    /**
+     * Track changes in node usage streamed by executor.
+     */
+    @RequirePOST
+    @Batch.Batchable
+    public void doUsageEvents(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(RestEndpoint.RESERVE);
+
+        Pool pool = Pool.getInstance();
+        ConfigRepo.Snapshot config = pool.getConfig(); // Fail early when there is no config
+
+        UsageEventsRequest request = RestEndpoint.readEntity(req, UsageEventsRequest.class);
+
+        try (AdmissionControl.Permit permit = admit(request.getExecutorUrl(), rsp)) {
+            if (permit != null) {
+                usageEvents(req, rsp, pool, config, request);
+            }
+        }
+    }
+
+    private void usageEvents(
+            @Nonnull StaplerRequest req,
+            @Nonnull StaplerResponse rsp,
+            @Nonnull Pool pool,
+            @Nonnull ConfigRepo.Snapshot config,
+            @Nonnull UsageEventsRequest request
+    ) throws IOException {
+        ExecutorJenkins executor;
+        try {
+            executor = config.getJenkinsByUrl(request.getExecutorUrl());
+        } catch (NoSuchElementException ex) {
+            rsp.setStatus(HttpServletResponse.SC_CONFLICT);
+            rsp.getWriter().println(unknownExecutor(request.getExecutorUrl(), pool.getConfigRepoUrl()));
+            return;
+        }
+
+        UsageTracker.getInstance().apply(executor, request.getSequence(), request.getEvents());
+        RestEndpoint.writeEntity(req, rsp, new UsageEventsResponse(pool.getConfigRepoUrl(), version));
+    }
+
+    /**
+     * Wait for calls to be pushed to executor, delivering the replies to the previous ones.
+     *
+     * Not {@link Batch.Batchable} as the long poll would hold the other operations of the batch.
+     */
+    @RequirePOST
+    public void doPoll(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(RestEndpoint.RESERVE);
+
+        Pool pool = Pool.getInstance();
+        ConfigRepo.Snapshot config = pool.getConfig(); // Fail early when there is no config
+
+        PollRequest request = RestEndpoint.readEntity(req, PollRequest.class);
+        ExecutorJenkins executor;
+        try {
+            executor = config.getJenkinsByUrl(request.getExecutorUrl());
+        } catch (NoSuchElementException ex) {
+            rsp.setStatus(HttpServletResponse.SC_CONFLICT);
+            rsp.getWriter().println(unknownExecutor(request.getExecutorUrl(), pool.getConfigRepoUrl()));
+            return;
+        }
+
+        ExecutorChannel channel = getChannel(executor);
+        List<PollResponse.Message> messages = channel.poll(request.getChannelId(), request.getAck(), request.getReplies());
+        RestEndpoint.writeEntity(req, rsp, new PollResponse(pool.getConfigRepoUrl(), version, channel.getId(), messages));
+    }
+
     /**
      * Return node to orchestrator when no longer needed.
+     *
+     * Replayed requests are answered the same way as the original one without completing the reservation again, those
+     * arriving while the original one is processed wait for it. Node returned for other than its current reservation
+     * is not completed either, as the request is outdated.
      */
     @RequirePOST
+    @Batch.Batchable
     public void doReturnNode(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
         Jenkins.get().checkPermission(RestEndpoint.RESERVE);
 
         String ocr = Pool.getInstance().getConfigRepoUrl(); // Fail early when there is no config
-        ReturnNodeRequest request = Entity.fromInputStream(req.getInputStream(), ReturnNodeRequest.class);
+        ReturnNodeRequest request = RestEndpoint.readEntity(req, ReturnNodeRequest.class);
+
+        String key = request.getIdempotencyKey();
+        Integer replayed;
+        try {
+            replayed = returnedNodes.claim(key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the original return of node " + request.getNodeName(), e);
+        }
+        if (replayed != null) {
+            LOGGER.fine("Replayed return of node '" + request.getNodeName() + "' by " + request.getExecutorUrl());
+            rsp.setStatus(replayed);
+            return;
+        }
+
+        try (AdmissionControl.Permit permit = admit(request.getExecutorUrl(), rsp)) {
+            if (permit == null) return;
+
+            int status = returnNode(ocr, request, rsp.getWriter());
+            returnedNodes.put(key, status);
+            rsp.setStatus(status);
+        } finally {
+            returnedNodes.release(key); // In case it was not served, so the replay is
+        }
+    }
+
+    private int returnNode(@Nonnull String ocr, @Nonnull ReturnNodeRequest request, @Nonnull PrintWriter out) {
         String ecr = request.getConfigRepoUrl();
         if (!Objects.equals(ocr, ecr)) { // TODO we do not require this anywhere else, should we?
-            rsp.getWriter().println("Unable to return node - config repo mismatch " + ocr + " != " + ecr);
-            rsp.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
-            return;
+            out.println("Unable to return node - config repo mismatch " + ocr + " != " + ecr);
+            return HttpServletResponse.SC_METHOD_NOT_ALLOWED;
         }
 
         Jenkins jenkins = Jenkins.get();
@@ -314,18 +711,16 @@ public class Api implements RootAction {
             LOGGER.info(
                     "An attempt to return a node '" + request.getNodeName() + "' that does not exist by " + request.getExecutorUrl()
             );
-            rsp.getWriter().println("No shareable node named '" + request.getNodeName() + "' exists");
-            rsp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-            return;
+            out.println("No shareable node named '" + request.getNodeName() + "' exists");
+            return HttpServletResponse.SC_NOT_FOUND;
         }
 
         if (!(c instanceof ShareableComputer)) {
             LOGGER.warning(
                     "An attempt to return a node '" + request.getNodeName() + "' that is not reservable by " + request.getExecutorUrl()
             );
-            rsp.getWriter().println("No shareable node named '" + request.getNodeName() + "' exists");
-            rsp.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
-            return;
+            out.println("No shareable node named '" + request.getNodeName() + "' exists");
+            return HttpServletResponse.SC_METHOD_NOT_ALLOWED;
         }
 
         ShareableComputer computer = (ShareableComputer) c;
@@ -334,19 +729,25 @@ public class Api implements RootAction {
             LOGGER.info(
                     "An attempt to return a node '" + request.getNodeName() + "' that is not reserved by " + request.getExecutorUrl())
             ;
-            rsp.setStatus(HttpServletResponse.SC_OK);
-            return;
+            return HttpServletResponse.SC_OK;
         }
 
         String reservationOwnerUrl = executable.getParent().getOwner().getUrl().toExternalForm();
         if (!reservationOwnerUrl.equals(request.getExecutorUrl())) {
-            rsp.getWriter().println("Executor '" + request.getExecutorUrl() + "' is not an owner of the host");
-            rsp.setStatus(HttpServletResponse.SC_CONFLICT);
-            return;
+            out.println("Executor '" + request.getExecutorUrl() + "' is not an owner of the host");
+            return HttpServletResponse.SC_CONFLICT;
+        }
+
+        String reservationId = request.getReservationId();
+        if (reservationId != null && executable.getReservationId() != null && !reservationId.equals(executable.getReservationId())) {
+            LOGGER.info("An attempt to return a node '" + request.getNodeName() + "' for reservation " + reservationId
+                    + " that is no longer current by " + request.getExecutorUrl()
+            );
+            return HttpServletResponse.SC_OK;
         }
 
         executable.complete();
         // TODO Report status
-        rsp.setStatus(HttpServletResponse.SC_OK);
+        return HttpServletResponse.SC_OK;
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingbackend;
+
+import com.redhat.jenkins.nodesharing.PushChannel;
+import com.redhat.jenkins.nodesharing.transport.BatchResponse;
+import com.redhat.jenkins.nodesharing.transport.PollRequest;
+import com.redhat.jenkins.nodesharing.transport.PollResponse;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Calls pushed to executor that polls for them.
+ *
+ * Executor keeps a poll request open and it is answered as soon as there is a message to deliver, or after
+ * {@link #POLL_TIMEOUT}. Messages are delivered again until acknowledged by the next poll that carries the replies as
+ * well. The channel id is regenerated when orchestrator restarts so executor knows the messages it has not replied to
+ * are gone.
+ */
+@Restricted(NoExternalUse.class)
+public final class ExecutorChannel implements PushChannel {
+
+    // Time in ms the poll is held when there is nothing to push
+    private static final long POLL_TIMEOUT = Long.getLong(ExecutorChannel.class.getName() + ".POLL_TIMEOUT", 30 * 1000);
+    // Time in ms executor is considered connected after its last poll completed, waiting for the next one
+    private static final long RECONNECT_GRACE = Long.getLong(ExecutorChannel.class.getName() + ".RECONNECT_GRACE", 10 * 1000);
+
+    private final @Nonnull String id = UUID.randomUUID().toString();
+
+    @GuardedBy("this")
+    private long lastMessageId = 0;
+    // Messages not replied to yet, in the order sent
+    @GuardedBy("this")
+    private final @Nonnull Map<Long, Pending> pending = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private int polling = 0;
+    @GuardedBy("this")
+    private long lastPolled = 0;
+
+    public @Nonnull String getId() {
+        return id;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return polling > 0 || System.currentTimeMillis() - lastPolled < RECONNECT_GRACE;
+    }
+
+    @Override
+    public synchronized @CheckForNull CompletableFuture<BatchResponse.Result> send(@Nonnull String operation, @Nonnull String payload) {
+        if (!isConnected()) return null;
+
+        final long messageId = ++lastMessageId;
+        CompletableFuture<BatchResponse.Result> future = new CompletableFuture<>();
+        pending.put(messageId, new Pending(new PollResponse.Message(messageId, operation, payload), future));
+        notifyAll();
+
+        // Caller gave up waiting, no need to deliver it anymore
+        future.whenComplete(new BiConsumer<BatchResponse.Result, Throwable>() {
+            @Override public void accept(BatchResponse.Result result, Throwable throwable) {
+                if (throwable != null) {
+                    discard(messageId);
+                }
+            }
+        });
+        return future;
+    }
+
+    private synchronized void discard(long messageId) {
+        pending.remove(messageId);
+    }
+
+    /**
+     * Complete the calls replied to and wait for messages not acknowledged yet.
+     *
+     * @param channelId Channel executor talked to, replies and acknowledgement are ignored for a different one.
+     * @param ack Id of the last message executor has received.
+     * @param replies Replies to the messages received.
+     * @return Messages to deliver, empty when there were none in time.
+     */
+    /*package*/ synchronized @Nonnull List<PollResponse.Message> poll(
+            @Nonnull String channelId, long ack, @Nonnull List<PollRequest.Reply> replies
+    ) {
+        polling++;
+        try {
+            if (id.equals(channelId)) {
+                for (PollRequest.Reply reply : replies) {
+                    Pending replied = pending.remove(reply.getId());
+                    if (replied != null) {
+                        replied.future.complete(new BatchResponse.Result(reply.getStatus(), reply.getPayload()));
+                    }
+                }
+            } else {
+                ack = 0; // Everything is to be delivered to executor not knowing this channel
+            }
+
+            long timeout = System.currentTimeMillis() + POLL_TIMEOUT;
+            List<PollResponse.Message> messages = unacknowledged(ack);
+            while (messages.isEmpty()) {
+                long remaining = timeout - System.currentTimeMillis();
+                if (remaining <= 0) break;
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                messages = unacknowledged(ack);
+            }
+            return messages;
+        } finally {
+            polling--;
+            lastPolled = System.currentTimeMillis();
+        }
+    }
+
+    @GuardedBy("this")
+    private @Nonnull List<PollResponse.Message> unacknowledged(long ack) {
+        List<PollResponse.Message> messages = new ArrayList<>();
+        for (Pending p : pending.values()) {
+            if (p.message.getId() > ack) {
+                messages.add(p.message);
+            }
+        }
+        return messages;
+    }
+
+    private static final class Pending {
+        private final @Nonnull PollResponse.Message message;
+        private final @Nonnull CompletableFuture<BatchResponse.Result> future;
+
+        private Pending(@Nonnull PollResponse.Message message, @Nonnull CompletableFuture<BatchResponse.Result> future) {
+            this.message = message;
+            this.future = future;
+        }
+    }
+}
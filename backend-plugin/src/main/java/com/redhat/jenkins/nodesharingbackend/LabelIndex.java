@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingbackend;
+
+import com.redhat.jenkins.nodesharing.NodeDefinition;
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import hudson.model.labels.LabelExpression;
+import hudson.model.labels.LabelVisitor;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hosts of particular config repo snapshot indexed by their labels.
+ *
+ * Every host is given a position and every label atom the set of positions of hosts that have it. Label expressions are
+ * evaluated as set operations over those and the result is cached as the hosts do not change for the snapshot.
+ */
+/*package*/ final class LabelIndex {
+
+    // Maximal number of label expressions cached
+    private static final int MAX_CACHED = Integer.getInteger(LabelIndex.class.getName() + ".MAX_CACHED", 10000);
+
+    /*package*/ static final LabelIndex EMPTY = new LabelIndex(Collections.<NodeDefinition>emptyList());
+
+    private final @Nonnull List<String> hosts = new ArrayList<>();
+    private final @Nonnull Map<String, Integer> positions = new HashMap<>();
+    private final @Nonnull Map<String, BitSet> atoms = new HashMap<>();
+    private final @Nonnull BitSet all = new BitSet();
+    private final @Nonnull Map<String, BitSet> expressions = new ConcurrentHashMap<>();
+
+    /*package*/ LabelIndex(@Nonnull Collection<NodeDefinition> nodes) {
+        for (NodeDefinition node : nodes) {
+            int position = hosts.size();
+            hosts.add(node.getName());
+            positions.put(node.getName(), position);
+            all.set(position);
+
+            // Node name is its own label
+            index(node.getName(), position);
+            for (LabelAtom atom : node.getLabelAtoms()) {
+                index(atom.getName(), position);
+            }
+        }
+    }
+
+    private void index(@Nonnull String atom, int position) {
+        BitSet set = atoms.get(atom);
+        if (set == null) {
+            atoms.put(atom, set = new BitSet(hosts.size()));
+        }
+        set.set(position);
+    }
+
+    /**
+     * Positions of hosts matching the label.
+     *
+     * @return Set caller is free to modify.
+     */
+    public @Nonnull BitSet getHosts(@Nonnull Label label) {
+        String expression = label.getExpression();
+        BitSet set = expressions.get(expression);
+        if (set == null) {
+            set = label.accept(EVALUATOR, this);
+            if (expressions.size() >= MAX_CACHED) {
+                expressions.clear();
+            }
+            expressions.put(expression, set);
+        }
+        return (BitSet) set.clone();
+    }
+
+    /**
+     * Positions of all the hosts.
+     *
+     * @return Set caller is free to modify.
+     */
+    public @Nonnull BitSet getAll() {
+        return (BitSet) all.clone();
+    }
+
+    /**
+     * Determine if the host matches the label.
+     */
+    public boolean matches(@Nonnull Label label, @Nonnull String host) {
+        Integer position = positions.get(host);
+        return position != null && getHosts(label).get(position);
+    }
+
+    /**
+     * Name of the host at the position.
+     */
+    public @Nonnull String getHost(int position) {
+        return hosts.get(position);
+    }
+
+    /**
+     * Position of the host, null for unknown one.
+     */
+    public @CheckForNull Integer getPosition(@Nonnull String host) {
+        return positions.get(host);
+    }
+
+    private static final LabelVisitor<BitSet, LabelIndex> EVALUATOR = new LabelVisitor<BitSet, LabelIndex>() {
+        @Override public BitSet onAtom(LabelAtom a, LabelIndex index) {
+            BitSet set = index.atoms.get(a.getName());
+            return set == null ? new BitSet() : (BitSet) set.clone();
+        }
+
+        @Override public BitSet onParen(LabelExpression.Paren p, LabelIndex index) {
+            return p.base.accept(this, index);
+        }
+
+        @Override public BitSet onNot(LabelExpression.Not p, LabelIndex index) {
+            BitSet set = (BitSet) index.all.clone();
+            set.andNot(p.base.accept(this, index));
+            return set;
+        }
+
+        @Override public BitSet onAnd(LabelExpression.And p, LabelIndex index) {
+            BitSet set = p.lhs.accept(this, index);
+            set.and(p.rhs.accept(this, index));
+            return set;
+        }
+
+        @Override public BitSet onOr(LabelExpression.Or p, LabelIndex index) {
+            BitSet set = p.lhs.accept(this, index);
+            set.or(p.rhs.accept(this, index));
+            return set;
+        }
+
+        @Override public BitSet onIff(LabelExpression.Iff p, LabelIndex index) {
+            // Hosts where both sides agree
+            BitSet set = p.lhs.accept(this, index);
+            set.xor(p.rhs.accept(this, index));
+            BitSet agree = (BitSet) index.all.clone();
+            agree.andNot(set);
+            return agree;
+        }
+
+        @Override public BitSet onImplies(LabelExpression.Implies p, LabelIndex index) {
+            BitSet set = (BitSet) index.all.clone();
+            set.andNot(p.lhs.accept(this, index));
+            set.or(p.rhs.accept(this, index));
+            return set;
+        }
+    };
+}
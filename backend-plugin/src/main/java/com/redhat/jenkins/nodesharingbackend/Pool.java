@@ -33,6 +33,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
 import com.redhat.jenkins.nodesharing.ConfigRepoAdminMonitor;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
+import com.redhat.jenkins.nodesharing.HttpTransport;
 import com.redhat.jenkins.nodesharing.NodeDefinition;
 import com.redhat.jenkins.nodesharing.TaskLog;
 import hudson.AbortException;
@@ -86,6 +87,8 @@ public class Pool extends GlobalConfiguration {
     public static final String USERNAME_PROPERTY_NAME = "com.redhat.jenkins.nodesharingbackend.Pool.USERNAME";
     // TODO this will be visible in UI on /systemInfo (permission Jenkins/Administer)
     public static final String PASSWORD_PROPERTY_NAME = "com.redhat.jenkins.nodesharingbackend.Pool.PASSWORD";
+    // Name of HttpTransport.Implementation used to talk to executors, APACHE when not set
+    public static final String TRANSPORT_PROPERTY_NAME = "com.redhat.jenkins.nodesharingbackend.Pool.TRANSPORT";
 
     @Extension
     public static final ConfigRepoAdminMonitor ADMIN_MONITOR = new ConfigRepoAdminMonitor();
@@ -96,6 +99,8 @@ public class Pool extends GlobalConfiguration {
     // TODO consider persisting in case of crash with broken config in repo
     @GuardedBy("configLock")
     private @CheckForNull ConfigRepo.Snapshot config = null;
+    @GuardedBy("configLock")
+    private @Nonnull LabelIndex labelIndex = LabelIndex.EMPTY;
 
     public static @Nonnull Pool getInstance() {
         ExtensionList<Pool> list = Jenkins.getInstance().getExtensionList(Pool.class);
@@ -113,6 +118,22 @@ public class Pool extends GlobalConfiguration {
         return property;
     }
 
+    /**
+     * HTTP transport to talk to executor Jenkinses.
+     */
+    public @Nonnull HttpTransport.Implementation getTransport() {
+        String property = Util.fixEmptyAndTrim(System.getProperty(TRANSPORT_PROPERTY_NAME));
+        if (property == null) return HttpTransport.Implementation.APACHE;
+        try {
+            return HttpTransport.Implementation.valueOf(property);
+        } catch (IllegalArgumentException ex) {
+            ADMIN_MONITOR.report(MONITOR_CONTEXT, new AbortException(
+                    "Unknown node-sharing transport '" + property + "' specified by " + TRANSPORT_PROPERTY_NAME + " property"
+            ));
+            return HttpTransport.Implementation.APACHE;
+        }
+    }
+
     public @CheckForNull UsernamePasswordCredentials getExecutorCredential(ExecutorJenkins executor) {
         String credentialId = executor.getCredentialId();
         if(credentialId != null) {
@@ -186,6 +207,15 @@ public class Pool extends GlobalConfiguration {
         }
     }
 
+    /**
+     * Hosts of current config snapshot indexed by labels, empty if there is none.
+     */
+    /*package*/ @Nonnull LabelIndex getLabelIndex() {
+        synchronized (configLock) {
+            return labelIndex;
+        }
+    }
+
     private void updateConfig(@Nonnull ConfigRepo.Snapshot config) {
         boolean needsReconfiguration = false;
         synchronized (configLock) {
@@ -193,6 +223,7 @@ public class Pool extends GlobalConfiguration {
             String newRev = config.getSource();
             this.config = config;
             if (!newRev.equals(oldRev)) {
+                labelIndex = new LabelIndex(config.getNodes().values());
                 LOGGER.info("Config repo updated from " + oldRev + " to " + newRev);
                 needsReconfiguration = true;
             }
@@ -200,6 +231,10 @@ public class Pool extends GlobalConfiguration {
 
         if (needsReconfiguration) {
             updateOrchestrator(config);
+            // Executors might have been removed or their workload purged
+            Api.getInstance().requestWorkloadResync(null);
+            // Nor are the views of their usage trusted, the verification started below seeds them again
+            UsageTracker.getInstance().invalidate(null);
 
             // Start grid verification immediately after config repo change in a separate thread
             Computer.threadPoolForRemoting.submit(new Runnable() {
@@ -265,6 +300,8 @@ public class Pool extends GlobalConfiguration {
                 }
             }
         });
+        // Nodes ware added or relabeled
+        ReservationScheduler.getInstance().rematch();
     }
 
     /**
@@ -391,4 +428,17 @@ public class Pool extends GlobalConfiguration {
         }
         System.setProperty(PASSWORD_PROPERTY_NAME, password);
     }
+
+    @DataBoundSetter
+    public void setTransport(@Nonnull final HttpTransport.Implementation transport) {
+        String prop = System.getProperty(TRANSPORT_PROPERTY_NAME);
+        if (prop != null && !Objects.equals(prop, transport.name())) {
+            // Clashes
+            String msg = "Node-sharing Transport setting clashes between environment ("
+                    + prop + ") and JCasC (" + transport.name() + ")";
+            ADMIN_MONITOR.report(MONITOR_CONTEXT, new AbortException(msg));
+            throw new PoolMisconfigured(msg);
+        }
+        System.setProperty(TRANSPORT_PROPERTY_NAME, transport.name());
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingbackend;
+
+import com.redhat.jenkins.nodesharing.ExecutorJenkins;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Queued {@link ReservationTask}s per executor.
+ *
+ * Spares scanning the whole queue, that is shared by all the executors, when reconciling the workload of a single one.
+ * Tasks are keyed by their equality so an item can be found for a task created from the reported workload. The index is
+ * updated by queue events, which are delivered while holding the queue lock.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class ReservationIndex extends QueueListener {
+
+    private final @Nonnull Map<ExecutorJenkins, Map<ReservationTask, Queue.Item>> index = new ConcurrentHashMap<>();
+    // Items loaded with the queue are not announced to listeners
+    private volatile boolean populated = false;
+
+    public static @Nonnull ReservationIndex getInstance() {
+        ExtensionList<ReservationIndex> list = Jenkins.get().getExtensionList(ReservationIndex.class);
+        assert list.size() == 1;
+        return list.iterator().next();
+    }
+
+    /**
+     * Items of reservations queued for the executor.
+     *
+     * The map is a copy so it does not reflect later queue changes. Use with queue lock held to get a consistent view.
+     */
+    public @Nonnull Map<ReservationTask, Queue.Item> getQueued(@Nonnull ExecutorJenkins executor) {
+        if (!populated) {
+            Queue.withLock(new Runnable() {
+                @Override public void run() {
+                    for (Queue.Item item : Jenkins.get().getQueue().getItems()) {
+                        put(item);
+                    }
+                    populated = true;
+                }
+            });
+        }
+
+        Map<ReservationTask, Queue.Item> queued = index.get(executor);
+        return queued == null ? Collections.<ReservationTask, Queue.Item>emptyMap() : new HashMap<>(queued);
+    }
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        put(wi);
+    }
+
+    @Override
+    public void onEnterBlocked(Queue.BlockedItem bi) {
+        put(bi);
+    }
+
+    @Override
+    public void onEnterBuildable(Queue.BuildableItem bi) {
+        put(bi);
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        if (!(li.task instanceof ReservationTask)) return;
+
+        ReservationTask task = (ReservationTask) li.task;
+        Map<ReservationTask, Queue.Item> queued = index.get(task.getOwner());
+        if (queued == null) return;
+
+        Queue.Item item = queued.get(task);
+        // Equal task might have been queued since
+        if (item != null && item.getId() == li.getId()) {
+            queued.remove(task);
+        }
+    }
+
+    // Track the latest state of the item as that is the one queue can cancel
+    private void put(@Nonnull Queue.Item item) {
+        if (!(item.task instanceof ReservationTask)) return;
+
+        ReservationTask task = (ReservationTask) item.task;
+        Map<ReservationTask, Queue.Item> queued = index.get(task.getOwner());
+        if (queued == null) {
+            queued = new ConcurrentHashMap<>();
+            Map<ReservationTask, Queue.Item> existing = index.putIfAbsent(task.getOwner(), queued);
+            if (existing != null) {
+                queued = existing;
+            }
+        }
+        queued.put(task, item);
+    }
+}
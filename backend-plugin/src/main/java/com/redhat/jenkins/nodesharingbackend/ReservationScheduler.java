@@ -0,0 +1,648 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingbackend;
+
+import com.redhat.jenkins.nodesharing.ExecutorJenkins;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Match queued reservations with free hosts.
+ *
+ * Instead of {@link Queue#maintain()} evaluating every queued reservation against every host, reservations are
+ * kept blocked in the queue until they are assigned a host here. Pending reservations are indexed by label and
+ * executor: a host that frees up is assigned to a reservation for the labels it matches, and a new reservation is
+ * matched against the hosts of its label only, both resolved through the {@link LabelIndex} of current config
+ * snapshot. Queue then only starts reservations on the hosts they ware assigned and presents the state in UI.
+ *
+ * Share of an executor is the number of hosts it holds, reserved or assigned, divided by its weight. Among equally
+ * fitting reservations, giving the host to the lowest share serves the executors in proportion to their weights no
+ * matter how many reservations each of them has queued, while reservations of an executor are served in the order
+ * they ware queued. Executors holding their {@link ExecutorJenkins#getMaxHosts()} are not assigned more.
+ *
+ * When several free hosts can serve a new reservation, it is assigned the one other pending reservations need the least.
+ * Similarly, a freed host is given to the reservation that has the fewest other hosts to run on.
+ *
+ * Matching only happens on events: a reservation is queued, a host is freed, comes online or goes offline and the config
+ * repo changes. {@link #getCauseOfBlockage(ReservationTask)} called by every queue maintenance only looks the assignment
+ * up. Hosts assigned or reserved are tracked here so no computers need to be inspected to find the free ones.
+ *
+ * The scheduler only guards its own state, it never calls Jenkins holding its lock as it is called from within the queue
+ * lock as well as from executor threads.
+ *
+ * @see ReservationIndex for the reservations queued per executor.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class ReservationScheduler extends QueueListener {
+    private static final Logger LOGGER = Logger.getLogger(ReservationScheduler.class.getName());
+
+    private static final CauseOfBlockage WAITING_FOR_HOST = new CauseOfBlockage() {
+        @Override public String getShortDescription() {
+            return "Waiting for a free host";
+        }
+    };
+
+    private static final CauseOfBlockage ASSIGNED_ELSEWHERE = new CauseOfBlockage() {
+        @Override public String getShortDescription() {
+            return "Reservation assigned to a different host";
+        }
+    };
+
+    // Order the reservations ware queued in
+    @GuardedBy("this")
+    private long sequence;
+    // Position of every tracked reservation in the order
+    @GuardedBy("this")
+    private final @Nonnull Map<ReservationTask, Long> tracked = new HashMap<>();
+    // Reservations waiting for a host per label and executor name, in order
+    @GuardedBy("this")
+    private final @Nonnull Map<Label, Map<String, TreeMap<Long, ReservationTask>>> pending = new HashMap<>();
+    // Hosts assigned to reservations that have not started yet, and the other way around
+    @GuardedBy("this")
+    private final @Nonnull Map<ReservationTask, String> assignedHosts = new HashMap<>();
+    @GuardedBy("this")
+    private final @Nonnull Map<String, ReservationTask> assignedTasks = new HashMap<>();
+    // Hosts assigned or reserved by executor name, until they are freed
+    @GuardedBy("this")
+    private final @Nonnull Map<String, String> holders = new HashMap<>();
+
+    public static @Nonnull ReservationScheduler getInstance() {
+        ExtensionList<ReservationScheduler> list = Jenkins.get().getExtensionList(ReservationScheduler.class);
+        assert list.size() == 1;
+        return list.iterator().next();
+    }
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        if (!(wi.task instanceof ReservationTask)) return;
+
+        ReservationTask task = (ReservationTask) wi.task;
+        if (track(task)) {
+            schedule(task);
+        }
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        if (!(li.task instanceof ReservationTask)) return;
+
+        // The host is still free unless the reservation have started there
+        String host = untrack((ReservationTask) li.task, li.isCancelled());
+        if (host != null) {
+            ShareableNode node = getNode(host);
+            if (node != null) {
+                offer(node);
+            }
+        }
+    }
+
+    /**
+     * Cause of blockage of the queued reservation, null once it is assigned a host it can start on.
+     */
+    public @CheckForNull CauseOfBlockage getCauseOfBlockage(@Nonnull ReservationTask task) {
+        String host;
+        boolean isTracked;
+        synchronized (this) {
+            host = assignedHosts.get(task);
+            isTracked = tracked.containsKey(task);
+        }
+
+        if (host != null) {
+            // Reassigned once the host is reported offline
+            return isAvailable(getNode(host)) ? null : WAITING_FOR_HOST;
+        }
+
+        // Queued without the listeners being notified, matched once
+        if (!isTracked && Jenkins.get().getQueue().contains(task) && track(task) && schedule(task)) return null;
+
+        return WAITING_FOR_HOST;
+    }
+
+    /**
+     * Permit the reservation to start on the host it was assigned only.
+     */
+    public @CheckForNull CauseOfBlockage canTake(@Nonnull ShareableNode node, @Nonnull ReservationTask task) {
+        String host;
+        synchronized (this) {
+            host = assignedHosts.get(task);
+        }
+        return node.getNodeName().equals(host) ? null : ASSIGNED_ELSEWHERE;
+    }
+
+    /**
+     * The reservation on the host is being completed so it can be assigned to another one.
+     */
+    public void hostFreed(@Nonnull ShareableNode node) {
+        synchronized (this) {
+            if (!assignedTasks.containsKey(node.getNodeName())) {
+                holders.remove(node.getNodeName());
+            }
+        }
+        offer(node);
+    }
+
+    /**
+     * The host went offline so the reservation assigned to it needs another one.
+     */
+    public void hostLost(@Nonnull String host) {
+        ReservationTask task;
+        synchronized (this) {
+            task = assignedTasks.get(host);
+            if (task == null) return;
+
+            release(task);
+        }
+        LOGGER.fine("Host " + host + " assigned to " + task + " is no longer available");
+        schedule(task);
+    }
+
+    /**
+     * Reconcile the hosts with the computers and match the free ones, after they ware added, removed or relabeled.
+     */
+    public void rematch() {
+        Map<String, ShareableNode> nodes = ShareableNode.getAll();
+        List<String> held;
+        synchronized (this) {
+            held = new ArrayList<>(holders.keySet());
+        }
+        for (String host : held) {
+            ShareableNode node = nodes.get(host);
+            if (node == null || !isAvailable(node)) {
+                hostLost(host);
+            }
+            if (node == null) {
+                synchronized (this) {
+                    holders.remove(host);
+                }
+            }
+        }
+
+        for (ShareableNode node : nodes.values()) {
+            ShareableComputer computer = node.getComputer();
+            if (computer != null && computer.isIdle()) {
+                hostFreed(node);
+            }
+        }
+    }
+
+    // Assign free host to the pending reservation, true if assigned
+    private boolean schedule(@Nonnull ReservationTask task) {
+        if (!task.isBackfill()) {
+            ExecutorJenkins owner = getExecutors().get(task.getOwner().getName());
+            if (owner != null && owner.getMaxHosts() != ExecutorJenkins.UNLIMITED) {
+                Integer used = getUsage().get(owner.getName());
+                if (used != null && used >= owner.getMaxHosts()) return false;
+            }
+        }
+
+        LabelIndex index = Pool.getInstance().getLabelIndex();
+        Label label = task.getAssignedLabel();
+        BitSet free = index.getHosts(label);
+        free.and(getFreeHosts(index));
+        if (free.isEmpty()) return false;
+
+        for (String host : bestFit(index, label, free)) {
+            synchronized (this) {
+                if (!isPending(task)) return assignedHosts.containsKey(task);
+                if (holders.containsKey(host)) continue;
+
+                assign(task, host);
+            }
+            Jenkins.get().getQueue().scheduleMaintenance();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Order free hosts so the ones least needed by other pending reservations come first.
+     *
+     * Every host is scored by the number of reservations pending for labels other than the one being scheduled it
+     * matches, so a generic reservation does not take the only host that can serve a scarce label.
+     */
+    private @Nonnull List<String> bestFit(@Nonnull LabelIndex index, @Nonnull Label label, @Nonnull BitSet free) {
+        List<Integer> positions = new ArrayList<>(free.cardinality());
+        for (int i = free.nextSetBit(0); i >= 0; i = free.nextSetBit(i + 1)) {
+            positions.add(i);
+        }
+
+        if (positions.size() > 1) {
+            Map<Label, Integer> demand = new HashMap<>();
+            synchronized (this) {
+                for (Map.Entry<Label, Map<String, TreeMap<Long, ReservationTask>>> entry : pending.entrySet()) {
+                    if (entry.getKey().equals(label)) continue;
+
+                    int count = 0;
+                    for (TreeMap<Long, ReservationTask> tasks : entry.getValue().values()) {
+                        count += tasks.size();
+                    }
+                    demand.put(entry.getKey(), count);
+                }
+            }
+
+            final int[] scores = new int[free.length()];
+            for (Map.Entry<Label, Integer> entry : demand.entrySet()) {
+                BitSet wanted = index.getHosts(entry.getKey());
+                wanted.and(free);
+                for (int i = wanted.nextSetBit(0); i >= 0; i = wanted.nextSetBit(i + 1)) {
+                    scores[i] += entry.getValue();
+                }
+            }
+
+            Collections.sort(positions, new Comparator<Integer>() {
+                @Override public int compare(Integer a, Integer b) {
+                    return Integer.compare(scores[a], scores[b]);
+                }
+            });
+        }
+
+        List<String> hosts = new ArrayList<>(positions.size());
+        for (int position : positions) {
+            hosts.add(index.getHost(position));
+        }
+        return hosts;
+    }
+
+    // Hosts neither held nor offline
+    private @Nonnull BitSet getFreeHosts(@Nonnull LabelIndex index) {
+        BitSet free = index.getAll();
+        synchronized (this) {
+            for (String host : holders.keySet()) {
+                Integer position = index.getPosition(host);
+                if (position != null) {
+                    free.clear(position);
+                }
+            }
+        }
+        for (int i = free.nextSetBit(0); i >= 0; i = free.nextSetBit(i + 1)) {
+            if (!isAvailable(getNode(index.getHost(i)))) {
+                free.clear(i);
+            }
+        }
+        return free;
+    }
+
+    /**
+     * Assign the host to the pending reservation that has the fewest other hosts to run on.
+     *
+     * Reservations are ranked by the number of other free hosts matching their label, then by the number of other hosts
+     * matching it at all, so a scarce host is not given to a generic reservation that can use any other. The executor
+     * share and the order of queuing break the ties.
+     */
+    private void offer(@Nonnull ShareableNode node) {
+        if (!isAvailable(node)) return;
+
+        String host = node.getNodeName();
+        List<Label> labels;
+        synchronized (this) {
+            if (holders.containsKey(host)) return;
+            labels = new ArrayList<>(pending.keySet());
+        }
+
+        LabelIndex index = Pool.getInstance().getLabelIndex();
+        List<Label> matching = new ArrayList<>();
+        for (Label label : labels) {
+            if (index.matches(label, host)) {
+                matching.add(label);
+            }
+        }
+        if (matching.isEmpty()) return;
+
+        // Hosts other than this one the label can use, free ones and all of them
+        BitSet free = getFreeHosts(index);
+        Integer offered = index.getPosition(host);
+        if (offered != null) {
+            free.clear(offered);
+        }
+        Map<Label, int[]> alternatives = new HashMap<>();
+        for (Label label : matching) {
+            BitSet hosts = index.getHosts(label);
+            int all = hosts.cardinality() - 1;
+            hosts.and(free);
+            alternatives.put(label, new int[] { hosts.cardinality(), all });
+        }
+
+        Map<String, ExecutorJenkins> executors = getExecutors();
+
+        synchronized (this) {
+            if (holders.containsKey(host)) return;
+
+            Map<String, Integer> usage = getUsage();
+            Map.Entry<Long, ReservationTask> best = null;
+            int[] bestAlternatives = null;
+            double bestShare = Double.MAX_VALUE;
+            for (Label label : matching) {
+                Map<String, TreeMap<Long, ReservationTask>> byExecutor = pending.get(label);
+                if (byExecutor == null) continue;
+
+                for (Map.Entry<String, TreeMap<Long, ReservationTask>> entry : byExecutor.entrySet()) {
+                    Map.Entry<Long, ReservationTask> first = entry.getValue().firstEntry();
+
+                    int[] other = alternatives.get(label);
+                    double share;
+                    if (first.getValue().isBackfill()) {
+                        // Host is utilized by the executor already
+                        other = new int[] { -1, -1 };
+                        share = -1;
+                    } else {
+                        ExecutorJenkins executor = executors.get(entry.getKey());
+                        Integer used = usage.get(entry.getKey());
+                        int held = used == null ? 0 : used;
+                        if (executor != null && held >= executor.getMaxHosts()) continue;
+
+                        share = (held + 1) / (double) (executor == null ? 1 : executor.getWeight());
+                    }
+
+                    int diff = best == null ? -1 : compareAlternatives(other, bestAlternatives);
+                    if (diff == 0) {
+                        diff = Double.compare(share, bestShare);
+                    }
+                    if (diff == 0) {
+                        diff = Long.compare(first.getKey(), best.getKey());
+                    }
+                    if (diff < 0) {
+                        best = first;
+                        bestAlternatives = other;
+                        bestShare = share;
+                    }
+                }
+            }
+            if (best == null) return;
+
+            assign(best.getValue(), host);
+        }
+        Jenkins.get().getQueue().scheduleMaintenance();
+    }
+
+    private static int compareAlternatives(@Nonnull int[] a, @Nonnull int[] b) {
+        int diff = Integer.compare(a[0], b[0]);
+        return diff != 0 ? diff : Integer.compare(a[1], b[1]);
+    }
+
+    /**
+     * Share of the hosts every executor of current config snapshot holds and is entitled to.
+     */
+    public @Nonnull List<Share> getShares() {
+        Collection<ExecutorJenkins> executors = getExecutors().values();
+        Map<String, Integer> usage = getUsage();
+        int hosts = ShareableNode.getAll().size();
+
+        int totalWeight = 0;
+        for (ExecutorJenkins executor : executors) {
+            totalWeight += executor.getWeight();
+        }
+
+        List<Share> shares = new ArrayList<>(executors.size());
+        for (ExecutorJenkins executor : executors) {
+            Integer used = usage.get(executor.getName());
+            double entitled = Math.min(hosts * executor.getWeight() / (double) totalWeight, executor.getMaxHosts());
+            shares.add(new Share(executor, used == null ? 0 : used, entitled));
+        }
+        return shares;
+    }
+
+    // Hosts held by executors, reserved or assigned, by executor name
+    private synchronized @Nonnull Map<String, Integer> getUsage() {
+        Map<String, Integer> usage = new HashMap<>();
+        for (String executor : holders.values()) {
+            Integer count = usage.get(executor);
+            usage.put(executor, count == null ? 1 : count + 1);
+        }
+        return usage;
+    }
+
+    // Executors of current config snapshot by name
+    private static @Nonnull Map<String, ExecutorJenkins> getExecutors() {
+        Map<String, ExecutorJenkins> executors = new LinkedHashMap<>();
+        try {
+            for (ExecutorJenkins executor : Pool.getInstance().getConfig().getJenkinses()) {
+                executors.put(executor.getName(), executor);
+            }
+        } catch (Pool.PoolMisconfigured ex) {
+            // No executors to share among
+        }
+        return executors;
+    }
+
+    private static @CheckForNull ShareableNode getNode(@Nonnull String host) {
+        Node node = Jenkins.get().getNode(host);
+        return node instanceof ShareableNode ? (ShareableNode) node : null;
+    }
+
+    private static boolean isAvailable(@CheckForNull ShareableNode node) {
+        if (node == null) return false;
+
+        Computer computer = node.getComputer();
+        return computer != null && !computer.isOffline();
+    }
+
+    // Start tracking the queued reservation, false if tracked already
+    private synchronized boolean track(@Nonnull ReservationTask task) {
+        if (tracked.containsKey(task)) return false;
+
+        // Backfills have the node utilized already so they go first
+        long position = task.isBackfill() ? Long.MIN_VALUE + ++sequence : ++sequence;
+        tracked.put(task, position);
+        pend(task, position);
+        return true;
+    }
+
+    // Stop tracking the reservation, returning the host it was assigned if it is free again
+    private synchronized @CheckForNull String untrack(@Nonnull ReservationTask task, boolean cancelled) {
+        Long position = tracked.remove(task);
+        if (position == null) return null;
+
+        unpend(task, position);
+        String host = assignedHosts.remove(task);
+        if (host == null) return null;
+
+        assignedTasks.remove(host);
+        if (!cancelled) return null; // Held until the reservation completes
+
+        holders.remove(host);
+        return host;
+    }
+
+    // Put the reservation back to pending ones
+    private synchronized void release(@Nonnull ReservationTask task) {
+        String host = assignedHosts.remove(task);
+        if (host == null) return;
+
+        assignedTasks.remove(host);
+        holders.remove(host);
+        Long position = tracked.get(task);
+        if (position != null) {
+            pend(task, position);
+        }
+    }
+
+    @GuardedBy("this")
+    private void assign(@Nonnull ReservationTask task, @Nonnull String host) {
+        unpend(task, tracked.get(task));
+        assignedHosts.put(task, host);
+        assignedTasks.put(host, task);
+        holders.put(host, task.getOwner().getName());
+        LOGGER.fine("Assigned " + host + " to " + task);
+    }
+
+    @GuardedBy("this")
+    private boolean isPending(@Nonnull ReservationTask task) {
+        return tracked.containsKey(task) && !assignedHosts.containsKey(task);
+    }
+
+    @GuardedBy("this")
+    private void pend(@Nonnull ReservationTask task, long position) {
+        Label label = task.getAssignedLabel();
+        Map<String, TreeMap<Long, ReservationTask>> byExecutor = pending.get(label);
+        if (byExecutor == null) {
+            pending.put(label, byExecutor = new HashMap<>());
+        }
+        String executor = task.getOwner().getName();
+        TreeMap<Long, ReservationTask> tasks = byExecutor.get(executor);
+        if (tasks == null) {
+            byExecutor.put(executor, tasks = new TreeMap<>());
+        }
+        tasks.put(position, task);
+    }
+
+    @GuardedBy("this")
+    private void unpend(@Nonnull ReservationTask task, long position) {
+        Label label = task.getAssignedLabel();
+        Map<String, TreeMap<Long, ReservationTask>> byExecutor = pending.get(label);
+        if (byExecutor == null) return;
+
+        String executor = task.getOwner().getName();
+        TreeMap<Long, ReservationTask> tasks = byExecutor.get(executor);
+        if (tasks == null) return;
+
+        tasks.remove(position);
+        if (tasks.isEmpty()) {
+            byExecutor.remove(executor);
+            if (byExecutor.isEmpty()) {
+                pending.remove(label);
+            }
+        }
+    }
+
+    /**
+     * Hosts held by an executor compared to what it is entitled to.
+     */
+    public static final class Share {
+        private final @Nonnull ExecutorJenkins executor;
+        private final int used;
+        private final double entitled;
+
+        /*package*/ Share(@Nonnull ExecutorJenkins executor, int used, double entitled) {
+            this.executor = executor;
+            this.used = used;
+            this.entitled = entitled;
+        }
+
+        public @Nonnull ExecutorJenkins getExecutor() {
+            return executor;
+        }
+
+        /**
+         * Number of hosts reserved or assigned to the executor.
+         */
+        public int getUsed() {
+            return used;
+        }
+
+        /**
+         * Number of hosts the executor is entitled to when all executors compete for all the hosts.
+         */
+        public double getEntitled() {
+            return entitled;
+        }
+    }
+
+    /**
+     * Offer hosts that come online and reassign reservations of those that go offline.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static final class HostListener extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            offerIdle(c);
+        }
+
+        @Override
+        public void onTemporarilyOnline(Computer c) {
+            offerIdle(c);
+        }
+
+        @Override
+        public void onOffline(@Nonnull Computer c, @CheckForNull OfflineCause cause) {
+            if (c instanceof ShareableComputer) {
+                getInstance().hostLost(c.getName());
+            }
+        }
+
+        @Override
+        public void onTemporarilyOffline(Computer c, OfflineCause cause) {
+            if (c instanceof ShareableComputer) {
+                getInstance().hostLost(c.getName());
+            }
+        }
+
+        private void offerIdle(Computer c) {
+            if (!(c instanceof ShareableComputer)) return;
+
+            ShareableNode node = ((ShareableComputer) c).getNode();
+            if (node != null) {
+                getInstance().offer(node);
+            }
+        }
+    }
+}
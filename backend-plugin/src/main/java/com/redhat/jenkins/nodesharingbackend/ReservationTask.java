@@ -32,17 +32,19 @@ import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.model.ResourceList;
 import hudson.model.queue.AbstractQueueTask;
+import hudson.model.queue.CauseOfBlockage;
 import hudson.security.ACL;
 import hudson.security.AccessControlled;
 import hudson.security.Permission;
-import hudson.util.OneShotEvent;
 import jenkins.model.Jenkins;
 import jenkins.model.queue.AsynchronousExecution;
 import org.acegisecurity.AccessDeniedException;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -101,6 +103,11 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
     @Override public boolean isBuildBlocked() { return false; }
     @Override @Deprecated public String getWhyBlocked() { return null; }
 
+    @Override public CauseOfBlockage getCauseOfBlockage() {
+        // Blocked until the scheduler assigns a host
+        return ReservationScheduler.getInstance().getCauseOfBlockage(this);
+    }
+
     @Override public String getName() { return jenkins.getName(); }
     @Override public String getFullDisplayName() { return jenkins.getName(); }
     @Override public String getDisplayName() { return jenkins.getName(); }
@@ -113,6 +120,9 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
     public @Nonnull String getTaskName() {
         return taskName;
     }
+    /*package*/ boolean isBackfill() {
+        return backfill;
+    }
 
     @Override public void checkAbortPermission() {throw new AccessDeniedException("Not abortable"); }
     @Override public boolean hasAbortPermission() { return false; }
@@ -181,16 +191,32 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
         return "Reservation '" + taskName + "' by " + jenkins.getName() + " (qid=" + qid + ", hash=" + System.identityHashCode(this) + ", labels=" + label + ")";
     }
 
+    /**
+     * Reservation of the node.
+     *
+     * Once the node is utilized by executor, the reservation continues asynchronously not to occupy a thread for its whole
+     * duration. It is completed when executor returns the node or {@link ReservationVerifier} finds it no longer used.
+     */
     public static class ReservationExecutable implements Queue.Executable {
 
         private final @Nonnull ReservationTask task;
+        // Identifies the reservation in the calls to executor so the replayed and late calls can be told apart. Null for
+        // backfills as executor have utilized the node for some other reservation.
+        private final @CheckForNull String reservationId;
         private @CheckForNull String nodeName; // Assigned as soon as execution starts
         private @Nonnull String taskName;
-        private @Nonnull OneShotEvent done = new OneShotEvent();
+        @GuardedBy("this")
+        private boolean completed;
+        // Set once the node is utilized and the execution continues asynchronously
+        @GuardedBy("this")
+        private @CheckForNull AsynchronousExecution execution;
+        // Executor no longer has the item queued, so it does not need the reservation recreated once completed
+        private volatile boolean withdrawn;
 
         protected ReservationExecutable(@Nonnull ReservationTask task) {
             this.task = task;
             this.taskName = task.toString();
+            this.reservationId = task.backfill ? null : UUID.randomUUID().toString();
         }
 
         @Override
@@ -207,6 +233,10 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
             return nodeName;
         }
 
+        public @CheckForNull String getReservationId() {
+            return reservationId;
+        }
+
         @Override
         public void run() throws AsynchronousExecution {
             ShareableComputer computer = getExecutingComputer();
@@ -222,7 +252,7 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
                 while (true) {
                     boolean accepted;
                     try {
-                        accepted = Api.getInstance().utilizeNode(task.jenkins, node);
+                        accepted = Api.getInstance().utilizeNode(task.jenkins, node, reservationId);
                     } catch (Pool.PoolMisconfigured ex) {
                         // Loop for as long as the pool is broken
                         LOGGER.warning(ex.getMessage());
@@ -236,17 +266,21 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
                         }
                         continue;
                     } catch (ActionFailed.RequestTimeout ex) {
-                        // This is a conservative approach to not knowing whether the request passed or not. We presume
-                        // it did so we keep the node reserved because underutilizing resources is less disruptive than
-                        // non-exclusive lease would we risk by stopping the ReservationTask here.
+                        // No response arrived even though the request was resent. This is a conservative approach to
+                        // not knowing whether the request passed or not. We presume it did so we keep the node reserved
+                        // because underutilizing resources is less disruptive than non-exclusive lease would we risk by
+                        // stopping the ReservationTask here.
                         LOGGER.log(Level.WARNING, "utilizeNode request timed out, continuing the reservation speculatively");
                         break;
                     } catch (Throwable ex) {
                         LOGGER.log(Level.SEVERE, taskName + " failed to get the node utilized", ex);
+                        // Have the reservation recreated should the executor still need it
+                        Api.getInstance().requestWorkloadResync(task.jenkins);
                         return;
                     }
                     if (!accepted) {
                         LOGGER.info(taskName + " rejected by executor");
+                        Api.getInstance().requestWorkloadResync(task.jenkins);
                         return; // Abort reservation
                     } else {
                         break; // Reserved successfully - wait for node return
@@ -256,12 +290,10 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
 
             // TODO This this point, we might want to a) check/wait until executor creates the node and b) expose that
             // for ReservationVerifier to help balance executor nodes with running reservations
-            try {
-                done.block();
-                LOGGER.info(taskName + " completed");
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                LOGGER.log(Level.INFO, taskName + " interrupted", e);
+            synchronized (this) {
+                if (completed) return; // Returned already
+                execution = new Reservation();
+                throw execution;
             }
         }
 
@@ -274,8 +306,45 @@ public class ReservationTask extends AbstractQueueTask implements AccessControll
             return (ShareableComputer) owner;
         }
 
+        /*package*/ void withdraw() {
+            withdrawn = true;
+        }
+
         public void complete() {
-            done.signal();
+            AsynchronousExecution execution;
+            synchronized (this) {
+                if (completed) return;
+                completed = true;
+                execution = this.execution;
+            }
+            LOGGER.info(taskName + " completed");
+            if (execution != null) {
+                execution.completed(null);
+            }
+            if (!task.backfill && !withdrawn) {
+                // The item still waits for a host on executor. It was reported already so it is not in the workload delta,
+                // have executor report it again for the reservation to be recreated.
+                Api.getInstance().requestWorkloadResync(task.jenkins);
+            }
+        }
+
+        // Holds the executor occupied, and so the node reserved, until completed
+        private final class Reservation extends AsynchronousExecution {
+            @Override
+            public void interrupt(boolean forShutdown) {
+                LOGGER.info(taskName + " interrupted");
+                complete();
+            }
+
+            @Override
+            public boolean blocksRestart() {
+                return true;
+            }
+
+            @Override
+            public boolean displayCell() {
+                return true;
+            }
         }
 
         @Override public String toString() {
@@ -25,8 +25,10 @@ package com.redhat.jenkins.nodesharingbackend;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
+import com.redhat.jenkins.nodesharing.Deadline;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
 import com.redhat.jenkins.nodesharing.RestEndpoint;
+import com.redhat.jenkins.nodesharing.transport.ReportUsageResponse;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.ExtensionList;
@@ -46,6 +48,10 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -79,11 +85,30 @@ import java.util.logging.Logger;
  *     <li>C1: Orchestrator tracks reservation but extra executors report usage of the host. Bug or Race condition.</li>
  *     <li>C2: Multiple executors report reservation but orchestrator tracks none. Bug or Race condition.</li>
  * </ul>
+ *
+ * <h2>Sampling</h2>
+ *
+ * Executors streaming their usage events are not queried for the first sample, unless the periodic consistency check is
+ * due, as {@link UsageTracker} knows their usage already. The second sample always queries the executors so the fixups
+ * are never based on the events alone.
  */
 @Extension
 public class ReservationVerifier extends PeriodicWork {
     private static final Logger LOGGER = Logger.getLogger(ReservationVerifier.class.getName());
 
+    // Time in ms all executors are given to report usage for a single sample
+    private static final long SAMPLE_TIMEOUT = Long.getLong(
+            "com.redhat.jenkins.nodesharingbackend.ReservationVerifier.SAMPLE_TIMEOUT", RestEndpoint.TIMEOUT
+    );
+
+    // Time in minutes after which all the executors are queried even if their streamed usage is known
+    private static final long CONSISTENCY_CHECK_PERIOD = Long.getLong(
+            "com.redhat.jenkins.nodesharingbackend.ReservationVerifier.CONSISTENCY_CHECK_PERIOD", 60
+    );
+
+    // Time in ms the executors ware last queried for the first sample
+    private static long lastConsistencyCheck = 0;
+
     public static @Nonnull ReservationVerifier getInstance() {
         ExtensionList<ReservationVerifier> list = Jenkins.getInstance().getExtensionList(ReservationVerifier.class);
         assert list.size() == 1;
@@ -112,19 +137,24 @@ public class ReservationVerifier extends PeriodicWork {
     synchronized public static void verify(ConfigRepo.Snapshot config, Api api) {
         // Capture multiple plans so we can identify long-lasting problems. The number of samples and delay is to be fine-tuned.
         ArrayList<Map<ExecutorJenkins, PlannedFixup>> plans = new ArrayList<>();
-        plans.add(computePlannedFixup(config, api));
+        boolean consistencyCheck = System.currentTimeMillis() - lastConsistencyCheck >= TimeUnit.MINUTES.toMillis(CONSISTENCY_CHECK_PERIOD);
+        if (consistencyCheck) {
+            lastConsistencyCheck = System.currentTimeMillis();
+        }
+        plans.add(computePlannedFixup(config, api, !consistencyCheck));
         if (plans.get(0).isEmpty()) return; // If there is nothing to do, no need to doublecheck
 
         LOGGER.info("Collecting more samples to recover the grid state");
 
         try {
-            Thread.sleep(RestEndpoint.TIMEOUT * 2);
+            // Let the reservation changes in flight while sampling either complete or time out
+            Thread.sleep(Math.max(RestEndpoint.getTimeout("utilizeNode"), RestEndpoint.getTimeout("returnNode")));
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             return;
         }
 
-        plans.add(computePlannedFixup(config, api));
+        plans.add(computePlannedFixup(config, api, false));
         Map<ExecutorJenkins, PlannedFixup> plan = PlannedFixup.reduce(plans);
 
         // First kill all dangling reservations, then schedule new ones across the orchestrator to make sure backfills
@@ -178,12 +208,12 @@ public class ReservationVerifier extends PeriodicWork {
         }
     }
 
-    private static Map<ExecutorJenkins, PlannedFixup> computePlannedFixup(ConfigRepo.Snapshot config, Api api) {
+    private static Map<ExecutorJenkins, PlannedFixup> computePlannedFixup(ConfigRepo.Snapshot config, Api api, boolean useTracked) {
         // When executor is removed from config repo, it might have ReservationTasks running for a while so it is
         // necessary to query these executors so the task completion can be detected.
         Set<ExecutorJenkins> jenkinses = new HashSet<>(config.getJenkinses());
         Map<ExecutorJenkins, Map<String, ReservationTask.ReservationExecutable>> trackedReservations = trackedReservations(jenkinses);
-        Map<ExecutorJenkins, Set<String>> executorReservations = queryExecutorReservations(jenkinses, api);
+        Map<ExecutorJenkins, Set<String>> executorReservations = queryExecutorReservations(jenkinses, api, useTracked);
         assert executorReservations.keySet().equals(trackedReservations.keySet()) : executorReservations + " != " + trackedReservations;
 
         // TODO verify multiple executors are not using same host
@@ -219,15 +249,47 @@ public class ReservationVerifier extends PeriodicWork {
     }
 
     private static @Nonnull Map<ExecutorJenkins, Set<String>> queryExecutorReservations(
-            @Nonnull Set<ExecutorJenkins> jenkinses, @Nonnull Api api
+            @Nonnull Set<ExecutorJenkins> jenkinses, @Nonnull Api api, boolean useTracked
     ) {
+        UsageTracker tracker = UsageTracker.getInstance();
         Map<ExecutorJenkins, Set<String>> responses = new HashMap<>();
+
+        // Query all executors at once not to wait for the slow ones one after another. The whole sample is bounded
+        // by a single deadline no matter how many executors there are.
+        Deadline deadline = Deadline.after(SAMPLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        Map<ExecutorJenkins, CompletableFuture<ReportUsageResponse>> futures = new HashMap<>();
         for (ExecutorJenkins executorJenkins : jenkinses) {
+            if (useTracked) {
+                Set<String> tracked = tracker.getUsedNodes(executorJenkins);
+                if (tracked != null) {
+                    responses.put(executorJenkins, tracked);
+                    continue;
+                }
+            }
+            try {
+                futures.put(executorJenkins, api.reportUsageAsync(executorJenkins, deadline));
+            } catch (Exception e) {
+                futures.put(executorJenkins, CompletableFuture.<ReportUsageResponse>failedFuture(e));
+            }
+        }
+
+        for (Map.Entry<ExecutorJenkins, CompletableFuture<ReportUsageResponse>> entry : futures.entrySet()) {
+            ExecutorJenkins executorJenkins = entry.getKey();
             try {
-                responses.put(executorJenkins, new HashSet<>(api.reportUsage(executorJenkins).getUsedNodes()));
+                ReportUsageResponse response = entry.getValue().get(deadline.remaining(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+                responses.put(executorJenkins, new HashSet<>(response.getUsedNodes()));
+                tracker.seed(executorJenkins, response.getUsedNodes());
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(false);
+                responses.put(executorJenkins, null);
+                LOGGER.warning("Jenkins master '" + executorJenkins + "' didn't respond in " + SAMPLE_TIMEOUT + "ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                responses.put(executorJenkins, null);
             } catch (Exception e) {
+                Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
                 responses.put(executorJenkins, null);
-                LOGGER.log(Level.SEVERE, "Jenkins master '" + executorJenkins + "' didn't respond correctly:", e);
+                LOGGER.log(Level.SEVERE, "Jenkins master '" + executorJenkins + "' didn't respond correctly:", cause);
             }
         }
         return responses;
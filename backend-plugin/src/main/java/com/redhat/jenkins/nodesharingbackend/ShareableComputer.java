@@ -138,6 +138,25 @@ public class ShareableComputer extends SlaveComputer implements EphemeralNode {
         return nodeName;
     }
 
+    @Override
+    public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+        super.taskCompleted(executor, task, durationMS);
+        hostFreed();
+    }
+
+    @Override
+    public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+        super.taskCompletedWithProblems(executor, task, durationMS, problems);
+        hostFreed();
+    }
+
+    private void hostFreed() {
+        ShareableNode node = getNode();
+        if (node != null) {
+            ReservationScheduler.getInstance().hostFreed(node);
+        }
+    }
+
     @Override
     public boolean isConnecting() {
         return false;
@@ -118,7 +118,8 @@ public final class ShareableNode extends Slave implements EphemeralNode {
     @Override
     public CauseOfBlockage canTake(Queue.BuildableItem item) {
         if (item.task instanceof ReservationTask) {
-            return super.canTake(item);
+            CauseOfBlockage assigned = ReservationScheduler.getInstance().canTake(this, (ReservationTask) item.task);
+            return assigned != null ? assigned : super.canTake(item);
         } else {
             return RESERVATION_TASKS_ONLY;
         }
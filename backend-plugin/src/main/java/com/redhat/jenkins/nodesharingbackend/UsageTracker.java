@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingbackend;
+
+import com.redhat.jenkins.nodesharing.ExecutorJenkins;
+import com.redhat.jenkins.nodesharing.transport.UsageEventsRequest;
+import hudson.Extension;
+import hudson.ExtensionList;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Node usage of executors as streamed by their usage events.
+ *
+ * The view of an executor is only trusted when it was seeded by a full usage report and no event batch was missed since.
+ * Otherwise {@link ReservationVerifier} needs to query the executor.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class UsageTracker {
+    private static final Logger LOGGER = Logger.getLogger(UsageTracker.class.getName());
+
+    private final @Nonnull Map<ExecutorJenkins, View> views = new ConcurrentHashMap<>();
+
+    public static @Nonnull UsageTracker getInstance() {
+        ExtensionList<UsageTracker> list = Jenkins.get().getExtensionList(UsageTracker.class);
+        assert list.size() == 1;
+        return list.iterator().next();
+    }
+
+    /**
+     * Apply batch of events streamed by executor.
+     *
+     * @param sequence Number of the batch. Repeated batch is ignored, gap in the sequence makes the view incomplete.
+     */
+    public void apply(@Nonnull ExecutorJenkins executor, long sequence, @Nonnull List<UsageEventsRequest.Event> events) {
+        getView(executor).apply(executor, sequence, events);
+    }
+
+    /**
+     * Replace the view of executor with the usage it has reported in full.
+     */
+    public void seed(@Nonnull ExecutorJenkins executor, @Nonnull Collection<String> usedNodes) {
+        getView(executor).seed(usedNodes);
+    }
+
+    /**
+     * Nodes used by the executor, or null if the streamed events are not known to describe it completely.
+     */
+    public @CheckForNull Set<String> getUsedNodes(@Nonnull ExecutorJenkins executor) {
+        View view = views.get(executor);
+        return view == null ? null : view.getUsedNodes();
+    }
+
+    /**
+     * Stop trusting the streamed view of the executor.
+     *
+     * @param executor Executor to forget, null for all of them.
+     */
+    public void invalidate(@CheckForNull ExecutorJenkins executor) {
+        if (executor == null) {
+            views.clear();
+        } else {
+            views.remove(executor);
+        }
+    }
+
+    private @Nonnull View getView(@Nonnull ExecutorJenkins executor) {
+        View view = views.get(executor);
+        if (view == null) {
+            view = new View();
+            View existing = views.putIfAbsent(executor, view);
+            if (existing != null) {
+                view = existing;
+            }
+        }
+        return view;
+    }
+
+    private static final class View {
+        @GuardedBy("this")
+        private final @Nonnull Map<String, UsageEventsRequest.Type> nodes = new HashMap<>();
+        // Sequence of the last batch applied, null before the first one arrives
+        @GuardedBy("this")
+        private @CheckForNull Long sequence;
+        // All the events since the view was seeded ware applied
+        @GuardedBy("this")
+        private boolean complete;
+        // Executor streams the events, the view is not updated otherwise
+        @GuardedBy("this")
+        private boolean streaming;
+
+        private synchronized void apply(ExecutorJenkins executor, long sequence, List<UsageEventsRequest.Event> events) {
+            if (this.sequence != null) {
+                if (sequence == this.sequence) return; // Resent after the response got lost
+                if (sequence != this.sequence + 1) {
+                    LOGGER.fine("Usage events " + sequence + " from " + executor + " does not follow " + this.sequence);
+                    complete = false;
+                }
+            }
+            this.sequence = sequence;
+            streaming = true;
+
+            for (UsageEventsRequest.Event event : events) {
+                if (event.getType().isUsed()) {
+                    nodes.put(event.getNodeName(), event.getType());
+                } else {
+                    nodes.remove(event.getNodeName());
+                }
+            }
+        }
+
+        private synchronized void seed(Collection<String> usedNodes) {
+            Map<String, UsageEventsRequest.Type> seeded = new HashMap<>();
+            for (String node : usedNodes) {
+                // Keep the type known from events, the report does not tell
+                UsageEventsRequest.Type type = nodes.get(node);
+                seeded.put(node, type == null ? UsageEventsRequest.Type.ATTACHED : type);
+            }
+            nodes.clear();
+            nodes.putAll(seeded);
+            complete = true;
+        }
+
+        private synchronized @CheckForNull Set<String> getUsedNodes() {
+            if (!streaming || !complete) return null;
+            return new HashSet<>(nodes.keySet());
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.redhat.jenkins.nodesharing.ConfigRepoAdminMonitor
 import com.redhat.jenkins.nodesharingbackend.Dashboard
 import com.redhat.jenkins.nodesharingbackend.Pool
 import com.redhat.jenkins.nodesharingbackend.Pool.PoolMisconfigured
+import com.redhat.jenkins.nodesharingbackend.ReservationScheduler
 
 Dashboard d = my
 
@@ -19,14 +20,43 @@ try {
             th {
                 text("Executor Jenkins")
             }
+            th {
+                text("Connection")
+            }
+            th {
+                text("Hosts used")
+            }
+            th {
+                text("Hosts entitled")
+            }
+            th {
+                text("Weight")
+            }
         }
+        def shares = ReservationScheduler.instance.shares.collectEntries { [(it.executor.name): it] }
         snapshot.jenkinses.each { executor ->
+            def share = shares[executor.name]
             tr {
                 td {
                     a(href: executor.url) {
                         text(executor.name)
                     }
                 }
+                td {
+                    text(executor.circuitBreaker.description)
+                }
+                td {
+                    text(share.used)
+                }
+                td {
+                    text(String.format("%.1f", share.entitled))
+                    if (executor.maxHosts != executor.UNLIMITED) {
+                        text(" (max ${executor.maxHosts})")
+                    }
+                }
+                td {
+                    text(executor.weight)
+                }
             }
         }
     }
@@ -0,0 +1,47 @@
+package com.redhat.jenkins.nodesharingbackend;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlTest {
+
+    private static final String ACME = "http://acme.com/";
+    private static final String EMCA = "http://emca.com/";
+
+    @Test
+    public void limitRatePerExecutor() {
+        AdmissionControl ac = new AdmissionControl(1, 2, 10);
+
+        ac.admit(ACME).close();
+        ac.admit(ACME).close();
+        AdmissionControl.Permit rejected = ac.admit(ACME);
+        assertFalse(rejected.isAdmitted());
+        assertEquals(1, rejected.getRetryAfter());
+
+        // Other executors are not affected
+        AdmissionControl.Permit other = ac.admit(EMCA);
+        assertTrue(other.isAdmitted());
+        assertEquals(0, other.getRetryAfter());
+        other.close();
+    }
+
+    @Test
+    public void limitConcurrentCalls() {
+        AdmissionControl ac = new AdmissionControl(100, 100, 1);
+
+        AdmissionControl.Permit first = ac.admit(ACME);
+        assertTrue(first.isAdmitted());
+        assertFalse(ac.admit(EMCA).isAdmitted());
+
+        first.close();
+        first.close(); // Released only once
+
+        AdmissionControl.Permit second = ac.admit(EMCA);
+        assertTrue(second.isAdmitted());
+        assertFalse(ac.admit(ACME).isAdmitted());
+        second.close();
+    }
+}
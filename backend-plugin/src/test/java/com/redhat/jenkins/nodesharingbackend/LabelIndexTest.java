@@ -0,0 +1,65 @@
+package com.redhat.jenkins.nodesharingbackend;
+
+import com.redhat.jenkins.nodesharing.NodeDefinition;
+import hudson.model.Label;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LabelIndexTest {
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private final LabelIndex index = new LabelIndex(Arrays.<NodeDefinition>asList(
+            node("sol1", "solaris11 sparc"),
+            node("sol2", "solaris11 x86"),
+            node("win1", "w2k12 x86")
+    ));
+
+    @Test
+    public void evaluateExpressions() {
+        assertEquals(Arrays.asList("sol1", "sol2"), hosts("solaris11"));
+        assertEquals(Arrays.asList("sol2"), hosts("solaris11&&x86"));
+        assertEquals(Arrays.asList("sol1"), hosts("solaris11&&!(x86||x86_64)"));
+        assertEquals(Arrays.asList("sol2", "win1"), hosts("x86||w2k12"));
+        assertEquals(Arrays.asList("sol1", "win1"), hosts("solaris11<->sparc"));
+        assertEquals(Arrays.asList("sol1", "win1"), hosts("x86->w2k12"));
+        assertEquals(Arrays.asList("win1"), hosts("win1"));
+        assertEquals(Arrays.<String>asList(), hosts("no_such_label"));
+    }
+
+    @Test
+    public void matchHost() {
+        assertTrue(index.matches(Label.get("solaris11"), "sol2"));
+        assertFalse(index.matches(Label.get("solaris11"), "win1"));
+        assertFalse(index.matches(Label.get("solaris11"), "no_such_host"));
+        assertNull(index.getPosition("no_such_host"));
+
+        // Result is not shared with the index
+        index.getHosts(Label.get("solaris11")).clear();
+        assertEquals(Arrays.asList("sol1", "sol2"), hosts("solaris11"));
+    }
+
+    private List<String> hosts(String expression) {
+        BitSet set = index.getHosts(Label.get(expression));
+        List<String> hosts = new ArrayList<>();
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            hosts.add(index.getHost(i));
+        }
+        return hosts;
+    }
+
+    private static NodeDefinition node(String name, String label) {
+        return new NodeDefinition.Xml(name + ".xml", "<node><label>" + label + "</label></node>");
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.transport.BatchRequest;
+import com.redhat.jenkins.nodesharing.transport.BatchResponse;
+import com.redhat.jenkins.nodesharing.transport.Entity;
+import com.redhat.jenkins.nodesharing.transport.ExecutorEntity;
+import com.redhat.jenkins.nodesharing.transport.NodeStatusRequest;
+import com.redhat.jenkins.nodesharing.transport.NodeStatusResponse;
+import com.redhat.jenkins.nodesharing.transport.PollRequest;
+import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
+import com.redhat.jenkins.nodesharingbackend.Api;
+import com.redhat.jenkins.nodesharingbackend.Pool;
+import com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class BatchTest {
+
+    @Rule
+    public NodeSharingJenkinsRule j = new NodeSharingJenkinsRule();
+
+    @Test
+    public void serveOperations() throws Exception {
+        GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(gitClient.getWorkTree().getRemote());
+        RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), "cloud/" + cloud.name + "/api", j.getRestCredential());
+
+        String status = new NodeStatusRequest("repo", "0", "foo").toString();
+        BatchResponse response = rest.executeRequest(rest.post(Batch.OPERATION), new BatchRequest("repo", "0", Arrays.asList(
+                new BatchRequest.Operation("nodeStatus", status),
+                new BatchRequest.Operation("noSuchOperation", status),
+                new BatchRequest.Operation("nodeStatus", "{malformed")
+        )), BatchResponse.class);
+
+        List<BatchResponse.Result> results = response.getResults();
+        assertEquals(3, results.size());
+        assertEquals(200, results.get(0).getStatus());
+        NodeStatusResponse nsr = Entity.fromString(results.get(0).getPayload(), NodeStatusResponse.class);
+        assertEquals("foo", nsr.getNodeName());
+        assertEquals(NodeStatusResponse.Status.NOT_FOUND, nsr.getStatus());
+        assertEquals(404, results.get(1).getStatus());
+        assertEquals(500, results.get(2).getStatus());
+    }
+
+    @Test
+    public void doNotServeLongPoll() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), Api.getInstance().getUrlName(), j.getRestCredential());
+        ExecutorEntity.Fingerprint fingerprint = new ExecutorEntity.Fingerprint(
+                Pool.getInstance().getConfigRepoUrl(), "4.2", j.jenkins.getRootUrl()
+        );
+
+        String poll = new PollRequest(fingerprint, "", 0, Collections.<PollRequest.Reply>emptyList()).toString();
+        BatchResponse response = rest.executeRequest(rest.post(Batch.OPERATION), new BatchRequest("repo", "0", Arrays.asList(
+                new BatchRequest.Operation("poll", poll)
+        )), BatchResponse.class);
+
+        assertEquals(404, response.getResults().get(0).getStatus());
+    }
+
+    @Test
+    public void coalesceCalls() throws Exception {
+        GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(gitClient.getWorkTree().getRemote());
+        RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), "cloud/" + cloud.name + "/api", j.getRestCredential());
+
+        // Learn peer capabilities first
+        rest.executeRequest(rest.post("nodeStatus"), new NodeStatusRequest("repo", "0", "warmup"), NodeStatusResponse.class);
+
+        List<CompletableFuture<NodeStatusResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(rest.executeBatchedAsync(
+                    rest.post("nodeStatus"), new NodeStatusRequest("repo", "0", "node" + i), NodeStatusResponse.class, Deadline.NONE
+            ));
+        }
+        for (int i = 0; i < 5; i++) {
+            NodeStatusResponse nsr = futures.get(i).get();
+            assertEquals("node" + i, nsr.getNodeName());
+            assertEquals(NodeStatusResponse.Status.NOT_FOUND, nsr.getStatus());
+        }
+    }
+
+    @Test
+    public void keepCapabilitiesOnRejectedCall() throws Exception {
+        GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(gitClient.getWorkTree().getRemote());
+        RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), "cloud/" + cloud.name + "/api", j.getRestCredential());
+
+        rest.executeRequest(rest.post("nodeStatus"), new NodeStatusRequest("repo", "0", "warmup"), NodeStatusResponse.class);
+        assertFalse(rest.getPeerCapabilities().isEmpty());
+
+        try {
+            rest.executeRequest(rest.post("noSuchOperation"), new NodeStatusRequest("repo", "0", "foo"), NodeStatusResponse.class);
+            fail();
+        } catch (ActionFailed.RequestFailed ex) {
+            assertEquals(404, ex.getStatusCode());
+        }
+        // The other side has not changed, only the call was rejected
+        assertFalse(rest.getPeerCapabilities().isEmpty());
+    }
+}
@@ -181,7 +181,7 @@ public class GridTest {
 
         // Wait until restarted
         orchestratorClient.restart(true);
-        // Reservation verifier needs RestEndpoint#TIMEOUT * 2 to recover the state so this is going to take a while
+        // Reservation verifier waits for the longest reservation call timeout to recover the state so this is going to take a while
         await(60000 * 3, orchestratorClient::isRunning, throwable -> {
             dumpFixtureLog(o);
             return "Orchestrator have not started responding in time after restart";
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import com.redhat.jenkins.nodesharing.transport.Entity;
+import com.redhat.jenkins.nodesharing.transport.ReportUsageRequest;
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadResponse;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Talk to local HTTP/2 capable server using all the transports.
+ */
+public class HttpTransportTest {
+
+    private static final int CALLS = 8;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private Server server;
+    private String url;
+    private final Queue<String> protocols = new ConcurrentLinkedQueue<>();
+    private final Queue<String> authorizations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger crumbFetches = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        server = new Server();
+        HttpConfiguration config = new HttpConfiguration();
+        // Plain text HTTP/1.1 with upgrade to HTTP/2 (h2c)
+        ServerConnector connector = new ServerConnector(
+                server, new HttpConnectionFactory(config), new HTTP2CServerConnectionFactory(config)
+        );
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(
+                    String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response
+            ) throws IOException {
+                baseRequest.setHandled(true);
+                if (target.equals("/crumbIssuer/api/json")) {
+                    crumbFetches.incrementAndGet();
+                    try {
+                        Thread.sleep(200); // Let the concurrent calls find the fetch in progress
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (!target.equals("/endpoint/echo")) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+
+                protocols.add(request.getProtocol());
+                authorizations.add(request.getHeader("Authorization"));
+
+                InputStream in = request.getInputStream();
+                if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                ReportUsageRequest req = Entity.fromInputStream(in, ReportUsageRequest.class);
+                response.setContentType("application/json");
+                new ReportWorkloadResponse(req.getConfigRepoUrl(), req.getVersion()).toOutputStream(response.getOutputStream());
+            }
+        });
+        server.start();
+        url = "http://localhost:" + connector.getLocalPort() + "/";
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void jdk() throws Exception {
+        callConcurrently(HttpTransport.Implementation.JDK.get());
+
+        assertEquals(CALLS + 1, protocols.size());
+        // The first call upgrades the connection the rest is multiplexed over
+        for (String protocol : protocols) {
+            assertEquals("HTTP/2.0", protocol);
+        }
+    }
+
+    @Test
+    public void apache() throws Exception {
+        callConcurrently(HttpTransport.Implementation.APACHE.get());
+
+        assertEquals(CALLS + 1, protocols.size());
+        for (String protocol : protocols) {
+            assertEquals("HTTP/1.1", protocol);
+        }
+    }
+
+    @Test
+    public void fetchCrumbOnce() throws Exception {
+        UsernamePasswordCredentialsImpl creds = new UsernamePasswordCredentialsImpl(
+                CredentialsScope.GLOBAL, "id", "Testing node sharing credential", "jerry", "jerry"
+        );
+        RestEndpoint rest = new RestEndpoint(url, "endpoint", creds, HttpTransport.Implementation.APACHE.get());
+
+        List<CompletableFuture<ReportWorkloadResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            futures.add(rest.executeRequestAsync(
+                    rest.post("echo"), new ReportUsageRequest("repo", String.valueOf(i)), ReportWorkloadResponse.class
+            ));
+        }
+        for (int i = 0; i < CALLS; i++) {
+            assertEquals(String.valueOf(i), futures.get(i).get().getVersion());
+        }
+        assertEquals(1, crumbFetches.get());
+    }
+
+    private void callConcurrently(HttpTransport transport) throws Exception {
+        UsernamePasswordCredentialsImpl creds = new UsernamePasswordCredentialsImpl(
+                CredentialsScope.GLOBAL, "id", "Testing node sharing credential", "jerry", "jerry"
+        );
+        RestEndpoint rest = new RestEndpoint(url, "endpoint", creds, transport);
+        assertEquals(transport, rest.getTransport());
+
+        // Warm up - fetch the crumb and negotiate the capabilities
+        ReportWorkloadResponse warmUp = rest.executeRequest(
+                rest.post("echo"), new ReportUsageRequest("repo", "0"), ReportWorkloadResponse.class
+        );
+        assertEquals("0", warmUp.getVersion());
+
+        List<CompletableFuture<ReportWorkloadResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            futures.add(rest.executeRequestAsync(
+                    rest.post("echo"), new ReportUsageRequest("repo", String.valueOf(i)), ReportWorkloadResponse.class
+            ));
+        }
+        for (int i = 0; i < CALLS; i++) {
+            ReportWorkloadResponse response = futures.get(i).get();
+            assertEquals("repo", response.getConfigRepoUrl());
+            assertEquals(String.valueOf(i), response.getVersion());
+        }
+
+        for (String authorization : authorizations) {
+            assertEquals("Basic amVycnk6amVycnk=", authorization);
+        }
+    }
+}
@@ -152,6 +152,31 @@ public class PoolTest {
         assertNotNull(creds1);
     }
 
+    @Test
+    public void readExecutorShares() throws Exception {
+        GitClient cr = j.getConfigRepo();
+        FilePath j2Config = cr.getWorkTree().child("jenkinses").child("jenkins2");
+        j2Config.write(j2Config.readToString() + "\nweight=3\nmax_hosts=2\n", Charset.defaultCharset().name());
+        cr.add("*");
+        cr.commit("Weight");
+        Updater.getInstance().doRun();
+
+        Pool pool = Pool.getInstance();
+        ExecutorJenkins jenkins1 = pool.getConfig().getJenkinsByName("jenkins1");
+        assertEquals(1, jenkins1.getWeight());
+        assertEquals(ExecutorJenkins.UNLIMITED, jenkins1.getMaxHosts());
+        ExecutorJenkins jenkins2 = pool.getConfig().getJenkinsByName("jenkins2");
+        assertEquals(3, jenkins2.getWeight());
+        assertEquals(2, jenkins2.getMaxHosts());
+        assertFalse(Pool.ADMIN_MONITOR.getErrors().toString(), Pool.ADMIN_MONITOR.isActivated());
+
+        j2Config.write(j2Config.readToString() + "weight=0\n", Charset.defaultCharset().name());
+        cr.add("*");
+        cr.commit("Invalid weight");
+        Updater.getInstance().doRun();
+        assertReports("ERROR: Jenkins config file jenkins2: weight must be a positive number");
+    }
+
     @Test
     public void getCredentialsFromJenkinsWithPreference() throws Exception {
         GitClient cr = j.getConfigRepo();
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.transport.BatchResponse;
+import com.redhat.jenkins.nodesharing.transport.Entity;
+import com.redhat.jenkins.nodesharing.transport.NodeStatusRequest;
+import com.redhat.jenkins.nodesharing.transport.NodeStatusResponse;
+import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
+import com.redhat.jenkins.nodesharingbackend.Api;
+import com.redhat.jenkins.nodesharingbackend.ExecutorChannel;
+import com.redhat.jenkins.nodesharingbackend.Pool;
+import com.redhat.jenkins.nodesharingfrontend.PushChannelPoller;
+import com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PushChannelTest {
+
+    @Rule
+    public NodeSharingJenkinsRule j = new NodeSharingJenkinsRule();
+
+    @Test
+    public void pushCallsWhileConnected() throws Exception {
+        GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(gitClient.getWorkTree().getRemote());
+        ExecutorJenkins executor = Pool.getInstance().getConfig().getJenkinsByUrl(j.jenkins.getRootUrl());
+        Api api = Api.getInstance();
+        ExecutorChannel channel = api.getChannel(executor);
+
+        // Nobody polls so the calls go over HTTP
+        assertFalse(channel.isConnected());
+        assertNull(channel.send("nodeStatus", new NodeStatusRequest("repo", "0", "foo").toString()));
+        assertEquals(NodeStatusResponse.Status.NOT_FOUND, api.nodeStatus(executor, "foo"));
+
+        cloud.setPushChannel(true);
+        PushChannelPoller.getInstance().doRun();
+        for (int i = 0; !channel.isConnected(); i++) {
+            if (i > 100) throw new AssertionError("Executor has not connected");
+            Thread.sleep(100);
+        }
+
+        CompletableFuture<BatchResponse.Result> pushed = channel.send("nodeStatus", new NodeStatusRequest("repo", "0", "foo").toString());
+        assertNotNull(pushed);
+        BatchResponse.Result result = pushed.get(10, TimeUnit.SECONDS);
+        assertEquals(200, result.getStatus());
+        NodeStatusResponse nsr = Entity.fromString(result.getPayload(), NodeStatusResponse.class);
+        assertEquals("foo", nsr.getNodeName());
+        assertEquals(NodeStatusResponse.Status.NOT_FOUND, nsr.getStatus());
+
+        result = channel.send("noSuchOperation", "{}").get(10, TimeUnit.SECONDS);
+        assertEquals(404, result.getStatus());
+
+        // Orchestrator calls are delivered through the channel
+        assertEquals(NodeStatusResponse.Status.NOT_FOUND, api.nodeStatus(executor, "foo"));
+        Map<String, NodeStatusResponse.Status> statuses = api.nodeStatus(executor, Arrays.asList("foo", "bar"));
+        assertEquals(NodeStatusResponse.Status.NOT_FOUND, statuses.get("foo"));
+        assertEquals(NodeStatusResponse.Status.NOT_FOUND, statuses.get("bar"));
+        assertEquals(0, api.reportUsage(executor).getUsedNodes().size());
+
+        cloud.setPushChannel(false);
+    }
+}
@@ -90,7 +90,7 @@ public class RemovingExecutorFromConfigRepoTest {
         j.disableLocalExecutor(gitClient);
 
         Api api = cloud.getApi();
-        api.returnNode(((SharedNode) b.getBuiltOn()));
+        api.returnNode(api.createReturnNodeRequest((SharedNode) b.getBuiltOn()));
         Thread.sleep(100);
         assertEquals(0, j.getActiveReservations().size());
 
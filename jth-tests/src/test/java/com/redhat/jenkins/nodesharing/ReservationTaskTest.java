@@ -27,16 +27,26 @@ import com.gargoylesoftware.htmlunit.Page;
 import com.redhat.jenkins.nodesharing.utils.BlockingBuilder;
 import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
 import com.redhat.jenkins.nodesharingbackend.Pool;
+import com.redhat.jenkins.nodesharingbackend.ReservationIndex;
 import com.redhat.jenkins.nodesharingbackend.ReservationTask;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.queue.QueueTaskFuture;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.util.Map;
+
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ReservationTaskTest {
     @Rule public NodeSharingJenkinsRule j = new NodeSharingJenkinsRule();
@@ -71,4 +81,56 @@ public class ReservationTaskTest {
         target = wc.goTo(waitingUrl);
         assertEquals(j.getURL(), target.getUrl());
     }
+
+    @Test
+    public void indexQueuedReservations() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        ExecutorJenkins executor = Pool.getInstance().getConfig().getJenkinsByUrl(j.jenkins.getRootUrl());
+        ReservationIndex index = ReservationIndex.getInstance();
+        assertThat(index.getQueued(executor).size(), equalTo(0));
+
+        ReservationTask first = new ReservationTask(executor, Label.get("no_such_label"), "first", 1);
+        ReservationTask second = new ReservationTask(executor, Label.get("no_such_label"), "second", 2);
+        first.schedule();
+        second.schedule();
+
+        Map<ReservationTask, Queue.Item> queued = index.getQueued(executor);
+        assertThat(queued.keySet(), containsInAnyOrder(first, second));
+        // Tasks created from reported workload are found as well
+        Queue.Item item = queued.get(new ReservationTask(executor, Label.get("no_such_label"), "first", 1));
+        assertSame(first, item.task);
+
+        j.jenkins.getQueue().cancel(item.task);
+        assertThat(index.getQueued(executor).keySet(), containsInAnyOrder(second));
+    }
+
+    @Test
+    public void waitForHostAssignment() throws Exception {
+        j.addSharedNodeCloud(Pool.getInstance().getConfigRepoUrl());
+        j.singleJvmGrid(j.jenkins);
+
+        BlockingBuilder running = j.getBlockingProject("solaris11");
+        running.schedule();
+        running.start.block();
+        BlockingBuilder queued = j.getBlockingProject("solaris11");
+        QueueTaskFuture<FreeStyleBuild> queuedBuild = queued.schedule();
+        Thread.sleep(100); // Wait until build is queued before reporting workload
+        j.reportWorkloadToOrchestrator();
+
+        // The only matching host is reserved already
+        ReservationTask waiting = j.getQueuedReservations().iterator().next();
+        j.jenkins.getQueue().maintain();
+        Queue.Item item = j.jenkins.getQueue().getItem(waiting);
+        assertTrue(item.isBlocked());
+        assertEquals("Waiting for a free host", item.getCauseOfBlockage().getShortDescription());
+
+        // Host is assigned to the waiting reservation once freed
+        running.end.signal();
+        queuedBuild.getStartCondition().get();
+        assertThat(j.getQueuedReservations().size(), equalTo(0));
+        assertThat(j.getActiveReservations().size(), equalTo(1));
+
+        queued.end.signal();
+        j.assertBuildStatusSuccess(queuedBuild);
+    }
 }
@@ -23,10 +23,18 @@
  */
 package com.redhat.jenkins.nodesharing;
 
+import com.redhat.jenkins.nodesharing.transport.AbstractEntity;
+import com.redhat.jenkins.nodesharing.transport.ExecutorEntity;
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadDeltaRequest;
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadRequest;
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadResponse;
 import com.redhat.jenkins.nodesharing.utils.BlockingBuilder;
 import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
+import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule.BlockingTask;
+import com.redhat.jenkins.nodesharingbackend.Api;
 import com.redhat.jenkins.nodesharingbackend.Pool;
 import com.redhat.jenkins.nodesharingbackend.ReservationTask;
+import com.redhat.jenkins.nodesharingbackend.ShareableComputer;
 import com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
@@ -41,6 +49,7 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.StringWriter;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -77,10 +86,80 @@ public class ReservationTest {
         prop.load(this.getClass().getClassLoader().getResourceAsStream("nodesharingbackend.properties"));
 
         SharedNodeCloud.DescriptorImpl descriptor = (SharedNodeCloud.DescriptorImpl) j.jenkins.getDescriptorOrDie(SharedNodeCloud.class);
-        FormValidation validation = descriptor.doTestConnection(cr.getWorkTree().getRemote(), j.getRestCredentialId());
+        FormValidation validation = descriptor.doTestConnection(cr.getWorkTree().getRemote(), j.getRestCredentialId(), null);
         assertThat(validation.renderHtml(), containsString("Orchestrator version is " + prop.getProperty("version")));
     }
 
+    @Test
+    public void resyncWorkloadOnSequenceGap() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), Api.getInstance().getUrlName(), j.getRestCredential());
+        ExecutorEntity.Fingerprint fingerprint = new ExecutorEntity.Fingerprint(
+                Pool.getInstance().getConfigRepoUrl(), "4.2", j.jenkins.getRootUrl()
+        );
+        List<ReportWorkloadRequest.Workload.WorkloadItem> items = Collections.singletonList(
+                new ReportWorkloadRequest.Workload.WorkloadItem(1, "job", "no_such_label")
+        );
+        List<ReportWorkloadRequest.Workload.WorkloadItem> none = Collections.emptyList();
+
+        // No full report seen yet
+        ReportWorkloadResponse response = rest.executeRequest(rest.post("reportWorkloadDelta"), new ReportWorkloadDeltaRequest(
+                fingerprint, 1, items, none
+        ), ReportWorkloadResponse.class);
+        assertTrue(response.isResync());
+        assertThat(j.getQueuedReservations(), emptyIterable());
+
+        response = rest.executeRequest(rest.post("reportWorkload"), new ReportWorkloadRequest(
+                fingerprint, 5, new ReportWorkloadRequest.Workload.WorkloadBuilder(items).build()
+        ), ReportWorkloadResponse.class);
+        assertFalse(response.isResync());
+        assertTrue(response.getCapabilities().contains(AbstractEntity.CAPABILITY_WORKLOAD_DELTA));
+        assertThat(j.getQueuedReservations(), Matchers.<ReservationTask>iterableWithSize(1));
+
+        response = rest.executeRequest(rest.post("reportWorkloadDelta"), new ReportWorkloadDeltaRequest(
+                fingerprint, 6, none, items
+        ), ReportWorkloadResponse.class);
+        assertFalse(response.isResync());
+        assertThat(j.getQueuedReservations(), emptyIterable());
+
+        // Delta 7 got lost
+        response = rest.executeRequest(rest.post("reportWorkloadDelta"), new ReportWorkloadDeltaRequest(
+                fingerprint, 8, items, none
+        ), ReportWorkloadResponse.class);
+        assertTrue(response.isResync());
+        assertThat(j.getQueuedReservations(), emptyIterable());
+    }
+
+    @Test
+    public void resyncWorkloadWhenReservationCompletesBeforeItemLeft() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), Api.getInstance().getUrlName(), j.getRestCredential());
+        ExecutorEntity.Fingerprint fingerprint = new ExecutorEntity.Fingerprint(
+                Pool.getInstance().getConfigRepoUrl(), "4.2", j.jenkins.getRootUrl()
+        );
+        ExecutorJenkins executor = Pool.getInstance().getConfig().getJenkinsByUrl(j.jenkins.getRootUrl());
+        List<ReportWorkloadRequest.Workload.WorkloadItem> none = Collections.emptyList();
+
+        ReportWorkloadResponse response = rest.executeRequest(rest.post("reportWorkload"), new ReportWorkloadRequest(
+                fingerprint, 5, new ReportWorkloadRequest.Workload.WorkloadBuilder(none).build()
+        ), ReportWorkloadResponse.class);
+        assertFalse(response.isResync());
+
+        BlockingTask task = new BlockingTask(executor, Label.get("solaris10"));
+        task.schedule();
+        task.running.block();
+
+        // Completed while the item is still queued on executor, that has reported it already
+        j.getComputer("solaris2.acme.com").getReservation().complete();
+        task.done.signal();
+
+        // Executor is asked to report it again for the reservation to be recreated
+        response = rest.executeRequest(rest.post("reportWorkloadDelta"), new ReportWorkloadDeltaRequest(
+                fingerprint, 6, none, none
+        ), ReportWorkloadResponse.class);
+        assertTrue(response.isResync());
+    }
+
     @Test
     public void runBuildSuccessfully() throws Exception {
         j.singleJvmGrid(j.jenkins);
@@ -243,6 +322,52 @@ public class ReservationTest {
         assertEquals(0, j.getQueuedReservations().size());
     }
 
+    @Test
+    public void giveFreedScarceHostToReservationThatNeedsIt() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        j.addSharedNodeCloud(Pool.getInstance().getConfigRepoUrl());
+
+        // Both solaris hosts are busy
+        BlockingBuilder solaris1 = j.getBlockingProject("solaris11");
+        BlockingBuilder solaris2 = j.getBlockingProject("solaris10&&sparc");
+        QueueTaskFuture<FreeStyleBuild> solaris1Build = solaris1.schedule();
+        QueueTaskFuture<FreeStyleBuild> solaris2Build = solaris2.schedule();
+        Thread.sleep(100); // Wait until builds are queued before reporting workload
+        j.reportWorkloadToOrchestrator();
+        solaris1.start.block();
+        solaris2.start.block();
+
+        // Generic reservation that can use any solaris host is queued before one that needs solaris2
+        BlockingBuilder generic = j.getBlockingProject("solaris");
+        generic.schedule();
+        Thread.sleep(100);
+        j.reportWorkloadToOrchestrator();
+        BlockingBuilder scarce = j.getBlockingProject("solaris10");
+        scarce.schedule();
+        Thread.sleep(100);
+        j.reportWorkloadToOrchestrator();
+        assertEquals(2, j.getQueuedReservations().size());
+
+        // When solaris2 frees up, it is given to the reservation that can not run elsewhere
+        solaris2.end.signal();
+        j.assertBuildStatusSuccess(solaris2Build);
+        ShareableComputer solaris2Computer = j.getComputer("solaris2.acme.com");
+        Label blocking = solaris2.getProject().getAssignedLabel();
+        for (int i = 0; i < 100; i++) {
+            ReservationTask.ReservationExecutable reservation = solaris2Computer.getReservation();
+            if (reservation != null && !blocking.equals(reservation.getParent().getAssignedLabel())) break;
+            Thread.sleep(100);
+        }
+        assertEquals(Label.get("solaris10"), solaris2Computer.getReservation().getParent().getAssignedLabel());
+        assertEquals(1, j.getQueuedReservations().size());
+        assertEquals(Label.get("solaris"), j.getQueuedReservations().iterator().next().getAssignedLabel());
+
+        solaris1.end.signal();
+        generic.end.signal();
+        scarce.end.signal();
+        j.assertBuildStatusSuccess(solaris1Build);
+    }
+
     @Test
     public void doNotReportWorkloadWhenDisabled() throws Exception {
         j.singleJvmGrid(j.jenkins);
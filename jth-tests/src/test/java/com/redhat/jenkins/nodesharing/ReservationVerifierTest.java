@@ -41,6 +41,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -143,10 +144,10 @@ public class ReservationVerifierTest {
 
         // Executor will report no node usage
         Api api = mock(Api.class);
-        when(api.reportUsage(Mockito.any(ExecutorJenkins.class))).thenReturn(new ReportUsageResponse(
+        when(api.reportUsageAsync(Mockito.any(ExecutorJenkins.class), Mockito.any(Deadline.class))).thenReturn(CompletableFuture.completedFuture(new ReportUsageResponse(
                 new ExecutorEntity.Fingerprint(pool.getConfigRepoUrl(), "7", executor.getUrl().toExternalForm()),
                 Collections.<String>emptyList()
-        ));
+        )));
 
         ReservationVerifier.verify(pool.getConfig(), api);
         Thread.sleep(1000);
@@ -203,9 +204,9 @@ public class ReservationVerifierTest {
 
         Api api = mock(Api.class);
         ExecutorEntity.Fingerprint Afingerprint = new ExecutorEntity.Fingerprint("git://config.com/repo.git", "4.2", A.getUrl().toExternalForm());
-        when(api.reportUsage(eq(A))).thenReturn(new ReportUsageResponse(Afingerprint, Collections.singletonList(b.getNodeName())));
+        when(api.reportUsageAsync(eq(A), Mockito.any(Deadline.class))).thenReturn(CompletableFuture.completedFuture(new ReportUsageResponse(Afingerprint, Collections.singletonList(b.getNodeName()))));
         ExecutorEntity.Fingerprint Bfingerprint = new ExecutorEntity.Fingerprint("git://config.com/repo.git", "4.2", B.getUrl().toExternalForm());
-        when(api.reportUsage(eq(B))).thenReturn(new ReportUsageResponse(Bfingerprint, Collections.singletonList(a.getNodeName())));
+        when(api.reportUsageAsync(eq(B), Mockito.any(Deadline.class))).thenReturn(CompletableFuture.completedFuture(new ReportUsageResponse(Bfingerprint, Collections.singletonList(a.getNodeName()))));
 
         j.startDanglingReservation(A, a);
         j.startDanglingReservation(B, b);
@@ -24,14 +24,18 @@
 package com.redhat.jenkins.nodesharing;
 
 import com.google.common.base.Joiner;
+import com.redhat.jenkins.nodesharing.transport.UtilizeNodeRequest;
+import com.redhat.jenkins.nodesharing.transport.UtilizeNodeResponse;
 import com.redhat.jenkins.nodesharing.utils.BlockingBuilder;
 import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
 import com.redhat.jenkins.nodesharingbackend.Pool;
 import com.redhat.jenkins.nodesharingbackend.ReservationTask;
 import com.redhat.jenkins.nodesharingbackend.ShareableNode;
 import com.redhat.jenkins.nodesharingfrontend.Api;
+import com.redhat.jenkins.nodesharingfrontend.DurableOutbox;
 import com.redhat.jenkins.nodesharingfrontend.SharedNode;
 import com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud;
+import hudson.model.Executor;
 import hudson.model.FreeStyleBuild;
 import hudson.model.Label;
 import hudson.model.Queue;
@@ -68,7 +72,7 @@ public class ReturnNodeTest {
         SharedNode foo = spy(cloud.createNode(def));
         when(foo.getHostName()).thenReturn("no_such_node");
         assertEquals(null, j.jenkins.getNode(foo.getHostName()));
-        cloud.getApi().returnNode(foo);
+        cloud.getApi().returnNode(cloud.getApi().createReturnNodeRequest(foo));
 
         // Removing node of different type is an error
         DumbSlave slave = j.createOnlineSlave();
@@ -78,7 +82,7 @@ public class ReturnNodeTest {
 
         try {
             when(foo.getHostName()).thenReturn("foo");
-            cloud.getApi().returnNode(foo);
+            cloud.getApi().returnNode(cloud.getApi().createReturnNodeRequest(foo));
             fail();
         } catch (ActionFailed.RequestFailed ex) {
             // Expected
@@ -88,7 +92,7 @@ public class ReturnNodeTest {
         ShareableNode shareableNode = new ShareableNode(def);
         j.jenkins.addNode(shareableNode);
         foo = cloud.createNode(def);
-        cloud.getApi().returnNode(foo); // No error as it is idle already
+        cloud.getApi().returnNode(cloud.getApi().createReturnNodeRequest(foo)); // No error as it is idle already
     }
 
     @Test
@@ -108,13 +112,107 @@ public class ReturnNodeTest {
         assertFalse(j.jenkins.getComputer(shareableNode.getNodeName()).isIdle());
 
         SharedNode shared = cloud.createNode(nodeDefinition);
-        cloud.getApi().returnNode(shared);
+        cloud.getApi().returnNode(cloud.getApi().createReturnNodeRequest(shared));
         reservationFuture.get(1, TimeUnit.SECONDS);
         Thread.sleep(500);
 
         assertTrue(j.jenkins.getComputer(shareableNode.getNodeName()).isIdle());
     }
 
+    @Test
+    public void doNotCompleteNewerReservation() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(Pool.getInstance().getConfigRepoUrl());
+
+        BlockingBuilder bb = j.getBlockingProject("solaris11");
+        QueueTaskFuture<FreeStyleBuild> fb = bb.getProject().scheduleBuild2(0);
+        FreeStyleBuild b = fb.getStartCondition().get();
+        bb.start.block();
+
+        assertEquals(1, j.getActiveReservations().size());
+        ReservationTask.ReservationExecutable reservation = j.getActiveReservations().get(0);
+        SharedNode node = (SharedNode) b.getBuiltOn();
+        assertNotNull(node.getReservationId());
+        assertEquals(reservation.getReservationId(), node.getReservationId());
+
+        // Late return of the node utilized for earlier reservation of the same host
+        SharedNode outdated = spy(node);
+        when(outdated.getReservationId()).thenReturn("outdated");
+        cloud.getApi().returnNode(cloud.getApi().createReturnNodeRequest(outdated));
+        Thread.sleep(500);
+        assertEquals(1, j.getActiveReservations().size());
+        // Reservation does not hold the executor thread while waiting for the node to be returned
+        Executor executor = Executor.of(j.getActiveReservations().get(0));
+        assertNotNull(executor);
+        assertNotNull(executor.getAsynchronousExecution());
+
+        bb.end.signal();
+        j.assertBuildStatusSuccess(fb);
+        j.waitUntilNoActivity();
+        assertEquals(0, j.getActiveReservations().size());
+    }
+
+    @Test
+    public void holdUtilizedNodeForNewerReservation() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(Pool.getInstance().getConfigRepoUrl());
+
+        BlockingBuilder bb = j.getBlockingProject("solaris11");
+        FreeStyleBuild b = bb.getProject().scheduleBuild2(0).getStartCondition().get();
+        bb.start.block();
+
+        SharedNode node = (SharedNode) b.getBuiltOn();
+        assertNotNull(node.getReservationId());
+        NodeDefinition def = Pool.getInstance().getConfig().getNodes().get(node.getNodeName());
+
+        // Node utilized already is offered again for a newer reservation
+        RestEndpoint rest = new RestEndpoint(j.getURL().toExternalForm(), "cloud/" + cloud.name + "/api", j.getRestCredential());
+        rest.executeRequest(rest.post("utilizeNode"), new UtilizeNodeRequest(
+                Pool.getInstance().getConfigRepoUrl(), "4.2", def, "newer"
+        ), UtilizeNodeResponse.class);
+
+        SharedNode held = (SharedNode) j.jenkins.getNode(node.getNodeName());
+        assertNotNull(held);
+        assertEquals("newer", held.getReservationId());
+
+        bb.end.signal();
+        j.waitUntilNoActivity();
+    }
+
+    @Test
+    public void returnNodeDurably() throws Exception {
+        j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(Pool.getInstance().getConfigRepoUrl());
+
+        BlockingBuilder bb = j.getBlockingProject("solaris11");
+        FreeStyleBuild b = bb.getProject().scheduleBuild2(0).getStartCondition().get();
+        bb.start.block();
+        assertEquals(1, j.getActiveReservations().size());
+
+        // Not delivered while the cloud is disabled
+        cloud.disabled(true);
+        DurableOutbox outbox = DurableOutbox.getInstance();
+        outbox.returnNode(cloud, (SharedNode) b.getBuiltOn());
+        Thread.sleep(500);
+        assertEquals(1, outbox.getPendingCount());
+        assertEquals(1, j.getActiveReservations().size());
+
+        // Replayed from the journal once executor restarts
+        cloud.disabled(false);
+        DurableOutbox restarted = new DurableOutbox();
+        assertEquals(1, restarted.getPendingCount());
+        restarted.replay();
+        for (int i = 0; i < 50 && restarted.getPendingCount() != 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, restarted.getPendingCount());
+        Thread.sleep(500);
+        assertEquals(0, j.getActiveReservations().size());
+
+        bb.end.signal();
+        j.waitUntilNoActivity();
+    }
+
     @Test
     public void doNotCompleteReservationNotOwnedByReportingExecutor() throws Exception {
         GitClient gitClient = j.singleJvmGrid(j.jenkins);
@@ -133,7 +231,7 @@ public class ReturnNodeTest {
 
         Api differentJenkinsApi = new Api(cloud.getLatestConfig(), configEndpoint, cloud, "https://foo.com");
         try {
-            differentJenkinsApi.returnNode(((SharedNode) b.getBuiltOn()));
+            differentJenkinsApi.returnNode(differentJenkinsApi.createReturnNodeRequest((SharedNode) b.getBuiltOn()));
             fail();
         } catch (com.redhat.jenkins.nodesharing.ActionFailed.RequestFailed ex) {
             assertEquals(HttpServletResponse.SC_CONFLICT, ex.getStatusCode());
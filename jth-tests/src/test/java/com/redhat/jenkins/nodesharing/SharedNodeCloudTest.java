@@ -23,6 +23,7 @@
  */
 package com.redhat.jenkins.nodesharing;
 
+import com.redhat.jenkins.nodesharing.transport.DiscoverResponse;
 import com.redhat.jenkins.nodesharing.transport.NodeStatusRequest;
 import com.redhat.jenkins.nodesharing.transport.NodeStatusResponse;
 import com.redhat.jenkins.nodesharing.transport.ReportWorkloadRequest;
@@ -58,7 +59,9 @@ import org.jvnet.hudson.test.SimpleCommandLauncher;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -77,6 +80,7 @@ import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -100,7 +104,7 @@ public class SharedNodeCloudTest {
 
         final SharedNodeCloud.DescriptorImpl descr = new SharedNodeCloud.DescriptorImpl();
         assertThat(
-                descr.doTestConnection(gitClient.getWorkTree().getRemote(), j.getRestCredentialId()).getMessage(),
+                descr.doTestConnection(gitClient.getWorkTree().getRemote(), j.getRestCredentialId(), null).getMessage(),
                 containsString("Orchestrator version is " + prop.getProperty("version"))
         );
     }
@@ -117,11 +121,23 @@ public class SharedNodeCloudTest {
         doTestConnection();
     }
 
+    @Test
+    public void discoverNotModified() throws Exception {
+        GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(gitClient.getWorkTree().getRemote());
+
+        DiscoverResponse discovered = cloud.getApi().discover();
+        assertFalse(discovered.getLabels().isEmpty());
+
+        // Same inventory is not transferred again
+        assertSame(discovered, cloud.getApi().discover());
+    }
+
     @Test
     public void doTestConnectionInvalidUrl() throws Exception {
         final SharedNodeCloud.DescriptorImpl descr = new SharedNodeCloud.DescriptorImpl();
         assertThat(
-                descr.doTestConnection("file:\\\\aaa", j.getRestCredentialId()).getMessage(),
+                descr.doTestConnection("file:\\\\aaa", j.getRestCredentialId(), null).getMessage(),
                 startsWith("Invalid config repo url")
         );
     }
@@ -130,7 +146,7 @@ public class SharedNodeCloudTest {
     public void doTestConnectionBrokenUrl() throws Exception {
         final SharedNodeCloud.DescriptorImpl descr = new SharedNodeCloud.DescriptorImpl();
         assertThat(
-                descr.doTestConnection("file://dummy_not_exists", j.getRestCredentialId()).getMessage(),
+                descr.doTestConnection("file://dummy_not_exists", j.getRestCredentialId(), null).getMessage(),
                 containsString("Unable to update config repo from")
         );
     }
@@ -145,7 +161,7 @@ public class SharedNodeCloudTest {
         cr.commit("Hehehe");
         final SharedNodeCloud.DescriptorImpl descr = new SharedNodeCloud.DescriptorImpl();
         assertThat(
-                descr.doTestConnection(workTree.getRemote(), j.getRestCredentialId()).getMessage(),
+                descr.doTestConnection(workTree.getRemote(), j.getRestCredentialId(), null).getMessage(),
                 containsString("No file named 'config' found in Config Repository")
         );
     }
@@ -159,7 +175,7 @@ public class SharedNodeCloudTest {
         repo.getWorkTree().child(".git").copyRecursiveTo(executorConfigRepo.child(".git"));
 
         final SharedNodeCloud.DescriptorImpl descr = new SharedNodeCloud.DescriptorImpl();
-        FormValidation validation = descr.doTestConnection(executorConfigRepo.getRemote(), j.getRestCredentialId());
+        FormValidation validation = descr.doTestConnection(executorConfigRepo.getRemote(), j.getRestCredentialId(), null);
         assertThat(validation.getMessage(), containsString(
                 "Orchestrator is configured from " + orchestratorUrl + " but executor uses " + executorConfigRepo.getRemote()
         ));
@@ -359,6 +375,14 @@ public class SharedNodeCloudTest {
                         nodeName),
                 equalTo(nodeStatus)
         );
+
+        // Test bulk query through plugin backend API
+        Map<String, NodeStatusResponse.Status> statuses = Api.getInstance().nodeStatus(
+                new ExecutorJenkins(j.jenkins.getRootUrl(), cloud.getName()),
+                Arrays.asList(nodeName, "no-such-node")
+        );
+        assertThat(statuses.get(nodeName), equalTo(nodeStatus));
+        assertThat(statuses.get("no-such-node"), equalTo(NodeStatusResponse.Status.NOT_FOUND));
     }
 
     @Test
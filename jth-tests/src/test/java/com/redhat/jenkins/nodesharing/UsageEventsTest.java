@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.transport.UsageEventsRequest;
+import com.redhat.jenkins.nodesharing.utils.BlockingBuilder;
+import com.redhat.jenkins.nodesharing.utils.NodeSharingJenkinsRule;
+import com.redhat.jenkins.nodesharingbackend.Api;
+import com.redhat.jenkins.nodesharingbackend.Pool;
+import com.redhat.jenkins.nodesharingbackend.ShareableNode;
+import com.redhat.jenkins.nodesharingbackend.UsageTracker;
+import com.redhat.jenkins.nodesharingfrontend.SharedNode;
+import com.redhat.jenkins.nodesharingfrontend.SharedNodeCloud;
+import hudson.model.FreeStyleBuild;
+import hudson.model.queue.QueueTaskFuture;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UsageEventsTest {
+
+    @Rule
+    public NodeSharingJenkinsRule j = new NodeSharingJenkinsRule();
+
+    @Test
+    public void trackStreamedUsage() throws Exception {
+        GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        SharedNodeCloud cloud = j.addSharedNodeCloud(gitClient.getWorkTree().getRemote());
+        ExecutorJenkins executor = Pool.getInstance().getConfig().getJenkinsByUrl(j.jenkins.getRootUrl());
+        UsageTracker tracker = UsageTracker.getInstance();
+
+        // Not known until seeded by full report
+        tracker.seed(executor, Api.getInstance().reportUsage(executor).getUsedNodes());
+        assertNull(tracker.getUsedNodes(executor));
+
+        ShareableNode shareableNode = j.getSomeShareableNode();
+        SharedNode sharedNode = cloud.createNode(shareableNode.getNodeDefinition());
+        BlockingBuilder bb = j.getBlockingProject(sharedNode);
+        QueueTaskFuture<FreeStyleBuild> fb = bb.getProject().scheduleBuild2(0);
+        j.jenkins.addNode(sharedNode);
+        fb.getStartCondition().get();
+        bb.start.block();
+
+        waitForUsage(tracker, executor, Collections.singleton(sharedNode.getHostName()));
+
+        bb.end.signal();
+        j.assertBuildStatusSuccess(fb);
+
+        waitForUsage(tracker, executor, Collections.<String>emptySet());
+    }
+
+    @Test
+    public void detectMissedEvents() {
+        ExecutorJenkins executor = NodeSharingJenkinsRule.DUMMY_OWNER;
+        UsageTracker tracker = UsageTracker.getInstance();
+        UsageEventsRequest.Event attached = new UsageEventsRequest.Event("foo", UsageEventsRequest.Type.ATTACHED, 0);
+        UsageEventsRequest.Event returned = new UsageEventsRequest.Event("foo", UsageEventsRequest.Type.RETURNED, 0);
+
+        tracker.apply(executor, 5, Collections.singletonList(attached));
+        assertNull(tracker.getUsedNodes(executor));
+
+        tracker.seed(executor, Collections.singletonList("foo"));
+        assertEquals(Collections.singleton("foo"), tracker.getUsedNodes(executor));
+
+        // Duplicate is ignored
+        tracker.apply(executor, 6, Collections.singletonList(returned));
+        tracker.apply(executor, 6, Collections.singletonList(attached));
+        assertEquals(Collections.<String>emptySet(), tracker.getUsedNodes(executor));
+
+        // Gap in the sequence
+        tracker.apply(executor, 8, Collections.singletonList(attached));
+        assertNull(tracker.getUsedNodes(executor));
+
+        tracker.seed(executor, Collections.<String>emptyList());
+        assertEquals(Collections.<String>emptySet(), tracker.getUsedNodes(executor));
+    }
+
+    @Test
+    public void forgetUsageOnConfigChange() throws Exception {
+        GitClient gitClient = j.singleJvmGrid(j.jenkins);
+        ExecutorJenkins executor = NodeSharingJenkinsRule.DUMMY_OWNER;
+        UsageTracker tracker = UsageTracker.getInstance();
+
+        tracker.seed(executor, Collections.singletonList("foo"));
+        assertNotNull(tracker.getUsedNodes(executor));
+
+        assertTrue(gitClient.getWorkTree().child("nodes").child("win2.acme.com.xml").delete());
+        gitClient.add("*");
+        gitClient.commit("Remove node");
+        Pool.Updater.getInstance().doRun();
+        assertNull(tracker.getUsedNodes(executor));
+    }
+
+    private void waitForUsage(UsageTracker tracker, ExecutorJenkins executor, Set<String> expected) throws InterruptedException {
+        for (int i = 0; !expected.equals(tracker.getUsedNodes(executor)); i++) {
+            if (i > 100) throw new AssertionError("Expected usage " + expected + ", was " + tracker.getUsedNodes(executor));
+            Thread.sleep(100);
+        }
+    }
+}
@@ -263,7 +263,11 @@ public class NodeSharingJenkinsRule extends JenkinsRule {
         public final OneShotEvent done = new OneShotEvent();
 
         public BlockingTask(Label label) {
-            super(DUMMY_OWNER, label);
+            this(DUMMY_OWNER, label);
+        }
+
+        public BlockingTask(@Nonnull ExecutorJenkins owner, Label label) {
+            super(owner, label);
         }
 
         @Override public void perform() {
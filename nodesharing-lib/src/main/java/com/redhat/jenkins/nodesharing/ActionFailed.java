@@ -49,21 +49,78 @@ public abstract class ActionFailed extends RuntimeException {
         }
     }
 
+    /**
+     * The request was not attempted as the other side is considered unreachable.
+     *
+     * @see CircuitBreaker
+     */
+    public static class CircuitOpen extends CommunicationError {
+        private final long retryAfter;
+
+        public CircuitOpen(String url, long retryAfter) {
+            super("Calls to " + url + " are suspended after repeated failures");
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return Time in ms until the next call will be attempted.
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
     /**
      * The request has failed by reporting non-success status code.
      */
     public static class RequestFailed extends CommunicationError {
 
+        // Message Jenkins CrumbFilter rejects requests with
+        private static final String CRUMB_REJECTED = "No valid crumb was included in the request";
+
         private final StatusLine statusLine;
+        private final String body;
+        private final long retryAfter;
 
         public RequestFailed(HttpRequestBase method, StatusLine statusLine, String body) {
+            this(method, statusLine, body, 0);
+        }
+
+        public RequestFailed(HttpRequestBase method, StatusLine statusLine, String body, long retryAfter) {
             super("Executing REST call " + method + " failed with " + statusLine + ":\n" + body);
             this.statusLine = statusLine;
+            this.body = body;
+            this.retryAfter = retryAfter;
         }
 
         public int getStatusCode() {
             return statusLine.getStatusCode();
         }
+
+        public String getBody() {
+            return body;
+        }
+
+        /**
+         * @return Time in ms the server advised to wait before calling again, 0 if it did not.
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+
+        /**
+         * The request was rejected as the client calls too often.
+         */
+        public boolean isThrottled() {
+            return getStatusCode() == 429;
+        }
+
+        /**
+         * The request was rejected as the crumb was missing, expired or bound to a different session.
+         */
+        public boolean isCrumbRejected() {
+            return getStatusCode() == 403 && body != null && body.contains(CRUMB_REJECTED);
+        }
     }
 
     /**
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * Transport using Apache HttpClient with connections pooled by {@link ConnectionPool}.
+ */
+/*package*/ final class ApacheHttpTransport implements HttpTransport {
+
+    /*package*/ static final ApacheHttpTransport INSTANCE = new ApacheHttpTransport();
+
+    private ApacheHttpTransport() {}
+
+    @Override
+    public <T> T execute(
+            @Nonnull HttpRequestBase method,
+            @Nonnull UsernamePasswordCredentials creds,
+            int timeout,
+            @Nonnull ResponseHandler<? extends T> handler
+    ) throws IOException {
+        method.setConfig(RequestConfig.custom()
+                .setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .build()
+        );
+
+        // Pooled client is shared, do not close
+        CloseableHttpClient client = ConnectionPool.getInstance().getClient();
+        return client.execute(method, handler, getAuthenticatingContext(method, creds));
+    }
+
+    // https://hc.apache.org/httpcomponents-client-ga/tutorial/html/authentication.html#d5e717
+    private @Nonnull HttpClientContext getAuthenticatingContext(@Nonnull HttpRequestBase method, @Nonnull UsernamePasswordCredentials creds) {
+        AuthCache authCache = new BasicAuthCache();
+        BasicScheme basicAuth = new BasicScheme();
+        authCache.put(URIUtils.extractHost(method.getURI()), basicAuth);
+
+        CredentialsProvider provider = new BasicCredentialsProvider();
+        provider.setCredentials(AuthScope.ANY, new org.apache.http.auth.UsernamePasswordCredentials(
+                creds.getUsername(), creds.getPassword().getPlainText()
+        ));
+        HttpClientContext context = HttpClientContext.create();
+        context.setCredentialsProvider(provider);
+        context.setAuthCache(authCache);
+        return context;
+    }
+
+    @Override public String toString() {
+        return "Apache HttpClient transport";
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.transport.BatchRequest;
+import com.redhat.jenkins.nodesharing.transport.BatchResponse;
+import com.redhat.jenkins.nodesharing.transport.Entity;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+import org.springframework.security.access.AccessDeniedException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serve {@link BatchRequest} dispatching the operations to <tt>do*</tt> methods of the endpoint.
+ *
+ * Every operation is handled by the very method that would serve it if posted individually. The method reads the
+ * operation payload as a request body and its response is captured into {@link BatchResponse.Result}. Failure of one
+ * operation does not affect the others. Only the methods annotated {@link Batchable} are served so the long-running ones,
+ * like the long poll, do not hold the whole batch.
+ */
+public final class Batch {
+    private static final Logger LOGGER = Logger.getLogger(Batch.class.getName());
+
+    /**
+     * Name of the endpoint serving the batches.
+     */
+    public static final String OPERATION = "batch";
+
+    /**
+     * Maximal number of operations in a single batch.
+     */
+    public static final int MAX_OPERATIONS = Integer.getInteger(Batch.class.getName() + ".MAX_OPERATIONS", 100);
+
+    private static final String JSON = Entity.Encoding.JSON.getContentType();
+    private static final String RETRY_AFTER = "Retry-After";
+
+    private Batch() {}
+
+    /**
+     * Marks <tt>do*</tt> method that can be performed as a part of a batch or pushed through a channel.
+     *
+     * The method must complete promptly, as the operations of the batch are performed one after another.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @Documented
+    public @interface Batchable {}
+
+    /**
+     * Perform the operations in order.
+     *
+     * @param endpoint Object declaring the <tt>do*</tt> methods.
+     * @param req The request the batch was received in.
+     */
+    public static @Nonnull BatchResponse serve(
+            @Nonnull Object endpoint,
+            @Nonnull StaplerRequest req,
+            @Nonnull BatchRequest request,
+            @Nonnull String configRepoUrl,
+            @Nonnull String version
+    ) {
+        List<BatchRequest.Operation> operations = request.getOperations();
+        if (operations.size() > MAX_OPERATIONS) throw new IllegalArgumentException(
+                "Batch of " + operations.size() + " operations exceeds the limit of " + MAX_OPERATIONS
+        );
+
+        List<BatchResponse.Result> results = new ArrayList<>(operations.size());
+        for (BatchRequest.Operation operation : operations) {
+            results.add(perform(endpoint, req, operation));
+        }
+        return new BatchResponse(configRepoUrl, version, results);
+    }
+
+    /**
+     * Perform single operation.
+     *
+     * @param endpoint Object declaring the <tt>do*</tt> methods.
+     * @param req The request the operation was received in, null when it was not received over HTTP.
+     */
+    public static @Nonnull BatchResponse.Result perform(
+            @Nonnull Object endpoint, @CheckForNull StaplerRequest req, @Nonnull BatchRequest.Operation operation
+    ) {
+        Method method = getAction(endpoint, operation.getName());
+        if (method == null) {
+            return new BatchResponse.Result(HttpServletResponse.SC_NOT_FOUND, "No such operation: " + operation.getName());
+        }
+
+        CapturingResponse capture = new CapturingResponse();
+        StaplerRequest subRequest = subRequest(req, operation.getPayload().getBytes(StandardCharsets.UTF_8));
+        StaplerResponse subResponse = capture.proxy();
+        try {
+            method.invoke(endpoint, subRequest, subResponse);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            capture.reset();
+            if (cause instanceof HttpResponse) {
+                try {
+                    ((HttpResponse) cause).generateResponse(subRequest, subResponse, endpoint);
+                } catch (IOException | ServletException | RuntimeException ex) {
+                    capture.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+                    capture.write(ex.toString());
+                }
+            } else if (cause instanceof AccessDeniedException) {
+                capture.status = HttpServletResponse.SC_FORBIDDEN;
+                capture.write(cause.getMessage());
+            } else {
+                LOGGER.log(Level.WARNING, "Failed serving batched " + operation, cause);
+                capture.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+                capture.write(String.valueOf(cause));
+            }
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e); // $COVERAGE-IGNORE$
+        }
+        return capture.toResult();
+    }
+
+    // Public @RequirePOST @Batchable do* method taking request and response, the batch itself excluded
+    private static @CheckForNull Method getAction(@Nonnull Object endpoint, @Nonnull String operation) {
+        if (operation.isEmpty() || OPERATION.equals(operation)) return null;
+
+        String name = "do" + operation.substring(0, 1).toUpperCase(Locale.ENGLISH) + operation.substring(1);
+        try {
+            Method method = endpoint.getClass().getMethod(name, StaplerRequest.class, StaplerResponse.class);
+            if (!Modifier.isPublic(method.getModifiers())) return null;
+            if (method.getAnnotation(RequirePOST.class) == null || method.getAnnotation(Batchable.class) == null) return null;
+            return method;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    // The original request with the operation payload as the body
+    private static @Nonnull StaplerRequest subRequest(@CheckForNull final StaplerRequest req, @Nonnull final byte[] payload) {
+        return (StaplerRequest) Proxy.newProxyInstance(
+                Batch.class.getClassLoader(), new Class<?>[] { StaplerRequest.class }, new InvocationHandler() {
+            @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getInputStream":
+                        return new BufferInputStream(payload);
+                    case "getReader":
+                        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8));
+                    case "getContentType":
+                        return JSON;
+                    case "getCharacterEncoding":
+                        return StandardCharsets.UTF_8.name();
+                    case "getContentLength":
+                        return payload.length;
+                    case "getContentLengthLong":
+                        return (long) payload.length;
+                    case "getHeader":
+                        String header = (String) args[0];
+                        // Payload is uncompressed JSON and so is expected to be the response
+                        if ("Content-Type".equalsIgnoreCase(header)) return JSON;
+                        if ("Content-Encoding".equalsIgnoreCase(header) || "Accept".equalsIgnoreCase(header)) return null;
+                        // fall through
+                    default:
+                        if (req == null) return detached(proxy, method, args);
+                        try {
+                            return method.invoke(req, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        });
+    }
+
+    // No request to delegate to, answer as if it carried nothing but the payload
+    private static @CheckForNull Object detached(@Nonnull Object proxy, @Nonnull Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                default: return "Detached request";
+            }
+        }
+        Class<?> type = method.getReturnType();
+        return type.isPrimitive() && type != void.class
+                ? Array.get(Array.newInstance(type, 1), 0)
+                : null
+        ;
+    }
+
+    /**
+     * Response status and body written by the action.
+     */
+    private static final class CapturingResponse {
+        private int status = HttpServletResponse.SC_OK;
+        private long retryAfter;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private @CheckForNull PrintWriter writer;
+
+        private @Nonnull StaplerResponse proxy() {
+            return (StaplerResponse) Proxy.newProxyInstance(
+                    Batch.class.getClassLoader(), new Class<?>[] { StaplerResponse.class }, new InvocationHandler() {
+                @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getDeclaringClass() == Object.class) return method.invoke(this, args);
+
+                    String name = method.getName();
+                    switch (name) {
+                        case "setStatus":
+                            status = (Integer) args[0];
+                            return null;
+                        case "sendError":
+                            status = (Integer) args[0];
+                            if (args.length > 1 && args[1] != null) {
+                                write((String) args[1]);
+                            }
+                            return null;
+                        case "getStatus":
+                            return status;
+                        case "getOutputStream":
+                        case "getCompressedOutputStream":
+                            return new BufferOutputStream(body);
+                        case "getWriter":
+                        case "getCompressedWriter":
+                            return getWriter();
+                        case "isCommitted":
+                            return false;
+                        case "flushBuffer":
+                            return null;
+                        case "setHeader":
+                        case "addHeader":
+                        case "setIntHeader":
+                        case "addIntHeader":
+                            if (RETRY_AFTER.equalsIgnoreCase((String) args[0])) {
+                                retryAfter = parseRetryAfter(String.valueOf(args[1]));
+                            }
+                            return null;
+                        default:
+                            // Other headers, content type and the like are irrelevant for the result
+                            if (name.startsWith("set") || name.startsWith("add")) return null;
+                            throw new UnsupportedOperationException(name + " is not supported for batched operations");
+                    }
+                }
+            });
+        }
+
+        private @Nonnull PrintWriter getWriter() {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+            }
+            return writer;
+        }
+
+        private void write(@CheckForNull String message) {
+            if (message == null) return;
+            getWriter().print(message);
+        }
+
+        private void reset() {
+            if (writer != null) {
+                writer.flush();
+            }
+            body.reset();
+            status = HttpServletResponse.SC_OK;
+            retryAfter = 0;
+        }
+
+        private @Nonnull BatchResponse.Result toResult() {
+            if (writer != null) {
+                writer.flush();
+            }
+            return new BatchResponse.Result(status, new String(body.toByteArray(), StandardCharsets.UTF_8), retryAfter);
+        }
+
+        // Only the delay in seconds is understood, not the HTTP date
+        private static long parseRetryAfter(@Nonnull String value) {
+            try {
+                return Math.max(0, Long.parseLong(value.trim()));
+            } catch (NumberFormatException ex) {
+                return 0;
+            }
+        }
+    }
+
+    private static final class BufferInputStream extends ServletInputStream {
+        private final @Nonnull ByteArrayInputStream in;
+
+        private BufferInputStream(@Nonnull byte[] payload) {
+            this.in = new ByteArrayInputStream(payload);
+        }
+
+        @Override public int read() {
+            return in.read();
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            return in.read(b, off, len);
+        }
+
+        @Override public boolean isFinished() {
+            return in.available() == 0;
+        }
+
+        @Override public boolean isReady() {
+            return true;
+        }
+
+        @Override public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class BufferOutputStream extends ServletOutputStream {
+        private final @Nonnull ByteArrayOutputStream out;
+
+        private BufferOutputStream(@Nonnull ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        @Override public void write(int b) {
+            out.write(b);
+        }
+
+        @Override public void write(byte[] b, int off, int len) {
+            out.write(b, off, len);
+        }
+
+        @Override public boolean isReady() {
+            return true;
+        }
+
+        @Override public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stop talking to unresponsive Jenkins for a while instead of having every call to wait for a timeout.
+ *
+ * The breaker is <tt>CLOSED</tt> while the calls succeed. After {@link #FAILURE_THRESHOLD} consecutive failures it gets
+ * <tt>OPEN</tt> and all calls fail fast for a backoff period that grows exponentially (with jitter) with every
+ * failed attempt to recover. Once the period elapses, the breaker gets <tt>HALF_OPEN</tt> letting single probe call
+ * through. Its success closes the breaker, its failure opens it again.
+ *
+ * There is a single breaker per Jenkins URL shared by all {@link RestEndpoint}s talking to it.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final String PROPERTY_PREFIX = CircuitBreaker.class.getName() + ".";
+
+    // Number of consecutive failures to open the breaker
+    private static final int FAILURE_THRESHOLD = Integer.getInteger(PROPERTY_PREFIX + "FAILURE_THRESHOLD", 3);
+    // Backoff after the first failure in ms
+    private static final long BASE_BACKOFF = Long.getLong(PROPERTY_PREFIX + "BASE_BACKOFF", TimeUnit.SECONDS.toMillis(5));
+    // Maximal backoff in ms
+    private static final long MAX_BACKOFF = Long.getLong(PROPERTY_PREFIX + "MAX_BACKOFF", TimeUnit.MINUTES.toMillis(5));
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    public enum State {
+        /** Calls are passed through */
+        CLOSED,
+        /** Calls fail fast */
+        OPEN,
+        /** Probe call is passed through, others fail fast */
+        HALF_OPEN
+    }
+
+    private final @Nonnull String url;
+
+    @GuardedBy("this") private @Nonnull State state = State.CLOSED;
+    @GuardedBy("this") private int failures = 0;
+    // Number of times the breaker was opened in a row, used to compute the backoff
+    @GuardedBy("this") private int openings = 0;
+    @GuardedBy("this") private long openUntil = 0;
+    @GuardedBy("this") private boolean probeInFlight = false;
+
+    @VisibleForTesting
+    /*package*/ CircuitBreaker(@Nonnull String url) {
+        this.url = url;
+    }
+
+    /**
+     * Get breaker for Jenkins URL.
+     */
+    public static @Nonnull CircuitBreaker get(@Nonnull String url) {
+        CircuitBreaker breaker = BREAKERS.get(url);
+        if (breaker != null) return breaker;
+
+        CircuitBreaker created = new CircuitBreaker(url);
+        breaker = BREAKERS.putIfAbsent(url, created);
+        return breaker == null ? created : breaker;
+    }
+
+    public @Nonnull String getUrl() {
+        return url;
+    }
+
+    /**
+     * Permit the call to proceed.
+     *
+     * @throws ActionFailed.CircuitOpen When the call should not be attempted.
+     */
+    public synchronized void acquire() throws ActionFailed.CircuitOpen {
+        switch (state) {
+            case CLOSED:
+                return;
+            case OPEN:
+                long now = now();
+                if (now < openUntil) {
+                    throw new ActionFailed.CircuitOpen(url, openUntil - now);
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+                // fall through
+            case HALF_OPEN:
+                if (probeInFlight) {
+                    throw new ActionFailed.CircuitOpen(url, 0);
+                }
+                probeInFlight = true;
+                return;
+            default: throw new AssertionError(state); // $COVERAGE-IGNORE$
+        }
+    }
+
+    /**
+     * Record the other side has responded.
+     */
+    public synchronized void succeeded() {
+        if (state != State.CLOSED) {
+            LOGGER.info("Connection to " + url + " recovered");
+        }
+        state = State.CLOSED;
+        failures = 0;
+        openings = 0;
+        probeInFlight = false;
+    }
+
+    /**
+     * Record the other side has not responded or responded with server error.
+     *
+     * Only the failures that close the breaker or of the probe open it. Calls in flight when the breaker opened
+     * failing later do not extend the backoff.
+     */
+    public synchronized void failed() {
+        switch (state) {
+            case OPEN:
+                return;
+            case HALF_OPEN:
+                if (!probeInFlight) return;
+                failures++;
+                break;
+            case CLOSED:
+                if (++failures < FAILURE_THRESHOLD) return;
+                break;
+            default: throw new AssertionError(state); // $COVERAGE-IGNORE$
+        }
+
+        long backoff = getBackoff(openings++);
+        openUntil = now() + backoff;
+        probeInFlight = false;
+        if (state == State.CLOSED) {
+            LOGGER.warning("Connection to " + url + " failed " + failures + " times, suspending calls for " + backoff + "ms");
+        }
+        state = State.OPEN;
+    }
+
+    /**
+     * Record the permitted call was not attempted after all.
+     */
+    public synchronized void released() {
+        probeInFlight = false;
+    }
+
+    public synchronized @Nonnull State getState() {
+        // Report the transition even before the probe was attempted
+        if (state == State.OPEN && now() >= openUntil) return State.HALF_OPEN;
+        return state;
+    }
+
+    /**
+     * Human readable state.
+     */
+    public synchronized @Nonnull String getDescription() {
+        State state = getState();
+        switch (state) {
+            case OPEN:
+                return "Unreachable, retrying in " + TimeUnit.MILLISECONDS.toSeconds(openUntil - now() + 999) + "s";
+            case HALF_OPEN:
+                return "Recovering";
+            default:
+                return failures == 0 ? "OK" : "OK, " + failures + " failed calls";
+        }
+    }
+
+    // Exponential backoff with jitter in <delay/2, delay> range not to have all the callers return at once
+    @VisibleForTesting
+    /*package*/ static long getBackoff(int attempt) {
+        long delay = BASE_BACKOFF << Math.min(attempt, 20);
+        if (delay <= 0 || delay > MAX_BACKOFF) {
+            delay = MAX_BACKOFF;
+        }
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    @VisibleForTesting
+    /*package*/ long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override public String toString() {
+        return "CircuitBreaker " + url + ": " + getDescription();
+    }
+}
@@ -64,6 +64,8 @@ public class ConfigRepo {
     private static final String KEY_JENKINS_URL = "url";
     private static final String KEY_ENFORCE_HTTPS = "enforce_https";
     public static final String KEY_CREDENTIAL_ID = "credential_id";
+    private static final String KEY_WEIGHT = "weight";
+    private static final String KEY_MAX_HOSTS = "max_hosts";
 
     private static final Logger LOGGER = Logger.getLogger(ConfigRepo.class.getName());
 
@@ -236,11 +238,33 @@ public class ConfigRepo {
                 continue;
             }
 
-            jenkinses.add(new ExecutorJenkins(url, name, credential_id));
+            int weight, maxHosts;
+            try {
+                weight = getPositiveInt(config, KEY_WEIGHT, 1);
+                maxHosts = getPositiveInt(config, KEY_MAX_HOSTS, ExecutorJenkins.UNLIMITED);
+            } catch (NumberFormatException e) {
+                taskLog.error("Jenkins config file %s: %s", name, e.getMessage());
+                continue;
+            }
+
+            jenkinses.add(new ExecutorJenkins(url, name, credential_id, weight, maxHosts));
         }
         return Collections.unmodifiableSet(jenkinses);
     }
 
+    private static int getPositiveInt(Map<String, String> config, String key, int defaultValue) throws NumberFormatException {
+        String value = config.get(key);
+        if (value == null) return defaultValue;
+
+        try {
+            int number = Integer.parseInt(value.trim());
+            if (number > 0) return number;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new NumberFormatException(key + " must be a positive number, was '" + value + "'");
+    }
+
     private boolean isSafeUrl(URL u, Map<String, String> config) {
         if ("false".equals(config.get(KEY_ENFORCE_HTTPS))) return true;
 
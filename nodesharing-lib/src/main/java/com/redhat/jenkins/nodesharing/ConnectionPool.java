@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import hudson.init.Terminator;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.DoNotUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide pool of keep-alive connections shared by all {@link RestEndpoint}s.
+ *
+ * Connections are pooled per route (scheme, host and port) so all the calls to particular Jenkins reuse the same
+ * connections, including the crumb requests. Idle and expired connections are evicted in the background and the pool is
+ * closed when Jenkins terminates. It is recreated lazily should it be needed again.
+ */
+public final class ConnectionPool {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    private static final String PROPERTY_PREFIX = ConnectionPool.class.getName() + ".";
+
+    // Maximal number of connections to a single Jenkins
+    private static final int MAX_PER_ROUTE = Integer.getInteger(PROPERTY_PREFIX + "MAX_PER_ROUTE", 10);
+    // Maximal number of connections in total
+    private static final int MAX_TOTAL = Integer.getInteger(PROPERTY_PREFIX + "MAX_TOTAL", 200);
+    // Time in seconds idle connection is kept in the pool
+    private static final int IDLE_TIMEOUT = Integer.getInteger(PROPERTY_PREFIX + "IDLE_TIMEOUT", 60);
+    // Time in seconds after which the connection is not reused no matter what server suggests
+    private static final int TIME_TO_LIVE = Integer.getInteger(PROPERTY_PREFIX + "TIME_TO_LIVE", 15 * 60);
+    // Time in ms of inactivity after which the pooled connection is checked for staleness before reused
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+    // Number of times the request is resent after I/O error, such as when the pooled connection was closed by the server
+    private static final int RETRIES = Integer.getInteger(PROPERTY_PREFIX + "RETRIES", 1);
+
+    private static final ConnectionPool INSTANCE = new ConnectionPool();
+
+    private final @Nonnull AtomicLong hits = new AtomicLong();
+    private final @Nonnull AtomicLong misses = new AtomicLong();
+
+    @GuardedBy("this")
+    private @CheckForNull CountingConnectionManager manager;
+    @GuardedBy("this")
+    private @CheckForNull CloseableHttpClient client;
+
+    private ConnectionPool() {}
+
+    public static @Nonnull ConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get pooling client.
+     *
+     * Caller is not supposed to close the client.
+     */
+    /*package*/ synchronized @Nonnull CloseableHttpClient getClient() {
+        if (client != null) return client;
+
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                .build()
+        ;
+        manager = new CountingConnectionManager(registry);
+        manager.setMaxTotal(MAX_TOTAL);
+        manager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+        manager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        return client = HttpClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(manager)
+                // Client is shared by all endpoints and credentials so session cookies are managed by RestEndpoint
+                .disableCookieManagement()
+                // Only requests not sent completely are resent, such as over a pooled connection the server closed.
+                // Resending the ones already delivered is left to RestEndpoint#executeIdempotent as not every call
+                // tolerates being repeated. Timeouts and connection refusals are not retried.
+                .setRetryHandler(new DefaultHttpRequestRetryHandler(RETRIES, false))
+                .setConnectionTimeToLive(TIME_TO_LIVE, TimeUnit.SECONDS)
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_TIMEOUT, TimeUnit.SECONDS)
+                .build()
+        ;
+    }
+
+    /**
+     * Close all pooled connections.
+     */
+    public synchronized void shutdown() {
+        if (client == null) return;
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to close HttpClient", e); // $COVERAGE-IGNORE$
+        }
+        client = null;
+        manager = null;
+    }
+
+    @Terminator @Restricted(DoNotUse.class)
+    public static void closeConnections() {
+        getInstance().shutdown();
+    }
+
+    /**
+     * Number of requests served by a connection reused from the pool.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of requests that needed a new connection to be opened.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Current state of the pool, null if not initialized.
+     */
+    public synchronized @CheckForNull PoolStats getStats() {
+        return manager == null ? null : manager.getTotalStats();
+    }
+
+    @Override public String toString() {
+        return "ConnectionPool hits=" + hits + ", misses=" + misses + ", " + getStats();
+    }
+
+    // Connection leased from the pool is already open when reused, fresh connections are opened by the client later
+    private final class CountingConnectionManager extends PoolingHttpClientConnectionManager {
+
+        private CountingConnectionManager(Registry<ConnectionSocketFactory> registry) {
+            super(registry);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ConnectionRequest request = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    HttpClientConnection connection = request.get(timeout, tunit);
+                    if (connection.isOpen()) {
+                        hits.incrementAndGet();
+                    } else {
+                        misses.incrementAndGet();
+                    }
+                    return connection;
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+    }
+}
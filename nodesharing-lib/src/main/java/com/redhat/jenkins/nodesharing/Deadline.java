@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time a batch of REST calls is expected to complete by.
+ *
+ * Each call is given the smaller of its own timeout and the time remaining, calls attempted after the deadline has
+ * passed fail right away with {@link ActionFailed.RequestTimeout}.
+ */
+public final class Deadline {
+
+    /**
+     * No time limit other than the timeouts of individual calls.
+     */
+    public static final Deadline NONE = new Deadline(0, true);
+
+    private final long expiresAt; // System.nanoTime() based
+    private final boolean unlimited;
+
+    private Deadline(long expiresAt, boolean unlimited) {
+        this.expiresAt = expiresAt;
+        this.unlimited = unlimited;
+    }
+
+    /**
+     * Deadline the given time from now.
+     */
+    public static @Nonnull Deadline after(long duration, @Nonnull TimeUnit unit) {
+        return new Deadline(now() + unit.toNanos(duration), false);
+    }
+
+    /**
+     * Time left, zero if expired or {@link Long#MAX_VALUE} when unlimited.
+     */
+    public long remaining(@Nonnull TimeUnit unit) {
+        if (unlimited) return Long.MAX_VALUE;
+        return unit.convert(Math.max(0, expiresAt - now()), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return !unlimited && expiresAt - now() <= 0;
+    }
+
+    /**
+     * The earlier of the two deadlines.
+     */
+    public @Nonnull Deadline min(@Nonnull Deadline other) {
+        if (unlimited) return other;
+        if (other.unlimited) return this;
+        return expiresAt - other.expiresAt <= 0 ? this : other;
+    }
+
+    /**
+     * The later of the two deadlines.
+     */
+    public @Nonnull Deadline max(@Nonnull Deadline other) {
+        if (unlimited) return this;
+        if (other.unlimited) return other;
+        return expiresAt - other.expiresAt >= 0 ? this : other;
+    }
+
+    /**
+     * Limit timeout in ms not to exceed this deadline.
+     */
+    public int cap(int timeout) {
+        return (int) Math.min(timeout, remaining(TimeUnit.MILLISECONDS));
+    }
+
+    private static long now() {
+        return System.nanoTime();
+    }
+
+    @Override public String toString() {
+        return unlimited ? "Deadline unlimited" : "Deadline in " + remaining(TimeUnit.MILLISECONDS) + "ms";
+    }
+}
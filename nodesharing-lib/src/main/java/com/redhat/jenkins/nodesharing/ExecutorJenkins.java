@@ -41,12 +41,28 @@ import java.util.Objects;
  */
 public class ExecutorJenkins {
 
+    /**
+     * Number of hosts executor can hold when no quota is declared.
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
     private final @Nonnull URL url;
     private final @Nonnull String name;
     private final @CheckForNull String credentialId;
-    private /*final once initialized*/ @CheckForNull RestEndpoint rest;
+    // Share of the hosts relative to other executors and the maximal number of hosts to hold
+    private final int weight;
+    private final int maxHosts;
+    private volatile @CheckForNull RestEndpoint rest; // Recreated when transport changes
 
     public ExecutorJenkins(@Nonnull String url, @Nonnull String name, String credentialId) {
+        this(url, name, credentialId, 1, UNLIMITED);
+    }
+
+    public ExecutorJenkins(@Nonnull String url, @Nonnull String name, String credentialId, int weight, int maxHosts) {
+        if (weight < 1) throw new IllegalArgumentException("Weight must be positive: " + weight);
+        if (maxHosts < 1) throw new IllegalArgumentException("Max hosts must be positive: " + maxHosts);
+        this.weight = weight;
+        this.maxHosts = maxHosts;
         try {
             Jenkins.checkGoodName(name);
             this.name = name;
@@ -87,6 +103,20 @@ public class ExecutorJenkins {
         return credentialId;
     }
 
+    /**
+     * Share of the hosts this executor is entitled to relative to the weights of other executors.
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Maximal number of hosts this executor can hold at a time, {@link #UNLIMITED} if there is no quota.
+     */
+    public int getMaxHosts() {
+        return maxHosts;
+    }
+
     /**
      * Get URL to executors REST endpoint.
      *
@@ -96,9 +126,21 @@ public class ExecutorJenkins {
         return url;
     }
 
+    /**
+     * Get the circuit breaker tracking availability of this executor.
+     */
+    public @Nonnull CircuitBreaker getCircuitBreaker() {
+        return CircuitBreaker.get(url.toExternalForm());
+    }
+
     public @Nonnull RestEndpoint getRest(@Nonnull String configRepoUrl, UsernamePasswordCredentials creds) {
-        if (rest != null) return rest;
-        return rest = new RestEndpoint(url.toExternalForm(),  "/cloud/" + inferCloudName(configRepoUrl) + "/api", creds);
+        return getRest(configRepoUrl, creds, HttpTransport.Implementation.APACHE.get());
+    }
+
+    public @Nonnull RestEndpoint getRest(@Nonnull String configRepoUrl, UsernamePasswordCredentials creds, @Nonnull HttpTransport transport) {
+        RestEndpoint rest = this.rest;
+        if (rest != null && rest.getTransport() == transport) return rest;
+        return this.rest = new RestEndpoint(url.toExternalForm(),  "/cloud/" + inferCloudName(configRepoUrl) + "/api", creds, transport);
     }
 
     @Override
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * HTTP client {@link RestEndpoint} executes its requests with.
+ *
+ * Implementations are responsible for connection management, authentication and timeouts. Crumbs, response handling,
+ * negotiation of optional features and failure accounting are performed by {@link RestEndpoint} regardless of the
+ * implementation used. The request and response are represented by HttpCore classes for all the implementations.
+ */
+public interface HttpTransport {
+
+    /**
+     * Execute the request authenticated by the credentials and pass the response to the handler.
+     *
+     * @param timeout Timeout in ms.
+     * @throws SocketTimeoutException When the request has timed out.
+     * @throws IOException When the request could not be executed.
+     */
+    <T> T execute(
+            @Nonnull HttpRequestBase method,
+            @Nonnull UsernamePasswordCredentials creds,
+            int timeout,
+            @Nonnull ResponseHandler<? extends T> handler
+    ) throws IOException;
+
+    /**
+     * Available implementations.
+     */
+    enum Implementation {
+        APACHE("Apache HttpClient (HTTP/1.1 connection pool)") {
+            @Override public @Nonnull HttpTransport get() {
+                return ApacheHttpTransport.INSTANCE;
+            }
+        },
+        JDK("Java HttpClient (HTTP/2)") {
+            @Override public @Nonnull HttpTransport get() {
+                return JdkHttpTransport.INSTANCE;
+            }
+        };
+
+        private final @Nonnull String displayName;
+
+        Implementation(@Nonnull String displayName) {
+            this.displayName = displayName;
+        }
+
+        public @Nonnull String getDisplayName() {
+            return displayName;
+        }
+
+        public abstract @Nonnull HttpTransport get();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Transport using JDK HttpClient.
+ *
+ * HTTP/2 is used when supported by the server, in which case concurrent calls to the same Jenkins are multiplexed over
+ * a single connection. It falls back to HTTP/1.1 otherwise.
+ */
+/*package*/ final class JdkHttpTransport implements HttpTransport {
+
+    /*package*/ static final JdkHttpTransport INSTANCE = new JdkHttpTransport();
+
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    // Headers managed by the client itself that it refuses to accept
+    private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    static {
+        RESTRICTED_HEADERS.addAll(Arrays.asList("Connection", "Content-Length", "Expect", "Host", "Upgrade"));
+    }
+
+    @GuardedBy("this")
+    private @CheckForNull HttpClient client;
+
+    private JdkHttpTransport() {}
+
+    private synchronized @Nonnull HttpClient getClient() {
+        if (client != null) return client;
+
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofMillis(RestEndpoint.TIMEOUT))
+        ;
+        ProxySelector proxy = ProxySelector.getDefault();
+        if (proxy != null) {
+            builder.proxy(proxy);
+        }
+        return client = builder.build();
+    }
+
+    @Override
+    public <T> T execute(
+            @Nonnull HttpRequestBase method,
+            @Nonnull UsernamePasswordCredentials creds,
+            int timeout,
+            @Nonnull ResponseHandler<? extends T> handler
+    ) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(method.getURI()).timeout(Duration.ofMillis(timeout));
+        for (Header header : method.getAllHeaders()) {
+            if (!RESTRICTED_HEADERS.contains(header.getName())) {
+                builder.header(header.getName(), header.getValue());
+            }
+        }
+        String auth = creds.getUsername() + ":" + creds.getPassword().getPlainText();
+        builder.setHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8)));
+        builder.setHeader("Accept-Encoding", "gzip"); // Apache client does this on its own
+
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        if (method instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) method).getEntity();
+            if (entity != null) {
+                if (entity.getContentType() != null) {
+                    builder.setHeader("Content-Type", entity.getContentType().getValue());
+                }
+                if (entity.getContentEncoding() != null) {
+                    builder.setHeader("Content-Encoding", entity.getContentEncoding().getValue());
+                }
+                body = HttpRequest.BodyPublishers.ofByteArray(EntityUtils.toByteArray(entity));
+            }
+        }
+        builder.method(method.getMethod(), body);
+
+        HttpResponse<InputStream> response;
+        try {
+            response = getClient().send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (HttpTimeoutException e) {
+            SocketTimeoutException ste = new SocketTimeoutException(e.getMessage());
+            ste.initCause(e);
+            throw ste;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException iioe = new InterruptedIOException("Interrupted executing " + method);
+            iioe.initCause(e);
+            throw iioe;
+        }
+
+        try (InputStream in = response.body()) {
+            return handler.handleResponse(toHttpCore(response, in));
+        }
+    }
+
+    private @Nonnull BasicHttpResponse toHttpCore(@Nonnull HttpResponse<?> response, @Nonnull InputStream in) throws IOException {
+        int status = response.statusCode();
+        BasicHttpResponse out = new BasicHttpResponse(
+                response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1,
+                status,
+                EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ENGLISH)
+        );
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (header.getKey().startsWith(":")) continue; // HTTP/2 pseudo-headers
+            for (String value : header.getValue()) {
+                out.addHeader(header.getKey(), value);
+            }
+        }
+
+        BasicHttpEntity entity = new BasicHttpEntity();
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        if (contentType != null) {
+            entity.setContentType(contentType);
+        }
+        if ("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(null))) {
+            // Decompressed transparently the same way Apache client does
+            out.removeHeaders("Content-Encoding");
+            out.removeHeaders("Content-Length");
+            entity.setContent(new GZIPInputStream(in));
+            entity.setContentLength(-1);
+        } else {
+            entity.setContent(in);
+            entity.setContentLength(response.headers().firstValueAsLong("Content-Length").orElse(-1));
+        }
+        out.setEntity(entity);
+        return out;
+    }
+
+    @Override public String toString() {
+        return "JDK HttpClient transport";
+    }
+}
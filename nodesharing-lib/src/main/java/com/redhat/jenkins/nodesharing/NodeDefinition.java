@@ -35,6 +35,8 @@ import javax.annotation.concurrent.Immutable;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * Definition of the node in Config Repository.
@@ -47,6 +49,8 @@ public abstract class NodeDefinition implements Serializable {
 
     private final @Nonnull String fileName;
     private final @Nonnull String definition;
+    // Parsed lazily from the label
+    private transient volatile @CheckForNull Set<LabelAtom> labelAtoms;
 
     protected NodeDefinition(@Nonnull String fileName, @Nonnull String definition) {
         this.fileName = fileName;
@@ -80,7 +84,11 @@ public abstract class NodeDefinition implements Serializable {
     }
 
     public @Nonnull Collection<LabelAtom> getLabelAtoms() {
-        return LabelAtom.parse(getLabel());
+        Set<LabelAtom> atoms = labelAtoms;
+        if (atoms == null) {
+            labelAtoms = atoms = Collections.unmodifiableSet(LabelAtom.parse(getLabel()));
+        }
+        return atoms;
     }
 
     public static @CheckForNull NodeDefinition create(@Nonnull FilePath file) throws IOException, InterruptedException {
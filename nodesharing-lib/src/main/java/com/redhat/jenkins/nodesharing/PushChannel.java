@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import com.redhat.jenkins.nodesharing.transport.BatchResponse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Channel to deliver calls through while the other side is connected, instead of sending them over HTTP.
+ *
+ * @see RestEndpoint#setChannel(PushChannel)
+ */
+public interface PushChannel {
+
+    /**
+     * Other side is connected and the calls are delivered through the channel.
+     */
+    boolean isConnected();
+
+    /**
+     * Deliver the operation.
+     *
+     * @param operation Name of the operation, as if it was posted to endpoint of the given name.
+     * @param payload Request entity in JSON.
+     * @return Future completed by the reply, as if it was responded to the HTTP request. Null when the other side is not
+     * connected and the call is to be sent over HTTP.
+     */
+    @CheckForNull CompletableFuture<BatchResponse.Result> send(@Nonnull String operation, @Nonnull String payload);
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcomes of the requests recently served, by their idempotency keys.
+ *
+ * Lets the endpoints answer the replayed request the same way as the original one without performing it again. Only
+ * the given number of the most recent keys is remembered so a replay arriving very late is served again.
+ *
+ * The request is served once {@link #claim(String)} returned null, its outcome is then either {@link #put(String, Object)}
+ * or the key {@link #release(String)}d when it failed. Duplicates arriving in the meantime wait for the outcome.
+ */
+public final class RecentKeys<V> {
+
+    // Marks the key of the request being served
+    private static final Object PROCESSING = new Object();
+
+    @GuardedBy("this")
+    private final @Nonnull LinkedHashMap<String, Object> outcomes;
+
+    public RecentKeys(final int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.outcomes = new LinkedHashMap<String, Object>() {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Outcome of the request served with the key, null if not known or still being served.
+     */
+    public synchronized @CheckForNull V get(@CheckForNull String key) {
+        if (key == null) return null; // Sent by a peer that does not use the keys
+        Object outcome = outcomes.get(key);
+        return outcome == PROCESSING ? null : cast(outcome);
+    }
+
+    /**
+     * Claim the key to serve the request, or get the outcome of the request served with it.
+     *
+     * In case a request with the same key is being served, wait until it is.
+     *
+     * @return Null when the caller is to serve the request, the outcome of the original request otherwise.
+     * @throws InterruptedException When interrupted waiting for the original request.
+     */
+    public synchronized @CheckForNull V claim(@CheckForNull String key) throws InterruptedException {
+        if (key == null) return null;
+        while (true) {
+            Object outcome = outcomes.get(key);
+            if (outcome == null) {
+                outcomes.put(key, PROCESSING);
+                return null;
+            }
+            if (outcome != PROCESSING) return cast(outcome);
+            wait();
+        }
+    }
+
+    /**
+     * Remember the outcome of the request served.
+     */
+    public synchronized void put(@CheckForNull String key, @Nonnull V outcome) {
+        if (key == null) return;
+        outcomes.put(key, outcome);
+        notifyAll();
+    }
+
+    /**
+     * Forget the claim unless the outcome was put, so the duplicate serves the request.
+     */
+    public synchronized void release(@CheckForNull String key) {
+        if (key == null) return;
+        if (outcomes.get(key) == PROCESSING) {
+            outcomes.remove(key);
+            notifyAll();
+        }
+    }
+
+    public synchronized int size() {
+        return outcomes.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object outcome) {
+        return (V) outcome;
+    }
+}
@@ -27,6 +27,8 @@ import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.gson.JsonParseException;
 import com.redhat.jenkins.nodesharing.transport.AbstractEntity;
+import com.redhat.jenkins.nodesharing.transport.BatchRequest;
+import com.redhat.jenkins.nodesharing.transport.BatchResponse;
 import com.redhat.jenkins.nodesharing.transport.CrumbResponse;
 import com.redhat.jenkins.nodesharing.transport.Entity;
 import hudson.Util;
@@ -35,43 +37,65 @@ import hudson.init.Initializer;
 import hudson.security.Permission;
 import hudson.security.PermissionGroup;
 import hudson.security.PermissionScope;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.Timer;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.StatusLine;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.client.AuthCache;
-import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.ResponseHandler;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.client.utils.URIUtils;
 import org.apache.http.entity.AbstractHttpEntity;
-import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicAuthCache;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Rest endpoint representing "the other side" to talk to.
@@ -81,31 +105,78 @@ import java.util.logging.Logger;
 public class RestEndpoint {
     private static final Logger LOGGER = Logger.getLogger(RestEndpoint.class.getName());
 
-    // Timeout for REST network communication in ms
-    public static final int TIMEOUT = parseTimeout();
-
     // Default REST calls timeout in ms
     private static final int DEFAULT_TIMEOUT = 30 * 1000;
     private static final String PROPERTY_NAME = "com.redhat.jenkins.nodesharing.RestEndpoint.TIMEOUT";
 
+    // Number of times the idempotent call is resent after its delivery failed
+    private static final int IDEMPOTENT_RETRIES = Integer.getInteger(RestEndpoint.class.getName() + ".IDEMPOTENT_RETRIES", 3);
+    // Time in ms to wait before resending the idempotent call for the first time, doubled for every other attempt
+    private static final long IDEMPOTENT_RETRY_DELAY = Long.getLong(RestEndpoint.class.getName() + ".IDEMPOTENT_RETRY_DELAY", 1000);
+
+    // Timeout for REST network communication in ms, unless configured per operation
+    public static final int TIMEOUT = parseTimeout();
+
+    // Operations that are cheap to serve fail fast while the ones changing the reservations are given more time.
+    // Applies unless the timeout is configured globally or for the particular operation.
+    private static final Map<String, Integer> DEFAULT_OPERATION_TIMEOUTS = new HashMap<>();
+    static {
+        DEFAULT_OPERATION_TIMEOUTS.put("discover", 10 * 1000);
+        DEFAULT_OPERATION_TIMEOUTS.put("nodeStatus", 10 * 1000);
+        DEFAULT_OPERATION_TIMEOUTS.put("reportUsage", 10 * 1000);
+        DEFAULT_OPERATION_TIMEOUTS.put("usageEvents", 10 * 1000);
+        DEFAULT_OPERATION_TIMEOUTS.put("utilizeNode", 60 * 1000);
+        DEFAULT_OPERATION_TIMEOUTS.put("returnNode", 60 * 1000);
+        DEFAULT_OPERATION_TIMEOUTS.put(Batch.OPERATION, 60 * 1000);
+        // Held by the other side until there is something to push
+        DEFAULT_OPERATION_TIMEOUTS.put("poll", 90 * 1000);
+    }
+    private static final ConcurrentMap<String, Integer> OPERATION_TIMEOUTS = new ConcurrentHashMap<>();
+
     private static int parseTimeout() {
-        String strTimeout = Util.fixEmptyAndTrim(System.getProperty(PROPERTY_NAME));
+        int timeout = parseTimeout(PROPERTY_NAME, DEFAULT_TIMEOUT);
+        if (timeout < DEFAULT_TIMEOUT) {
+            LOGGER.warning("Using " + PROPERTY_NAME + " shorter than the default (" + DEFAULT_TIMEOUT + ") may be problematic");
+        }
+        return timeout;
+    }
+
+    private static int parseTimeout(@Nonnull String propertyName, int defaultTimeout) {
+        String strTimeout = Util.fixEmptyAndTrim(System.getProperty(propertyName));
         if (strTimeout != null) {
             try {
                 int timeout = Integer.parseInt(strTimeout);
                 if (timeout > 0) {
-                    if (timeout < DEFAULT_TIMEOUT) {
-                        LOGGER.warning("Using " + PROPERTY_NAME + " shorter than the default (" + DEFAULT_TIMEOUT + ") may be problematic");
-                    }
                     return timeout;
                 } else {
-                    LOGGER.warning("Value of " + PROPERTY_NAME + " is invalid, using default " + DEFAULT_TIMEOUT);
+                    LOGGER.warning("Value of " + propertyName + " is invalid, using default " + defaultTimeout);
                 }
             } catch (NumberFormatException e) {
-                LOGGER.log(Level.WARNING, "Unable to parse TIMEOUT, using default value " + DEFAULT_TIMEOUT, e);
+                LOGGER.log(Level.WARNING, "Unable to parse " + propertyName + ", using default value " + defaultTimeout, e);
             }
         }
-        return DEFAULT_TIMEOUT;
+        return defaultTimeout;
+    }
+
+    /**
+     * Timeout in ms for the REST operation.
+     *
+     * Configured by {@code com.redhat.jenkins.nodesharing.RestEndpoint.TIMEOUT.<operation>} property, falling back to
+     * the global {@link #TIMEOUT}.
+     *
+     * @param operation Name of the operation, i.e. the last segment of the endpoint path.
+     */
+    public static int getTimeout(@Nonnull String operation) {
+        Integer timeout = OPERATION_TIMEOUTS.get(operation);
+        if (timeout != null) return timeout;
+
+        Integer defaultTimeout = DEFAULT_OPERATION_TIMEOUTS.get(operation);
+        if (defaultTimeout == null || Util.fixEmptyAndTrim(System.getProperty(PROPERTY_NAME)) != null) {
+            defaultTimeout = TIMEOUT;
+        }
+        timeout = parseTimeout(PROPERTY_NAME + "." + operation, defaultTimeout);
+        OPERATION_TIMEOUTS.putIfAbsent(operation, timeout);
+        return timeout;
     }
 
     private static final PermissionGroup NODE_SHARING_GROUP = new PermissionGroup(RestEndpoint.class, Messages._RestEndpoint_PermissionGroupName());
@@ -123,25 +194,96 @@ public class RestEndpoint {
         throw new AssertionError("Permission " + permId + " not registered");
     }
 
-    private static final RequestConfig REQUEST_CONFIG = RequestConfig.custom()
-            .setConnectTimeout(TIMEOUT)
-            .setConnectionRequestTimeout(TIMEOUT)
-            .setSocketTimeout(TIMEOUT)
-            .build()
-    ;
+    // Maximal number of asynchronous requests in flight
+    private static final int MAX_ASYNC_REQUESTS = Integer.getInteger(
+            "com.redhat.jenkins.nodesharing.RestEndpoint.MAX_ASYNC_REQUESTS", 16
+    );
+    private static final ExecutorService ASYNC_EXECUTOR = createAsyncExecutor();
+
+    private static ExecutorService createAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_ASYNC_REQUESTS, MAX_ASYNC_REQUESTS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "NodeSharing REST")
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Time in ms requests are collected for before sent in a single batch, zero to disable batching
+    private static final long BATCH_WINDOW = Long.getLong(
+            "com.redhat.jenkins.nodesharing.RestEndpoint.BATCH_WINDOW", 50
+    );
+
+    // Time in ms the crumb is reused for. It must not outlive the session it is bound to
+    private static final long CRUMB_TTL = TimeUnit.MINUTES.toMillis(
+            Long.getLong("com.redhat.jenkins.nodesharing.RestEndpoint.CRUMB_TTL_MINUTES", 10)
+    );
 
     private final @Nonnull String endpoint;
     private final @Nonnull String crumbIssuerEndpoint;
     private final @Nonnull UsernamePasswordCredentials creds;
+    private final @Nonnull CircuitBreaker breaker;
+    private final @Nonnull HttpTransport transport;
+
+    @GuardedBy("this")
+    private @CheckForNull Crumb crumb;
+    // Fetch of the crumb in progress, null if there is none
+    @GuardedBy("this")
+    private @CheckForNull CompletableFuture<Crumb> crumbFetch;
+
+    // Optional protocol features are used only after the other side advertised them
+    private volatile @Nonnull Set<String> peerCapabilities = Collections.emptySet();
+
+    // Calls are delivered through the channel while the other side is connected to it
+    private volatile @CheckForNull PushChannel channel;
+
+    private final @Nonnull Object batchLock = new Object();
+    // Calls waiting to be sent, per timeout of their operation
+    @GuardedBy("batchLock")
+    private final @Nonnull Map<Integer, List<BatchedCall<?>>> pendingBatches = new HashMap<>();
 
     public RestEndpoint(@Nonnull String jenkinsUrl, @Nonnull String endpointPath, @Nonnull UsernamePasswordCredentials creds) {
+        this(jenkinsUrl, endpointPath, creds, HttpTransport.Implementation.APACHE.get());
+    }
+
+    public RestEndpoint(
+            @Nonnull String jenkinsUrl,
+            @Nonnull String endpointPath,
+            @Nonnull UsernamePasswordCredentials creds,
+            @Nonnull HttpTransport transport
+    ) {
         Objects.requireNonNull(jenkinsUrl);
         Objects.requireNonNull(endpointPath);
         Objects.requireNonNull(creds);
+        Objects.requireNonNull(transport);
 
         this.endpoint = jenkinsUrl + endpointPath;
         this.crumbIssuerEndpoint = jenkinsUrl + "crumbIssuer/api/json";
         this.creds = creds;
+        this.breaker = CircuitBreaker.get(jenkinsUrl);
+        this.transport = transport;
+    }
+
+    public @Nonnull HttpTransport getTransport() {
+        return transport;
+    }
+
+    public @CheckForNull PushChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Deliver the calls through the channel instead of HTTP while the other side is connected to it.
+     *
+     * @param channel The channel or null to always use HTTP.
+     */
+    public void setChannel(@CheckForNull PushChannel channel) {
+        this.channel = channel;
+    }
+
+    @VisibleForTesting
+    /*package*/ @Nonnull Set<String> getPeerCapabilities() {
+        return peerCapabilities;
     }
 
     public HttpPost post(@Nonnull String path) {
@@ -164,11 +306,23 @@ public class RestEndpoint {
             @Nonnull Entity requestEntity,
             @Nonnull Class<T> returnType
     ) throws ActionFailed {
-        for(Header h : getCrumbHeaders()) {
-            method.addHeader(h);
-        }
-        method.setEntity(new WrappingEntity(requestEntity));
-        return _executeRequest(method, new DefaultResponseHandler<>(method, returnType));
+        return executeRequest(method, requestEntity, returnType, Deadline.NONE);
+    }
+
+    /**
+     * Execute HttpRequest to complete by the deadline.
+     *
+     * @param deadline Deadline shared by a batch of calls. Timeout of the call is shortened not to exceed it.
+     * @throws ActionFailed.RequestTimeout When the request timed out or the deadline has expired.
+     * @see #executeRequest(HttpEntityEnclosingRequestBase, Entity, Class)
+     */
+    public <T extends AbstractEntity> T executeRequest(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @Nonnull Entity requestEntity,
+            @Nonnull Class<T> returnType,
+            @Nonnull Deadline deadline
+    ) throws ActionFailed {
+        return executeWithCrumb(method, requestEntity, new DefaultResponseHandler<>(method, returnType), deadline);
     }
 
     /**
@@ -188,11 +342,7 @@ public class RestEndpoint {
             @Nonnull Entity requestEntity,
             @Nonnull ResponseHandler<T> handler
     ) throws ActionFailed {
-        for(Header h : getCrumbHeaders()) {
-            method.addHeader(h);
-        }
-        method.setEntity(new WrappingEntity(requestEntity));
-        return _executeRequest(method, handler);
+        return executeWithCrumb(method, requestEntity, handler, Deadline.NONE);
     }
 
     @VisibleForTesting
@@ -200,50 +350,592 @@ public class RestEndpoint {
             @Nonnull HttpEntityEnclosingRequestBase method,
             @Nonnull ResponseHandler<T> handler
     ) throws ActionFailed {
-        for(Header h : getCrumbHeaders()) {
-            method.addHeader(h);
+        return executeWithCrumb(method, null, handler, Deadline.NONE);
+    }
+
+    /**
+     * Execute HttpRequest asynchronously.
+     *
+     * The number of requests executed at a time is bounded, the rest is queued. The future completes exceptionally with
+     * {@link ActionFailed} in cases the blocking variant throws.
+     *
+     * @see #executeRequest(HttpEntityEnclosingRequestBase, Entity, Class)
+     */
+    public @Nonnull <T extends AbstractEntity> CompletableFuture<T> executeRequestAsync(
+            @Nonnull final HttpEntityEnclosingRequestBase method,
+            @Nonnull final Entity requestEntity,
+            @Nonnull final Class<T> returnType
+    ) {
+        return executeRequestAsync(method, requestEntity, returnType, Deadline.NONE);
+    }
+
+    /**
+     * Execute HttpRequest asynchronously to complete by the deadline.
+     *
+     * Requests still queued when the deadline expires fail without being sent.
+     *
+     * @see #executeRequest(HttpEntityEnclosingRequestBase, Entity, Class, Deadline)
+     */
+    public @Nonnull <T extends AbstractEntity> CompletableFuture<T> executeRequestAsync(
+            @Nonnull final HttpEntityEnclosingRequestBase method,
+            @Nonnull final Entity requestEntity,
+            @Nonnull final Class<T> returnType,
+            @Nonnull final Deadline deadline
+    ) {
+        return executeRequestAsync(method, requestEntity, new DefaultResponseHandler<>(method, returnType), deadline);
+    }
+
+    /**
+     * Execute HttpRequest asynchronously.
+     *
+     * @see #executeRequest(HttpEntityEnclosingRequestBase, Entity, ResponseHandler)
+     */
+    public @Nonnull <T> CompletableFuture<T> executeRequestAsync(
+            @Nonnull final HttpEntityEnclosingRequestBase method,
+            @Nonnull final Entity requestEntity,
+            @Nonnull final ResponseHandler<T> handler
+    ) {
+        return executeRequestAsync(method, requestEntity, handler, Deadline.NONE);
+    }
+
+    /**
+     * Execute HttpRequest asynchronously to complete by the deadline.
+     *
+     * @see #executeRequest(HttpEntityEnclosingRequestBase, Entity, ResponseHandler)
+     */
+    public @Nonnull <T> CompletableFuture<T> executeRequestAsync(
+            @Nonnull final HttpEntityEnclosingRequestBase method,
+            @Nonnull final Entity requestEntity,
+            @Nonnull final ResponseHandler<T> handler,
+            @Nonnull final Deadline deadline
+    ) {
+        return CompletableFuture.supplyAsync(new Supplier<T>() {
+            @Override public T get() {
+                return executeWithCrumb(method, requestEntity, handler, deadline);
+            }
+        }, ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Execute HttpRequest, possibly together with other requests to the same endpoint.
+     *
+     * @see #executeBatchedAsync(HttpEntityEnclosingRequestBase, AbstractEntity, ResponseHandler, Deadline)
+     * @see #executeRequest(HttpEntityEnclosingRequestBase, Entity, Class)
+     */
+    public <T extends AbstractEntity> T executeBatched(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @Nonnull AbstractEntity requestEntity,
+            @Nonnull Class<T> returnType
+    ) throws ActionFailed {
+        return executeBatched(method, requestEntity, new DefaultResponseHandler<>(method, returnType));
+    }
+
+    /**
+     * Execute HttpRequest, possibly together with other requests to the same endpoint.
+     *
+     * @see #executeBatchedAsync(HttpEntityEnclosingRequestBase, AbstractEntity, ResponseHandler, Deadline)
+     * @see #executeRequest(HttpEntityEnclosingRequestBase, Entity, ResponseHandler)
+     */
+    public <T> T executeBatched(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @Nonnull AbstractEntity requestEntity,
+            @Nonnull ResponseHandler<T> handler
+    ) throws ActionFailed {
+        // Calls not waiting for others are made from the caller's thread so they do not queue behind unrelated calls
+        if (!isBatching()) return executeWithCrumb(method, requestEntity, handler, Deadline.NONE);
+
+        return join(executeBatchedAsync(method, requestEntity, handler, Deadline.NONE));
+    }
+
+    /**
+     * Execute request the other side deduplicates, resending it in case the delivery failed.
+     *
+     * The same entity, carrying the idempotency key, is sent by all the attempts so the request is performed at most once
+     * even when it was the response that got lost.
+     *
+     * @param path Endpoint path of the operation.
+     * @see #executeBatched(HttpEntityEnclosingRequestBase, AbstractEntity, Class)
+     * @see RecentKeys
+     */
+    public <T extends AbstractEntity> T executeIdempotent(
+            @Nonnull String path,
+            @Nonnull AbstractEntity requestEntity,
+            @Nonnull final Class<T> returnType
+    ) throws ActionFailed {
+        return executeIdempotent(path, requestEntity, new Function<HttpPost, ResponseHandler<T>>() {
+            @Override public ResponseHandler<T> apply(HttpPost method) {
+                return new DefaultResponseHandler<>(method, returnType);
+            }
+        });
+    }
+
+    /**
+     * Execute request the other side deduplicates, resending it in case the delivery failed.
+     *
+     * @param path Endpoint path of the operation.
+     * @param handlerFactory Create handler for the method of every attempt.
+     * @see #executeIdempotent(String, AbstractEntity, Class)
+     */
+    public <T> T executeIdempotent(
+            @Nonnull String path,
+            @Nonnull AbstractEntity requestEntity,
+            @Nonnull Function<HttpPost, ResponseHandler<T>> handlerFactory
+    ) throws ActionFailed {
+        for (int attempt = 0; ; attempt++) {
+            HttpPost method = post(path);
+            try {
+                return executeBatched(method, requestEntity, handlerFactory.apply(method));
+            } catch (ActionFailed ex) {
+                if (attempt >= IDEMPOTENT_RETRIES || !isRetryable(ex)) throw ex;
+
+                LOGGER.log(Level.FINE, "Resending " + method + " after failed delivery", ex);
+                long delay = IDEMPOTENT_RETRY_DELAY << attempt;
+                if (ex instanceof ActionFailed.RequestFailed) {
+                    delay = Math.max(delay, ((ActionFailed.RequestFailed) ex).getRetryAfter());
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
         }
-        return _executeRequest(method, handler);
     }
 
-    @CheckForNull
-    private <T> T _executeRequest(@Nonnull HttpRequestBase method, @Nonnull ResponseHandler<T> handler) {
-        method.setConfig(REQUEST_CONFIG);
+    // Failures resending the request can help with. Requests rejected by the other side, or not attempted at all as it is
+    // considered unreachable, are not resent. Throttled requests are, once the other side permits.
+    private static boolean isRetryable(@Nonnull ActionFailed ex) {
+        if (ex instanceof ActionFailed.CircuitOpen) return false;
+        if (ex instanceof ActionFailed.RequestFailed) {
+            ActionFailed.RequestFailed failed = (ActionFailed.RequestFailed) ex;
+            return failed.getStatusCode() >= 500 || failed.isThrottled();
+        }
+        return ex instanceof ActionFailed.CommunicationError;
+    }
+
+    /**
+     * Execute HttpRequest asynchronously, possibly together with other requests to the same endpoint.
+     *
+     * @see #executeBatchedAsync(HttpEntityEnclosingRequestBase, AbstractEntity, ResponseHandler, Deadline)
+     */
+    public @Nonnull <T extends AbstractEntity> CompletableFuture<T> executeBatchedAsync(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @Nonnull AbstractEntity requestEntity,
+            @Nonnull Class<T> returnType,
+            @Nonnull Deadline deadline
+    ) {
+        return executeBatchedAsync(method, requestEntity, new DefaultResponseHandler<>(method, returnType), deadline);
+    }
+
+    /**
+     * Execute HttpRequest asynchronously, possibly together with other requests to the same endpoint.
+     *
+     * Requests made within a short window are sent in a single {@link BatchRequest} once the other side advertised it
+     * serves them. Each request is still handled by its own handler and its future completes the same way as if it was
+     * sent individually.
+     *
+     * @see #executeRequestAsync(HttpEntityEnclosingRequestBase, Entity, ResponseHandler, Deadline)
+     */
+    public @Nonnull <T> CompletableFuture<T> executeBatchedAsync(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @Nonnull AbstractEntity requestEntity,
+            @Nonnull ResponseHandler<T> handler,
+            @Nonnull Deadline deadline
+    ) {
+        if (!isBatching()) return executeRequestAsync(method, requestEntity, handler, deadline);
+
+        // Only calls of the same timeout are sent together so none is given more or less time than it would get alone
+        final int timeout = getTimeout(operationOf(method));
+        BatchedCall<T> call = new BatchedCall<>(method, requestEntity, handler, deadline);
+        List<BatchedCall<?>> full = null;
+        synchronized (batchLock) {
+            List<BatchedCall<?>> pending = pendingBatches.get(timeout);
+            if (pending == null) {
+                final List<BatchedCall<?>> batch = pending = new ArrayList<>();
+                pendingBatches.put(timeout, batch);
+                Timer.get().schedule(new Runnable() {
+                    @Override public void run() {
+                        synchronized (batchLock) {
+                            if (pendingBatches.get(timeout) != batch) return; // Sent already for being full
+                            pendingBatches.remove(timeout);
+                        }
+                        sendBatch(batch, timeout);
+                    }
+                }, BATCH_WINDOW, TimeUnit.MILLISECONDS);
+            }
+            pending.add(call);
+            if (pending.size() >= Batch.MAX_OPERATIONS) {
+                full = pending;
+                pendingBatches.remove(timeout);
+            }
+        }
+        if (full != null) {
+            sendBatch(full, timeout);
+        }
+        return call.future;
+    }
+
+    // Calls are batched once the other side serves batches, unless they are delivered through the push channel
+    private boolean isBatching() {
+        PushChannel channel = this.channel;
+        return BATCH_WINDOW > 0 && peerCapabilities.contains(AbstractEntity.CAPABILITY_BATCH)
+                && !(channel != null && channel.isConnected())
+        ;
+    }
+
+    private void sendBatch(@Nonnull final List<BatchedCall<?>> batch, final int timeout) {
+        if (batch.size() == 1) {
+            batch.get(0).sendIndividually();
+            return;
+        }
+
+        // The batch lasts until the latest deadline of its calls, the calls due earlier expire on their own
+        List<BatchRequest.Operation> operations = new ArrayList<>(batch.size());
+        Deadline maxDeadline = batch.get(0).deadline;
+        for (BatchedCall<?> call : batch) {
+            operations.add(new BatchRequest.Operation(operationOf(call.method), call.requestEntity.toString()));
+            maxDeadline = maxDeadline.max(call.deadline);
+        }
+        for (BatchedCall<?> call : batch) {
+            if (call.deadline != maxDeadline) {
+                call.expireOnDeadline();
+            }
+        }
+        AbstractEntity first = batch.get(0).requestEntity;
+        final BatchRequest request = new BatchRequest(first.getConfigRepoUrl(), first.getVersion(), operations);
+        final HttpEntityEnclosingRequestBase method = post(Batch.OPERATION);
+        final Deadline deadline = maxDeadline;
+
+        CompletableFuture.supplyAsync(new Supplier<BatchResponse>() {
+            @Override public BatchResponse get() {
+                return executeWithCrumb(
+                        method, request, new DefaultResponseHandler<>(method, BatchResponse.class), deadline, timeout
+                );
+            }
+        }, ASYNC_EXECUTOR).whenComplete(new BiConsumer<BatchResponse, Throwable>() {
+            @Override public void accept(BatchResponse response, Throwable throwable) {
+                if (throwable != null) {
+                    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                            ? throwable.getCause()
+                            : throwable
+                    ;
+                    boolean notServed = cause instanceof ActionFailed.RequestFailed
+                            && ((ActionFailed.RequestFailed) cause).getStatusCode() == 404
+                    ;
+                    for (BatchedCall<?> call : batch) {
+                        if (notServed) {
+                            call.sendIndividually(); // The other side was downgraded in the meantime
+                        } else {
+                            call.future.completeExceptionally(cause);
+                        }
+                    }
+                    return;
+                }
+
+                List<BatchResponse.Result> results = response.getResults();
+                for (int i = 0; i < batch.size(); i++) {
+                    BatchedCall<?> call = batch.get(i);
+                    if (i < results.size()) {
+                        call.complete(results.get(i));
+                    } else {
+                        call.future.completeExceptionally(new ActionFailed.ProtocolMismatch(
+                                "No result for " + call.method + " in batch of " + results.size()
+                        ));
+                    }
+                }
+            }
+        });
+    }
+
+    private static <T> T join(@Nonnull CompletableFuture<T> future) throws ActionFailed {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Request waiting to be sent in a batch.
+     */
+    private final class BatchedCall<T> {
+        private final @Nonnull HttpEntityEnclosingRequestBase method;
+        private final @Nonnull AbstractEntity requestEntity;
+        private final @Nonnull ResponseHandler<T> handler;
+        private final @Nonnull Deadline deadline;
+        private final @Nonnull CompletableFuture<T> future = new CompletableFuture<>();
+
+        private BatchedCall(
+                @Nonnull HttpEntityEnclosingRequestBase method,
+                @Nonnull AbstractEntity requestEntity,
+                @Nonnull ResponseHandler<T> handler,
+                @Nonnull Deadline deadline
+        ) {
+            this.method = method;
+            this.requestEntity = requestEntity;
+            this.handler = handler;
+            this.deadline = deadline;
+        }
+
+        private void sendIndividually() {
+            executeRequestAsync(method, requestEntity, handler, deadline).whenComplete(new BiConsumer<T, Throwable>() {
+                @Override public void accept(T value, Throwable throwable) {
+                    if (throwable == null) {
+                        future.complete(value);
+                    } else {
+                        future.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null
+                                ? throwable.getCause()
+                                : throwable
+                        );
+                    }
+                }
+            });
+        }
+
+        private void expireOnDeadline() {
+            long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+            if (remaining == Long.MAX_VALUE) return;
+
+            Timer.get().schedule(new Runnable() {
+                @Override public void run() {
+                    future.completeExceptionally(new ActionFailed.RequestTimeout(
+                            "Deadline expired before batched REST call completed: " + method, null
+                    ));
+                }
+            }, remaining, TimeUnit.MILLISECONDS);
+        }
+
+        private void complete(@Nonnull BatchResponse.Result result) {
+            try {
+                future.complete(handleResult(method, handler, result));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Let the handler process the result as if it was the response to the individual request
+    private static <T> T handleResult(
+            @Nonnull HttpRequestBase method, @Nonnull ResponseHandler<T> handler, @Nonnull BatchResponse.Result result
+    ) throws ActionFailed {
+        BasicHttpResponse response = new BasicHttpResponse(
+                HttpVersion.HTTP_1_1, result.getStatus(), EnglishReasonPhraseCatalog.INSTANCE.getReason(result.getStatus(), Locale.ENGLISH)
+        );
+        response.setEntity(new StringEntity(result.getPayload(), ContentType.APPLICATION_JSON));
+        if (result.getRetryAfter() > 0) {
+            response.setHeader("Retry-After", String.valueOf(result.getRetryAfter()));
+        }
+        try {
+            return handler.handleResponse(response);
+        } catch (IOException e) {
+            throw new ActionFailed.CommunicationError("Failed executing REST call: " + method, e);
+        }
+    }
 
-        CloseableHttpClient client = HttpClients.createSystem();
+    private static @Nonnull BatchResponse.Result awaitReply(
+            @Nonnull HttpRequestBase method, @Nonnull CompletableFuture<BatchResponse.Result> pushed, int timeout
+    ) throws ActionFailed {
         try {
-            return client.execute(method, handler, getAuthenticatingContext(method));
+            return pushed.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            pushed.cancel(false); // Not to be delivered anymore
+            throw new ActionFailed.RequestTimeout("No reply to REST call pushed: " + method, e);
+        } catch (InterruptedException e) {
+            pushed.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new ActionFailed.CommunicationError("Interrupted waiting for REST call pushed: " + method, e);
+        } catch (ExecutionException e) {
+            throw new ActionFailed.CommunicationError("Failed pushing REST call: " + method, e.getCause());
+        }
+    }
+
+    // Use cached crumb, and in case it was rejected, retry once with a fresh one
+    private <T> T executeWithCrumb(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @CheckForNull Entity requestEntity,
+            @Nonnull ResponseHandler<T> handler,
+            @Nonnull Deadline deadline
+    ) throws ActionFailed {
+        return executeWithCrumb(method, requestEntity, handler, deadline, getTimeout(operationOf(method)));
+    }
+
+    private <T> T executeWithCrumb(
+            @Nonnull HttpEntityEnclosingRequestBase method,
+            @CheckForNull Entity requestEntity,
+            @Nonnull ResponseHandler<T> handler,
+            @Nonnull Deadline deadline,
+            int timeout
+    ) throws ActionFailed {
+        PushChannel channel = this.channel;
+        if (channel != null && requestEntity != null && !deadline.isExpired()) {
+            CompletableFuture<BatchResponse.Result> pushed = channel.send(operationOf(method), requestEntity.toString());
+            // Capabilities describe the HTTP communication so they are not updated from the replies
+            if (pushed != null) return handleResult(method, handler, awaitReply(method, pushed, deadline.cap(timeout)));
+        }
+
+        Set<String> capabilities = peerCapabilities;
+        // Serialized once, sent again by the client when needed and when the crumb is rejected
+        WrappingEntity body = requestEntity == null ? null : new WrappingEntity(requestEntity, capabilities);
+
+        breaker.acquire();
+        if (capabilities.contains(AbstractEntity.CAPABILITY_BINARY)) {
+            method.setHeader("Accept", Entity.Encoding.BINARY.getContentType() + ", " + Entity.Encoding.JSON.getContentType());
+        }
+        Crumb used = getCrumb(deadline);
+        used.applyTo(method);
+        if (body != null) {
+            method.setEntity(body);
+        }
+        T out;
+        try {
+            out = _executeRequest(method, handler, timeout, deadline, true);
+        } catch (ActionFailed.ProtocolMismatch ex) {
+            forgetCapabilities(capabilities);
+            throw ex;
+        } catch (ActionFailed.RequestFailed ex) {
+            if (!ex.isCrumbRejected()) {
+                if (ex.getStatusCode() == 415) {
+                    forgetCapabilities(capabilities);
+                }
+                throw ex;
+            }
+
+            LOGGER.fine("Crumb rejected by " + method + ", retrying with a new one");
+            invalidateCrumb(used);
+            used.removeFrom(method);
+            method.reset();
+            getCrumb(deadline).applyTo(method);
+            out = _executeRequest(method, handler, timeout, deadline, true);
+        }
+
+        if (out instanceof AbstractEntity) {
+            peerCapabilities = ((AbstractEntity) out).getCapabilities();
+        }
+        return out;
+    }
+
+    // The other side was downgraded when it does not understand the request or we do not understand the response. Do not
+    // use the features until advertised again. Other failures say nothing about them.
+    private void forgetCapabilities(@Nonnull Set<String> used) {
+        if (!used.isEmpty()) {
+            peerCapabilities = Collections.emptySet();
+        }
+    }
+
+    // Operation name is the last path segment of the endpoint URL
+    private static @Nonnull String operationOf(@Nonnull HttpRequestBase method) {
+        String path = method.getURI().getPath();
+        return path == null ? "" : path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Execute the request recording the outcome of the call in the breaker.
+     *
+     * The call, permitted by the breaker once, can consist of several requests. The failure ends the call so it is always
+     * recorded, the success only when it is the last request of the call. Request rejected for the crumb is retried so it is
+     * not recorded either.
+     *
+     * @param last The request is the last one of the call when it succeeds.
+     */
+    @CheckForNull
+    private <T> T _executeRequest(
+            @Nonnull HttpRequestBase method, @Nonnull ResponseHandler<T> handler, int timeout, @Nonnull Deadline deadline, boolean last
+    ) {
+        if (deadline.isExpired()) {
+            // Not reaching the other side says nothing about its health
+            breaker.released();
+            throw new ActionFailed.RequestTimeout("Deadline expired before executing REST call: " + method, null);
+        }
+        int capped = deadline.cap(timeout);
+        try {
+            T out = transport.execute(method, creds, capped, handler);
+            if (last) {
+                breaker.succeeded();
+            }
+            return out;
         } catch (SocketTimeoutException e) {
+            if (capped < timeout) {
+                breaker.released(); // Cut short by the deadline, the other side might be just slow
+            } else {
+                breaker.failed();
+            }
             throw new ActionFailed.RequestTimeout("Failed executing REST call: " + method, e);
         } catch (IOException e) {
+            breaker.failed();
             throw new ActionFailed.CommunicationError("Failed executing REST call: " + method, e);
-        } finally {
-            try {
-                client.close();
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Unable to close HttpClient", e); // $COVERAGE-IGNORE$
+        } catch (ActionFailed.RequestFailed e) {
+            // Server errors suggest the other side is not operational, client errors are up to the caller to handle
+            if (e.getStatusCode() >= 500) {
+                breaker.failed();
+            } else if (!e.isCrumbRejected()) {
+                breaker.succeeded();
             }
+            throw e;
+        } catch (RuntimeException e) {
+            breaker.succeeded(); // Responded, though not as expected
+            throw e;
         }
     }
 
-    // https://hc.apache.org/httpcomponents-client-ga/tutorial/html/authentication.html#d5e717
-    private @Nonnull HttpClientContext getAuthenticatingContext(@Nonnull HttpRequestBase method) {
-        AuthCache authCache = new BasicAuthCache();
-        BasicScheme basicAuth = new BasicScheme();
-        authCache.put(URIUtils.extractHost(method.getURI()), basicAuth);
+    /**
+     * Get crumb to be used for the next request, fetching new one in case there is none cached or it has expired.
+     *
+     * Only one thread fetches the crumb at a time, the others wait for it outside of the monitor.
+     */
+    private @Nonnull Crumb getCrumb(@Nonnull Deadline deadline) {
+        CompletableFuture<Crumb> fetch;
+        boolean fetching = false;
+        synchronized (this) {
+            if (crumb != null && !crumb.isExpired()) return crumb;
+            if (crumbFetch == null) {
+                crumbFetch = new CompletableFuture<>();
+                fetching = true;
+            }
+            fetch = crumbFetch;
+        }
 
-        CredentialsProvider provider = new BasicCredentialsProvider();
-        provider.setCredentials(AuthScope.ANY, new org.apache.http.auth.UsernamePasswordCredentials(
-                creds.getUsername(), creds.getPassword().getPlainText()
-        ));
-        HttpClientContext context = HttpClientContext.create();
-        context.setCredentialsProvider(provider);
-        context.setAuthCache(authCache);
-        return context;
+        if (fetching) {
+            try {
+                Crumb fetched = fetchCrumb(deadline);
+                synchronized (this) {
+                    crumb = fetched;
+                    crumbFetch = null;
+                }
+                fetch.complete(fetched);
+                return fetched;
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    crumbFetch = null;
+                }
+                fetch.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        // The outcome of the fetch was recorded by the thread making it, this call has not reached the other side
+        try {
+            return fetch.get(deadline.cap(getTimeout("crumbIssuer")), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            breaker.released();
+            throw new ActionFailed.RequestTimeout("No crumb fetched from " + crumbIssuerEndpoint, e);
+        } catch (InterruptedException e) {
+            breaker.released();
+            Thread.currentThread().interrupt();
+            throw new ActionFailed.CommunicationError("Interrupted waiting for crumb from " + crumbIssuerEndpoint, e);
+        } catch (ExecutionException e) {
+            breaker.released();
+            Throwable cause = e.getCause();
+            if (cause instanceof ActionFailed) throw (ActionFailed) cause;
+            throw new ActionFailed.CommunicationError("Failed fetching crumb from " + crumbIssuerEndpoint, cause);
+        }
     }
 
-    private List<Header> getCrumbHeaders() {
-        List<Header> headers = new ArrayList<Header>();
+    private @Nonnull Crumb fetchCrumb(@Nonnull Deadline deadline) {
+        final List<Header> headers = new ArrayList<>();
         final HttpGet method = new HttpGet(crumbIssuerEndpoint);
         _executeRequest(method, new AbstractResponseHandler<CrumbResponse>(method) {
             private final List<Integer> ACCEPTED_CODES = Arrays.asList(200, 404);
@@ -255,19 +947,81 @@ public class RestEndpoint {
 
             @Override
             protected @CheckForNull CrumbResponse consumeEntity(@Nonnull HttpResponse response) throws IOException {
+                // No crumb issuer configured - remembered as a crumb with no headers
                 if (response.getStatusLine().getStatusCode() == 404) return null;
                 CrumbResponse result = createEntity(response, CrumbResponse.class);
                 if (result != null) {
                     for(Header cookie : response.getHeaders("Set-Cookie")) {
-                        headers.add(new BasicHeader("Cookie", cookie.getValue()));
+                        // Strip cookie attributes like Path or HttpOnly
+                        headers.add(new BasicHeader("Cookie", cookie.getValue().split(";", 2)[0]));
                     }
                     headers.add(new BasicHeader(result.getCrumbRequestField(), result.getCrumb()));
                 }
                 return result;
             }
-        });
+        }, getTimeout("crumbIssuer"), deadline, false);
+
+        return new Crumb(headers, System.currentTimeMillis() + CRUMB_TTL);
+    }
 
-        return headers;
+    private synchronized void invalidateCrumb(@Nonnull Crumb rejected) {
+        // Do not throw away crumb fetched by other thread in the meantime
+        if (crumb == rejected) {
+            crumb = null;
+        }
+    }
+
+    private static final String GZIP = "gzip";
+
+    /**
+     * Read entity from request body, decompressing it if sent compressed. Both encodings are accepted.
+     */
+    public static @Nonnull <T extends Entity> T readEntity(@Nonnull StaplerRequest req, @Nonnull Class<T> type) throws IOException {
+        InputStream in = req.getInputStream();
+        if (GZIP.equalsIgnoreCase(req.getHeader("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        return Entity.fromInputStream(in, type);
+    }
+
+    /**
+     * Write entity to response body, compressed and encoded in case the client accepts it.
+     */
+    public static void writeEntity(@Nonnull StaplerRequest req, @Nonnull StaplerResponse rsp, @Nonnull Entity entity) throws IOException {
+        Entity.Encoding encoding = Entity.Encoding.accepted(req.getHeader("Accept"));
+        rsp.setContentType(encoding.getContentType());
+        try (OutputStream out = rsp.getCompressedOutputStream(req)) {
+            entity.toOutputStream(out, encoding);
+        }
+    }
+
+    /**
+     * Crumb headers and session cookie used to get them. Empty when there is no crumb issuer configured.
+     */
+    private static final class Crumb {
+        private final @Nonnull List<Header> headers;
+        private final long expires;
+
+        private Crumb(@Nonnull List<Header> headers, long expires) {
+            this.headers = headers;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+
+        private void applyTo(@Nonnull HttpRequestBase method) {
+            for (Header h : headers) {
+                method.setHeader(h);
+            }
+        }
+
+        private void removeFrom(@Nonnull HttpRequestBase method) {
+            for (Header h : headers) {
+                method.removeHeaders(h.getName());
+            }
+        }
     }
 
     public static class AbstractResponseHandler<T> implements ResponseHandler<T> {
@@ -281,7 +1035,7 @@ public class RestEndpoint {
             StatusLine sl = response.getStatusLine();
             if (shouldFail(sl)) {
                 String payload = proccessErrorPayload(getPayloadAsString(response));
-                throw new ActionFailed.RequestFailed(method, response.getStatusLine(), payload);
+                throw new ActionFailed.RequestFailed(method, response.getStatusLine(), payload, getRetryAfter(response));
             }
 
             return consumeEntity(response);
@@ -309,6 +1063,17 @@ public class RestEndpoint {
             }
         }
 
+        // Only the delay in seconds is understood, not the HTTP date
+        private static long getRetryAfter(@Nonnull HttpResponse response) {
+            Header header = response.getFirstHeader("Retry-After");
+            if (header == null) return 0;
+            try {
+                return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(header.getValue().trim())));
+            } catch (NumberFormatException ex) {
+                return 0;
+            }
+        }
+
         // Clear some of the common error causes
         private @Nonnull String proccessErrorPayload(@Nonnull String payload) {
             String JENKINS_LOADING = "Please wait while Jenkins is getting ready to work";
@@ -345,35 +1110,60 @@ public class RestEndpoint {
         }
     }
 
-    // Wrap transport.Entity into HttpEntity
+    // Wrap transport.Entity into HttpEntity, serialized upfront so it is repeatable and of known length
     private static final class WrappingEntity extends AbstractHttpEntity {
 
-        private final @Nonnull Entity entity;
+        private final @Nonnull Buffer buffer = new Buffer();
 
-        private WrappingEntity(@Nonnull Entity entity) {
-            this.entity = entity;
+        private WrappingEntity(@Nonnull Entity entity, @Nonnull Set<String> capabilities) {
+            boolean compressed = capabilities.contains(AbstractEntity.CAPABILITY_GZIP);
+            Entity.Encoding encoding = capabilities.contains(AbstractEntity.CAPABILITY_BINARY)
+                    ? Entity.Encoding.BINARY
+                    : Entity.Encoding.JSON
+            ;
+            setContentType(encoding.getContentType());
+            if (compressed) {
+                setContentEncoding(GZIP);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                    entity.toOutputStream(gzip, encoding);
+                } catch (IOException e) {
+                    throw new AssertionError(e); // $COVERAGE-IGNORE$
+                }
+            } else {
+                entity.toOutputStream(buffer, encoding);
+            }
         }
 
         @Override public boolean isRepeatable() {
-            return false;
+            return true;
         }
 
         @Override public long getContentLength() {
-            return -1;
+            return buffer.size();
         }
 
-        @Override public void writeTo(OutputStream outstream) {
-            entity.toOutputStream(outstream);
+        @Override public void writeTo(OutputStream outstream) throws IOException {
+            buffer.writeTo(outstream);
+            outstream.flush();
         }
 
-        // We should not need this as presumably this is used for receiving entities only
         @Override public InputStream getContent() {
-            throw new UnsupportedOperationException(); // $COVERAGE-IGNORE$
+            return buffer.toInputStream();
         }
 
-        // We should not need this as presumably this is used for receiving entities only
         @Override public boolean isStreaming() {
-            return false; // $COVERAGE-IGNORE$
+            return false;
+        }
+    }
+
+    // Expose the buffer to read it without copying
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(512);
+        }
+
+        private @Nonnull InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
         }
     }
 }
@@ -23,7 +23,13 @@
  */
 package com.redhat.jenkins.nodesharing.transport;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Abstract entity transmitted over wire.
@@ -39,13 +45,41 @@ import javax.annotation.Nonnull;
  */
 public abstract class AbstractEntity extends Entity {
 
+    /**
+     * Sender accepts gzip compressed request bodies.
+     */
+    public static final String CAPABILITY_GZIP = "gzip";
+
+    /**
+     * Sender accepts entities in {@link Encoding#BINARY}.
+     */
+    public static final String CAPABILITY_BINARY = "binary";
+
+    /**
+     * Sender serves {@link BatchRequest}s.
+     */
+    public static final String CAPABILITY_BATCH = "batch";
+
+    /**
+     * Sender understands {@link ReportWorkloadDeltaRequest}s.
+     */
+    public static final String CAPABILITY_WORKLOAD_DELTA = "workloadDelta";
+
+    // Protocol features supported by this side, advertised with every entity sent
+    private static final Set<String> CAPABILITIES = Collections.unmodifiableSet(
+            new LinkedHashSet<>(Arrays.asList(CAPABILITY_GZIP, CAPABILITY_BINARY, CAPABILITY_BATCH, CAPABILITY_WORKLOAD_DELTA))
+    );
+
     // Fields transferred with every request
     private final @Nonnull String configRepoUrl;
     private final @Nonnull String version;
+    // Null when sent by a peer not advertising capabilities
+    private /*final*/ @CheckForNull Set<String> capabilities;
 
     public AbstractEntity(@Nonnull String configRepoUrl, @Nonnull String version) {
         this.configRepoUrl = configRepoUrl;
         this.version = version;
+        this.capabilities = CAPABILITIES;
     }
 
     @Nonnull
@@ -57,4 +91,19 @@ public abstract class AbstractEntity extends Entity {
     public String getVersion() {
         return version;
     }
+
+    /**
+     * Protocol features supported by the sender.
+     *
+     * Peers are expected to make use of optional features only after the other side have advertised them.
+     */
+    @Nonnull
+    public Set<String> getCapabilities() {
+        return capabilities == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(capabilities);
+    }
+
+    // Replace local capabilities by those of the sender when deserialized
+    /*package*/ void setCapabilities(@CheckForNull Collection<String> capabilities) {
+        this.capabilities = capabilities == null ? null : new LinkedHashSet<>(capabilities);
+    }
 }
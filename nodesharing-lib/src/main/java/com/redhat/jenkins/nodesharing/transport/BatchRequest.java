@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several operations sent in a single round trip.
+ *
+ * Operations are performed in order and each of them is answered by a {@link BatchResponse.Result} at the same index.
+ */
+public class BatchRequest extends AbstractEntity {
+    private final @Nonnull List<Operation> operations;
+
+    public BatchRequest(@Nonnull String configRepoUrl, @Nonnull String version, @Nonnull List<Operation> operations) {
+        super(configRepoUrl, version);
+        this.operations = new ArrayList<>(operations);
+    }
+
+    public @Nonnull List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Single operation, as if it was posted to endpoint of the given name.
+     */
+    public static final class Operation {
+        private final @Nonnull String name;
+        // Request entity in JSON
+        private final @Nonnull String payload;
+
+        public Operation(@Nonnull String name, @Nonnull String payload) {
+            this.name = name;
+            this.payload = payload;
+        }
+
+        public @Nonnull String getName() {
+            return name;
+        }
+
+        public @Nonnull String getPayload() {
+            return payload;
+        }
+
+        @Override public String toString() {
+            return "Operation " + name;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of {@link BatchRequest} operations in the order they ware requested.
+ */
+public class BatchResponse extends AbstractEntity {
+    private final @Nonnull List<Result> results;
+
+    public BatchResponse(@Nonnull String configRepoUrl, @Nonnull String version, @Nonnull List<Result> results) {
+        super(configRepoUrl, version);
+        this.results = new ArrayList<>(results);
+    }
+
+    public @Nonnull List<Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Outcome of a single operation, as if it was responded to individually.
+     */
+    public static final class Result {
+        // HTTP status code
+        private final int status;
+        // Response entity in JSON or error message
+        private final @Nonnull String payload;
+        // Seconds to wait before calling again advised by Retry-After header, 0 when not advised
+        private final long retryAfter;
+
+        public Result(int status, @Nonnull String payload) {
+            this(status, payload, 0);
+        }
+
+        public Result(int status, @Nonnull String payload, long retryAfter) {
+            this.status = status;
+            this.payload = payload;
+            this.retryAfter = retryAfter;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public @Nonnull String getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return Seconds the other side advised to wait before calling again, 0 if it did not.
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+
+        @Override public String toString() {
+            return "Result " + status;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact binary encoding of entities.
+ *
+ * The frame starts with {@link #MAGIC} followed by format version, varint encoded length of the body and the body itself.
+ * The body is a sequence of tagged JSON tokens, so the very same {@link TypeAdapter}s are used as for JSON. Strings are
+ * length-prefixed UTF-8, integers are zigzag varints and every field name is transferred only once per frame, further
+ * occurrences reference it by index.
+ *
+ * Readers reject frames of newer version so the version needs to be incremented on incompatible changes only, that
+ * is not when entity fields are added or removed.
+ */
+/*package*/ final class BinaryEncoding {
+
+    /**
+     * First byte of binary frame. JSON document can never start with it.
+     */
+    /*package*/ static final int MAGIC = 0x00;
+    private static final byte[] HEADER = {MAGIC, 'N', 'S'};
+    /*package*/ static final int VERSION = 1;
+
+    // Refuse to allocate buffers for frames larger than this
+    private static final int MAX_FRAME = Integer.getInteger(BinaryEncoding.class.getName() + ".MAX_FRAME", 64 * 1024 * 1024);
+
+    private static final int BEGIN_OBJECT = 1;
+    private static final int END_OBJECT = 2;
+    private static final int BEGIN_ARRAY = 3;
+    private static final int END_ARRAY = 4;
+    private static final int NAME = 5;
+    private static final int NAME_REF = 6;
+    private static final int STRING = 7;
+    private static final int LONG = 8;
+    private static final int DOUBLE = 9;
+    private static final int NUMBER = 10; // Arbitrary precision number as string
+    private static final int TRUE = 11;
+    private static final int FALSE = 12;
+    private static final int NULL = 13;
+
+    private BinaryEncoding() {}
+
+    /*package*/ static <T> void write(@Nonnull TypeAdapter<T> adapter, @Nonnull T value, @Nonnull OutputStream out) throws IOException {
+        BinaryWriter writer = new BinaryWriter();
+        writer.setSerializeNulls(false);
+        adapter.write(writer, value);
+
+        out.write(HEADER);
+        out.write(VERSION);
+        writeVarint(out, writer.buffer.size());
+        writer.buffer.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Read the frame, the {@link #MAGIC} byte is expected to be consumed already.
+     */
+    /*package*/ static @Nonnull <T> T read(@Nonnull TypeAdapter<T> adapter, @Nonnull InputStream in) throws IOException {
+        for (int i = 1; i < HEADER.length; i++) {
+            if (in.read() != HEADER[i]) throw new MalformedJsonException("Not a node-sharing binary frame");
+        }
+        int version = in.read();
+        if (version < 1 || version > VERSION) throw new JsonSyntaxException("Unsupported node-sharing binary format version " + version);
+
+        long length = readVarint(in);
+        if (length > MAX_FRAME) throw new JsonSyntaxException("Binary frame of " + length + " bytes exceeds the limit of " + MAX_FRAME);
+        byte[] body = new byte[(int) length];
+        if (in.readNBytes(body, 0, body.length) != body.length) throw new MalformedJsonException("Truncated binary frame");
+        if (in.read() != -1) throw new JsonSyntaxException("Binary frame was not fully consumed.");
+
+        BinaryReader reader = new BinaryReader(body);
+        T out = adapter.read(reader);
+        if (out == null) throw new JsonSyntaxException("There was nothing in the stream");
+        if (reader.peek() != JsonToken.END_DOCUMENT) throw new JsonSyntaxException("Binary frame was not fully consumed.");
+        return out;
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) throw new MalformedJsonException("Truncated binary frame");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new MalformedJsonException("Malformed varint");
+    }
+
+    /**
+     * Write tokens into the buffer, the underlying character writer is never used.
+     */
+    /*package*/ static final class BinaryWriter extends JsonWriter {
+        private static final Writer UNUSED = new Writer() {
+            @Override public void write(@Nonnull char[] cbuf, int off, int len) {
+                throw new AssertionError(); // $COVERAGE-IGNORE$
+            }
+            @Override public void flush() {}
+            @Override public void close() {}
+        };
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        private final Map<String, Integer> names = new HashMap<>();
+        private String deferredName;
+
+        /*package*/ BinaryWriter() {
+            super(UNUSED);
+        }
+
+        /*package*/ byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+
+        @Override public JsonWriter beginObject() {
+            return token(BEGIN_OBJECT);
+        }
+
+        @Override public JsonWriter endObject() {
+            if (deferredName != null) throw new IllegalStateException("Dangling name: " + deferredName);
+            buffer.write(END_OBJECT);
+            return this;
+        }
+
+        @Override public JsonWriter beginArray() {
+            return token(BEGIN_ARRAY);
+        }
+
+        @Override public JsonWriter endArray() {
+            buffer.write(END_ARRAY);
+            return this;
+        }
+
+        @Override public JsonWriter name(String name) {
+            Objects.requireNonNull(name, "name == null");
+            if (deferredName != null) throw new IllegalStateException("Dangling name: " + deferredName);
+            deferredName = name;
+            return this;
+        }
+
+        @Override public JsonWriter value(String value) {
+            if (value == null) return nullValue();
+            token(STRING);
+            writeString(value);
+            return this;
+        }
+
+        @Override public JsonWriter jsonValue(String value) {
+            throw new UnsupportedOperationException("Raw JSON can not be written in binary encoding");
+        }
+
+        @Override public JsonWriter nullValue() {
+            if (deferredName != null && !getSerializeNulls()) {
+                deferredName = null; // Skip the name as well
+                return this;
+            }
+            return token(NULL);
+        }
+
+        @Override public JsonWriter value(boolean value) {
+            return token(value ? TRUE : FALSE);
+        }
+
+        @Override public JsonWriter value(Boolean value) {
+            if (value == null) return nullValue();
+            return value(value.booleanValue());
+        }
+
+        @Override public JsonWriter value(float value) {
+            return value((double) value);
+        }
+
+        @Override public JsonWriter value(double value) {
+            token(DOUBLE);
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 56; i >= 0; i -= 8) {
+                buffer.write((int) (bits >>> i));
+            }
+            return this;
+        }
+
+        @Override public JsonWriter value(long value) {
+            token(LONG);
+            writeVarint((value << 1) ^ (value >> 63)); // zigzag
+            return this;
+        }
+
+        @Override public JsonWriter value(Number value) {
+            if (value == null) return nullValue();
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                return value(value.longValue());
+            }
+            if (value instanceof Double || value instanceof Float) {
+                return value(value.doubleValue());
+            }
+            if (value instanceof BigInteger || value instanceof BigDecimal) {
+                token(NUMBER);
+                writeString(value.toString());
+                return this;
+            }
+            return value(value.doubleValue());
+        }
+
+        @Override public void flush() {}
+
+        @Override public void close() {}
+
+        private JsonWriter token(int tag) {
+            if (deferredName != null) {
+                Integer index = names.get(deferredName);
+                if (index == null) {
+                    names.put(deferredName, names.size());
+                    buffer.write(NAME);
+                    writeString(deferredName);
+                } else {
+                    buffer.write(NAME_REF);
+                    writeVarint(index);
+                }
+                deferredName = null;
+            }
+            buffer.write(tag);
+            return this;
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+        }
+
+        private void writeVarint(long value) {
+            try {
+                BinaryEncoding.writeVarint(buffer, value);
+            } catch (IOException e) {
+                throw new AssertionError(e); // $COVERAGE-IGNORE$
+            }
+        }
+    }
+
+    /**
+     * Read tokens from the buffer, the underlying character reader is never used.
+     */
+    /*package*/ static final class BinaryReader extends JsonReader {
+
+        private final byte[] buf;
+        private int pos = 0;
+        private final List<String> names = new ArrayList<>();
+
+        /*package*/ BinaryReader(byte[] buf) {
+            super(Reader.nullReader());
+            this.buf = buf;
+        }
+
+        @Override public JsonToken peek() throws IOException {
+            if (pos == buf.length) return JsonToken.END_DOCUMENT;
+            switch (buf[pos]) {
+                case BEGIN_OBJECT: return JsonToken.BEGIN_OBJECT;
+                case END_OBJECT: return JsonToken.END_OBJECT;
+                case BEGIN_ARRAY: return JsonToken.BEGIN_ARRAY;
+                case END_ARRAY: return JsonToken.END_ARRAY;
+                case NAME: case NAME_REF: return JsonToken.NAME;
+                case STRING: return JsonToken.STRING;
+                case LONG: case DOUBLE: case NUMBER: return JsonToken.NUMBER;
+                case TRUE: case FALSE: return JsonToken.BOOLEAN;
+                case NULL: return JsonToken.NULL;
+                default: throw new MalformedJsonException("Unknown tag " + buf[pos] + " at " + pos);
+            }
+        }
+
+        @Override public boolean hasNext() throws IOException {
+            JsonToken token = peek();
+            return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+        }
+
+        @Override public void beginObject() throws IOException {
+            expect(JsonToken.BEGIN_OBJECT);
+            pos++;
+        }
+
+        @Override public void endObject() throws IOException {
+            expect(JsonToken.END_OBJECT);
+            pos++;
+        }
+
+        @Override public void beginArray() throws IOException {
+            expect(JsonToken.BEGIN_ARRAY);
+            pos++;
+        }
+
+        @Override public void endArray() throws IOException {
+            expect(JsonToken.END_ARRAY);
+            pos++;
+        }
+
+        @Override public String nextName() throws IOException {
+            expect(JsonToken.NAME);
+            if (buf[pos++] == NAME) {
+                String name = readString();
+                names.add(name);
+                return name;
+            }
+            long index = readVarint();
+            if (index >= names.size()) throw new MalformedJsonException("Unknown name reference " + index);
+            return names.get((int) index);
+        }
+
+        @Override public String nextString() throws IOException {
+            JsonToken token = peek();
+            if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+                throw new IllegalStateException("Expected a string but was " + token);
+            }
+            switch (buf[pos++]) {
+                case LONG: return Long.toString(readLong());
+                case DOUBLE: return Double.toString(readDouble());
+                default: return readString(); // STRING or NUMBER
+            }
+        }
+
+        @Override public boolean nextBoolean() throws IOException {
+            expect(JsonToken.BOOLEAN);
+            return buf[pos++] == TRUE;
+        }
+
+        @Override public void nextNull() throws IOException {
+            expect(JsonToken.NULL);
+            pos++;
+        }
+
+        @Override public long nextLong() throws IOException {
+            JsonToken token = peek();
+            if (token == JsonToken.NUMBER && buf[pos] == LONG) {
+                pos++;
+                return readLong();
+            }
+            if (token == JsonToken.NUMBER && buf[pos] == DOUBLE) {
+                int start = pos++;
+                double value = readDouble();
+                long result = (long) value;
+                if (result != value) {
+                    pos = start;
+                    throw new NumberFormatException("Expected a long but was " + value);
+                }
+                return result;
+            }
+            return Long.parseLong(nextString());
+        }
+
+        @Override public int nextInt() throws IOException {
+            int start = pos;
+            long value = nextLong();
+            if ((int) value != value) {
+                pos = start;
+                throw new NumberFormatException("Expected an int but was " + value);
+            }
+            return (int) value;
+        }
+
+        @Override public double nextDouble() throws IOException {
+            JsonToken token = peek();
+            if (token == JsonToken.NUMBER && buf[pos] == DOUBLE) {
+                pos++;
+                return readDouble();
+            }
+            if (token == JsonToken.NUMBER && buf[pos] == LONG) {
+                pos++;
+                return readLong();
+            }
+            return Double.parseDouble(nextString());
+        }
+
+        @Override public void skipValue() throws IOException {
+            int depth = 0;
+            do {
+                switch (peek()) {
+                    case BEGIN_OBJECT: case BEGIN_ARRAY: depth++; pos++; break;
+                    case END_OBJECT: case END_ARRAY: depth--; pos++; break;
+                    case NAME: nextName(); break;
+                    case STRING: case NUMBER: nextString(); break;
+                    case BOOLEAN: nextBoolean(); break;
+                    case NULL: nextNull(); break;
+                    case END_DOCUMENT: return;
+                }
+            } while (depth > 0);
+        }
+
+        @Override public void close() {}
+
+        @Override public String getPath() {
+            return "$";
+        }
+
+        @Override public String toString() {
+            return "BinaryReader at " + pos;
+        }
+
+        private void expect(JsonToken expected) throws IOException {
+            JsonToken token = peek();
+            if (token != expected) throw new IllegalStateException("Expected " + expected + " but was " + token + " at " + pos);
+        }
+
+        private long readLong() throws IOException {
+            long zigzag = readVarint();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private double readDouble() throws IOException {
+            ensure(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buf[pos++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        private String readString() throws IOException {
+            long length = readVarint();
+            ensure(length);
+            String value = new String(buf, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                ensure(1);
+                int b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new MalformedJsonException("Malformed varint");
+        }
+
+        private void ensure(long bytes) throws MalformedJsonException {
+            if (bytes < 0 || buf.length - pos < bytes) throw new MalformedJsonException("Truncated binary frame");
+        }
+    }
+}
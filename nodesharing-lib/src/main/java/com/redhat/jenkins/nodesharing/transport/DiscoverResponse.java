@@ -50,15 +50,27 @@ public class DiscoverResponse extends AbstractEntity {
             @Nonnull String version,
             @Nonnull String diagnosis,
             @Nonnull Collection<NodeDefinition> nodes
+    ) {
+        this(configRepoUrl, version, diagnosis, labelsOf(nodes));
+    }
+
+    /*package*/ DiscoverResponse(
+            @Nonnull String configRepoUrl,
+            @Nonnull String version,
+            @Nonnull String diagnosis,
+            @Nonnull Set<String> labels
     ) {
         super(configRepoUrl, version);
+        this.labels = Collections.unmodifiableSet(labels);
+        this.diagnosis = diagnosis;
+    }
 
+    private static @Nonnull Set<String> labelsOf(@Nonnull Collection<NodeDefinition> nodes) {
         final Set<String> labels = new HashSet<>();
         for (NodeDefinition node: nodes) {
             labels.add(node.getLabel());
         }
-        this.labels = Collections.unmodifiableSet(labels);
-        this.diagnosis = diagnosis;
+        return labels;
     }
 
     public @Nonnull Set<String> getLabels() {
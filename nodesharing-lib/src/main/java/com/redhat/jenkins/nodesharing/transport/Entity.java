@@ -24,17 +24,27 @@
 package com.redhat.jenkins.nodesharing.transport;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 
 /**
@@ -44,19 +54,70 @@ import java.nio.charset.Charset;
  */
 public abstract class Entity {
     protected static final Charset TRANSPORT_CHARSET = Charset.forName("UTF-8");
-    private static final Gson GSON = new Gson();
+    // Streaming adapters for known entities, reflection for the rest
+    private static final Gson GSON = new GsonBuilder().registerTypeAdapterFactory(EntityAdapters.FACTORY).create();
+
+    /**
+     * Format of the serialized entity.
+     */
+    public enum Encoding {
+        JSON("application/json"),
+        /**
+         * Compact binary format, to be used only when the other side advertised {@link AbstractEntity#CAPABILITY_BINARY}.
+         */
+        BINARY("application/x-node-sharing");
+
+        private final @Nonnull String contentType;
+
+        Encoding(@Nonnull String contentType) {
+            this.contentType = contentType;
+        }
+
+        public @Nonnull String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Pick the encoding based on HTTP Accept header.
+         */
+        public static @Nonnull Encoding accepted(@CheckForNull String accept) {
+            return accept != null && accept.contains(BINARY.contentType) ? BINARY : JSON;
+        }
+    }
 
     /**
      * Read entity from stream.
      *
+     * Both encodings are accepted, the one used is detected from the content.
+     *
      * @return The entity created.
      * @throws JsonIOException if there was a problem reading from the Reader.
      * @throws JsonSyntaxException if json is not a valid representation for an object of type.
      */
     public static @Nonnull <T> T fromInputStream(@Nonnull InputStream inputStream, @Nonnull Class<T> type) throws JsonSyntaxException, JsonIOException {
-        T out = GSON.fromJson(new InputStreamReader(inputStream, TRANSPORT_CHARSET), type);
-        if (out == null) throw new JsonSyntaxException("There was nothing in the stream");
-        return out;
+        TypeAdapter<T> adapter = GSON.getAdapter(type);
+        try {
+            PushbackInputStream in = new PushbackInputStream(inputStream, 1);
+            int first = in.read();
+            if (first == BinaryEncoding.MAGIC) return BinaryEncoding.read(adapter, in);
+            if (first != -1) {
+                in.unread(first);
+            }
+
+            JsonReader reader = GSON.newJsonReader(new InputStreamReader(in, TRANSPORT_CHARSET));
+            reader.setLenient(true);
+            reader.peek();
+            T out = adapter.read(reader);
+            if (out == null) throw new JsonSyntaxException("There was nothing in the stream");
+            if (reader.peek() != JsonToken.END_DOCUMENT) throw new JsonSyntaxException("JSON document was not fully consumed.");
+            return out;
+        } catch (EOFException e) {
+            throw new JsonSyntaxException("There was nothing in the stream", e);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
     }
 
     /**
@@ -74,32 +135,55 @@ public abstract class Entity {
     }
 
     /**
-     * Write entity to {@link OutputStream}.
+     * Write entity to {@link OutputStream} as JSON.
      *
      * @throws JsonIOException if there was a problem writing to the writer.
      */
     public void toOutputStream(@Nonnull OutputStream out) throws JsonIOException {
+        toOutputStream(out, Encoding.JSON);
+    }
+
+    /**
+     * Write entity to {@link OutputStream}.
+     *
+     * @throws JsonIOException if there was a problem writing to the writer.
+     */
+    public void toOutputStream(@Nonnull OutputStream out, @Nonnull Encoding encoding) throws JsonIOException {
+        TypeAdapter<Entity> adapter = getAdapter();
         try {
-            GSON.toJson(this, new PrintStream(out, false, TRANSPORT_CHARSET.name()));
-        } catch (UnsupportedEncodingException e) {
-            throw new AssertionError(e); // $COVERAGE-IGNORE$
+            if (encoding == Encoding.BINARY) {
+                BinaryEncoding.write(adapter, this, out);
+                return;
+            }
+
+            // Not closing the writer as the stream is owned by the caller
+            JsonWriter writer = GSON.newJsonWriter(new BufferedWriter(new OutputStreamWriter(out, TRANSPORT_CHARSET)));
+            adapter.write(writer, this);
+            writer.flush();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
         }
     }
 
     /**
-     * Write entity to string.
+     * Write entity to string as JSON.
      *
-     * This method delegates to {@link #toOutputStream(OutputStream)} so subclasses must only override that one if needed.
+     * The JSON is written straight to the string, not encoded to bytes and decoded back.
      *
      * @throws JsonIOException if there was a problem writing to the writer.
      */
     public @Nonnull String toString() throws JsonIOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        toOutputStream(baos);
+        StringWriter out = new StringWriter();
         try {
-            return baos.toString(TRANSPORT_CHARSET.name());
-        } catch (UnsupportedEncodingException e) {
-            throw new AssertionError(e); // $COVERAGE-IGNORE$
+            getAdapter().write(GSON.newJsonWriter(out), this);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
         }
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private @Nonnull TypeAdapter<Entity> getAdapter() {
+        return (TypeAdapter<Entity>) GSON.getAdapter(getClass());
     }
 }
@@ -0,0 +1,751 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written streaming adapters for transport entities.
+ *
+ * The adapters produce and accept the very same JSON as the reflection based serialization does so it is safe to talk
+ * to the other side using either. Entities with no adapter registered here are serialized by reflection.
+ */
+/*package*/ final class EntityAdapters implements TypeAdapterFactory {
+
+    /*package*/ static final EntityAdapters FACTORY = new EntityAdapters();
+
+    private final Map<Class<?>, TypeAdapter<?>> adapters = new HashMap<>();
+
+    private EntityAdapters() {
+        register(BatchRequest.class, new EntityAdapter<BatchRequest>() {
+            @Override void writeFields(JsonWriter out, BatchRequest value) throws IOException {
+                out.name("operations").beginArray();
+                for (BatchRequest.Operation operation : value.getOperations()) {
+                    out.beginObject()
+                            .name("name").value(operation.getName())
+                            .name("payload").value(operation.getPayload())
+                            .endObject()
+                    ;
+                }
+                out.endArray();
+                writeAbstractEntity(out, value);
+            }
+            @Override BatchRequest build(Fields f) {
+                return new BatchRequest(
+                        require(f.configRepoUrl, "configRepoUrl"),
+                        require(f.version, "version"),
+                        require(f.operations, "operations")
+                );
+            }
+        });
+        register(BatchResponse.class, new EntityAdapter<BatchResponse>() {
+            @Override void writeFields(JsonWriter out, BatchResponse value) throws IOException {
+                out.name("results").beginArray();
+                for (BatchResponse.Result result : value.getResults()) {
+                    out.beginObject()
+                            .name("status").value(result.getStatus())
+                            .name("payload").value(result.getPayload())
+                            .name("retryAfter").value(result.getRetryAfter())
+                            .endObject()
+                    ;
+                }
+                out.endArray();
+                writeAbstractEntity(out, value);
+            }
+            @Override BatchResponse build(Fields f) {
+                return new BatchResponse(
+                        require(f.configRepoUrl, "configRepoUrl"),
+                        require(f.version, "version"),
+                        require(f.results, "results")
+                );
+            }
+        });
+        register(CrumbResponse.class, new EntityAdapter<CrumbResponse>() {
+            @Override void writeFields(JsonWriter out, CrumbResponse value) throws IOException {
+                out.name("crumb").value(value.getCrumb());
+                out.name("crumbRequestField").value(value.getCrumbRequestField());
+            }
+            @Override CrumbResponse build(Fields f) {
+                return new CrumbResponse(require(f.crumb, "crumb"), require(f.crumbRequestField, "crumbRequestField"));
+            }
+        });
+        register(DiscoverRequest.class, new EntityAdapter<DiscoverRequest>() {
+            @Override void writeFields(JsonWriter out, DiscoverRequest value) throws IOException {
+                writeExecutorEntity(out, value);
+            }
+            @Override DiscoverRequest build(Fields f) {
+                return new DiscoverRequest(f.fingerprint());
+            }
+        });
+        register(DiscoverResponse.class, new EntityAdapter<DiscoverResponse>() {
+            @Override void writeFields(JsonWriter out, DiscoverResponse value) throws IOException {
+                out.name("diagnosis").value(value.getDiagnosis());
+                out.name("labels");
+                writeStrings(out, value.getLabels());
+                writeAbstractEntity(out, value);
+            }
+            @Override DiscoverResponse build(Fields f) {
+                return new DiscoverResponse(
+                        require(f.configRepoUrl, "configRepoUrl"),
+                        require(f.version, "version"),
+                        require(f.diagnosis, "diagnosis"),
+                        new LinkedHashSet<>(require(f.strings, "labels"))
+                );
+            }
+        });
+        register(NodeStatusRequest.class, new EntityAdapter<NodeStatusRequest>() {
+            @Override void writeFields(JsonWriter out, NodeStatusRequest value) throws IOException {
+                out.name("nodeName").value(value.getNodeName());
+                writeAbstractEntity(out, value);
+            }
+            @Override NodeStatusRequest build(Fields f) {
+                return new NodeStatusRequest(
+                        require(f.configRepoUrl, "configRepoUrl"),
+                        require(f.version, "version"),
+                        require(f.nodeName, "nodeName")
+                );
+            }
+        });
+        register(NodeStatusResponse.class, new EntityAdapter<NodeStatusResponse>() {
+            @Override void writeFields(JsonWriter out, NodeStatusResponse value) throws IOException {
+                out.name("nodeName").value(value.getNodeName());
+                out.name("status").value(value.getStatus().name());
+                writeExecutorEntity(out, value);
+            }
+            @Override NodeStatusResponse build(Fields f) {
+                return new NodeStatusResponse(f.fingerprint(), require(f.nodeName, "nodeName"), nodeStatus(f.status));
+            }
+        });
+        register(NodeStatusesRequest.class, new EntityAdapter<NodeStatusesRequest>() {
+            @Override void writeFields(JsonWriter out, NodeStatusesRequest value) throws IOException {
+                out.name("nodeNames");
+                writeStrings(out, value.getNodeNames());
+                writeAbstractEntity(out, value);
+            }
+            @Override NodeStatusesRequest build(Fields f) {
+                return new NodeStatusesRequest(
+                        require(f.configRepoUrl, "configRepoUrl"),
+                        require(f.version, "version"),
+                        require(f.strings, "nodeNames")
+                );
+            }
+        });
+        register(NodeStatusesResponse.class, new EntityAdapter<NodeStatusesResponse>() {
+            @Override void writeFields(JsonWriter out, NodeStatusesResponse value) throws IOException {
+                out.name("statuses").beginObject();
+                for (Map.Entry<String, NodeStatusResponse.Status> status : value.getStatuses().entrySet()) {
+                    out.name(status.getKey()).value(status.getValue().name());
+                }
+                out.endObject();
+                writeExecutorEntity(out, value);
+            }
+            @Override NodeStatusesResponse build(Fields f) {
+                return new NodeStatusesResponse(f.fingerprint(), require(f.statuses, "statuses"));
+            }
+        });
+        register(PollRequest.class, new EntityAdapter<PollRequest>() {
+            @Override void writeFields(JsonWriter out, PollRequest value) throws IOException {
+                out.name("channelId").value(value.getChannelId());
+                out.name("ack").value(value.getAck());
+                out.name("replies").beginArray();
+                for (PollRequest.Reply reply : value.getReplies()) {
+                    out.beginObject()
+                            .name("id").value(reply.getId())
+                            .name("status").value(reply.getStatus())
+                            .name("payload").value(reply.getPayload())
+                            .endObject()
+                    ;
+                }
+                out.endArray();
+                writeExecutorEntity(out, value);
+            }
+            @Override PollRequest build(Fields f) {
+                return new PollRequest(f.fingerprint(), require(f.channelId, "channelId"), f.ack, require(f.replies, "replies"));
+            }
+        });
+        register(PollResponse.class, new EntityAdapter<PollResponse>() {
+            @Override void writeFields(JsonWriter out, PollResponse value) throws IOException {
+                out.name("channelId").value(value.getChannelId());
+                out.name("messages").beginArray();
+                for (PollResponse.Message message : value.getMessages()) {
+                    out.beginObject()
+                            .name("id").value(message.getId())
+                            .name("name").value(message.getName())
+                            .name("payload").value(message.getPayload())
+                            .endObject()
+                    ;
+                }
+                out.endArray();
+                writeAbstractEntity(out, value);
+            }
+            @Override PollResponse build(Fields f) {
+                return new PollResponse(
+                        require(f.configRepoUrl, "configRepoUrl"),
+                        require(f.version, "version"),
+                        require(f.channelId, "channelId"),
+                        require(f.messages, "messages")
+                );
+            }
+        });
+        register(ReportUsageRequest.class, new EntityAdapter<ReportUsageRequest>() {
+            @Override void writeFields(JsonWriter out, ReportUsageRequest value) throws IOException {
+                writeAbstractEntity(out, value);
+            }
+            @Override ReportUsageRequest build(Fields f) {
+                return new ReportUsageRequest(require(f.configRepoUrl, "configRepoUrl"), require(f.version, "version"));
+            }
+        });
+        register(ReportUsageResponse.class, new EntityAdapter<ReportUsageResponse>() {
+            @Override void writeFields(JsonWriter out, ReportUsageResponse value) throws IOException {
+                out.name("usedNodes");
+                writeStrings(out, value.getUsedNodes());
+                writeExecutorEntity(out, value);
+            }
+            @Override ReportUsageResponse build(Fields f) {
+                return new ReportUsageResponse(f.fingerprint(), require(f.strings, "usedNodes"));
+            }
+        });
+        register(ReportWorkloadRequest.class, new EntityAdapter<ReportWorkloadRequest>() {
+            @Override void writeFields(JsonWriter out, ReportWorkloadRequest value) throws IOException {
+                out.name("workload").beginObject().name("items");
+                writeWorkloadItems(out, value.getWorkload().getItems());
+                out.endObject();
+                out.name("sequence").value(value.getSequence());
+                writeExecutorEntity(out, value);
+            }
+            @Override ReportWorkloadRequest build(Fields f) {
+                List<ReportWorkloadRequest.Workload.WorkloadItem> items = require(f.items, "workload");
+                return new ReportWorkloadRequest(
+                        f.fingerprint(), f.sequence, new ReportWorkloadRequest.Workload.WorkloadBuilder(items).build()
+                );
+            }
+        });
+        register(ReportWorkloadDeltaRequest.class, new EntityAdapter<ReportWorkloadDeltaRequest>() {
+            @Override void writeFields(JsonWriter out, ReportWorkloadDeltaRequest value) throws IOException {
+                out.name("sequence").value(value.getSequence());
+                out.name("added");
+                writeWorkloadItems(out, value.getAdded());
+                out.name("removed");
+                writeWorkloadItems(out, value.getRemoved());
+                writeExecutorEntity(out, value);
+            }
+            @Override ReportWorkloadDeltaRequest build(Fields f) {
+                return new ReportWorkloadDeltaRequest(
+                        f.fingerprint(), f.sequence, require(f.added, "added"), require(f.removed, "removed")
+                );
+            }
+        });
+        register(ReportWorkloadResponse.class, new EntityAdapter<ReportWorkloadResponse>() {
+            @Override void writeFields(JsonWriter out, ReportWorkloadResponse value) throws IOException {
+                out.name("resync").value(value.isResync());
+                writeAbstractEntity(out, value);
+            }
+            @Override ReportWorkloadResponse build(Fields f) {
+                return new ReportWorkloadResponse(require(f.configRepoUrl, "configRepoUrl"), require(f.version, "version"), f.resync);
+            }
+        });
+        register(ReturnNodeRequest.class, new EntityAdapter<ReturnNodeRequest>() {
+            @Override void writeFields(JsonWriter out, ReturnNodeRequest value) throws IOException {
+                out.name("nodeName").value(value.getNodeName());
+                out.name("status").value(value.getStatus().name());
+                out.name("message").value(value.getMessage());
+                out.name("reservationId").value(value.getReservationId());
+                out.name("idempotencyKey").value(value.getIdempotencyKey());
+                writeExecutorEntity(out, value);
+            }
+            @Override ReturnNodeRequest build(Fields f) {
+                String status = require(f.status, "status");
+                try {
+                    return new ReturnNodeRequest(
+                            f.fingerprint(), require(f.nodeName, "nodeName"), ReturnNodeRequest.Status.valueOf(status), f.message,
+                            f.reservationId, f.idempotencyKey
+                    );
+                } catch (IllegalArgumentException ex) {
+                    throw new JsonSyntaxException("Unknown status " + status, ex);
+                }
+            }
+        });
+        register(UsageEventsRequest.class, new EntityAdapter<UsageEventsRequest>() {
+            @Override void writeFields(JsonWriter out, UsageEventsRequest value) throws IOException {
+                out.name("sequence").value(value.getSequence());
+                out.name("events").beginArray();
+                for (UsageEventsRequest.Event event : value.getEvents()) {
+                    out.beginObject()
+                            .name("nodeName").value(event.getNodeName())
+                            .name("type").value(event.getType().name())
+                            .name("timestamp").value(event.getTimestamp())
+                            .endObject()
+                    ;
+                }
+                out.endArray();
+                writeExecutorEntity(out, value);
+            }
+            @Override UsageEventsRequest build(Fields f) {
+                return new UsageEventsRequest(f.fingerprint(), f.sequence, require(f.events, "events"));
+            }
+        });
+        register(UsageEventsResponse.class, new EntityAdapter<UsageEventsResponse>() {
+            @Override void writeFields(JsonWriter out, UsageEventsResponse value) throws IOException {
+                writeAbstractEntity(out, value);
+            }
+            @Override UsageEventsResponse build(Fields f) {
+                return new UsageEventsResponse(require(f.configRepoUrl, "configRepoUrl"), require(f.version, "version"));
+            }
+        });
+        register(UtilizeNodeRequest.class, new EntityAdapter<UtilizeNodeRequest>() {
+            @Override void writeFields(JsonWriter out, UtilizeNodeRequest value) throws IOException {
+                out.name("fileName").value(value.getFileName());
+                out.name("definition").value(value.getDefinition());
+                out.name("reservationId").value(value.getReservationId());
+                out.name("idempotencyKey").value(value.getIdempotencyKey());
+                writeAbstractEntity(out, value);
+            }
+            @Override UtilizeNodeRequest build(Fields f) {
+                return new UtilizeNodeRequest(
+                        require(f.configRepoUrl, "configRepoUrl"),
+                        require(f.version, "version"),
+                        require(f.fileName, "fileName"),
+                        require(f.definition, "definition"),
+                        f.reservationId,
+                        f.idempotencyKey
+                );
+            }
+        });
+        register(UtilizeNodeResponse.class, new EntityAdapter<UtilizeNodeResponse>() {
+            @Override void writeFields(JsonWriter out, UtilizeNodeResponse value) throws IOException {
+                writeExecutorEntity(out, value);
+            }
+            @Override UtilizeNodeResponse build(Fields f) {
+                return new UtilizeNodeResponse(f.fingerprint());
+            }
+        });
+    }
+
+    private <T extends Entity> void register(@Nonnull Class<T> type, @Nonnull EntityAdapter<T> adapter) {
+        adapters.put(type, adapter.nullSafe());
+    }
+
+    @Override @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        // Exact type only, subclasses are left to reflection
+        return (TypeAdapter<T>) adapters.get(type.getRawType());
+    }
+
+    /**
+     * Streaming adapter of a single entity type.
+     *
+     * Reading is done into {@link Fields} ignoring the unknown ones so the entity can be created by its constructor.
+     */
+    private static abstract class EntityAdapter<T extends Entity> extends TypeAdapter<T> {
+
+        abstract void writeFields(JsonWriter out, T value) throws IOException;
+
+        abstract T build(Fields fields) throws JsonSyntaxException;
+
+        @Override public final void write(JsonWriter out, T value) throws IOException {
+            out.beginObject();
+            writeFields(out, value);
+            out.endObject();
+        }
+
+        @Override public final T read(JsonReader in) throws IOException {
+            Fields fields = new Fields();
+            in.beginObject();
+            while (in.hasNext()) {
+                fields.read(in.nextName(), in);
+            }
+            in.endObject();
+            T entity = build(fields);
+            if (entity instanceof AbstractEntity) {
+                ((AbstractEntity) entity).setCapabilities(fields.capabilities);
+            }
+            return entity;
+        }
+    }
+
+    /**
+     * Union of the fields of all the entities.
+     */
+    private static final class Fields {
+        private String configRepoUrl;
+        private String version;
+        private String executorUrl;
+        private String crumb;
+        private String crumbRequestField;
+        private String diagnosis;
+        private String nodeName;
+        private String status;
+        private String message;
+        private String fileName;
+        private String definition;
+        private String reservationId;
+        private String idempotencyKey;
+        private List<String> strings; // labels or usedNodes
+        private List<ReportWorkloadRequest.Workload.WorkloadItem> items;
+        private List<ReportWorkloadRequest.Workload.WorkloadItem> added;
+        private List<ReportWorkloadRequest.Workload.WorkloadItem> removed;
+        private long sequence;
+        private boolean resync;
+        private List<BatchRequest.Operation> operations;
+        private List<BatchResponse.Result> results;
+        private Map<String, NodeStatusResponse.Status> statuses;
+        private String channelId;
+        private long ack;
+        private List<PollRequest.Reply> replies;
+        private List<PollResponse.Message> messages;
+        private List<UsageEventsRequest.Event> events;
+        private List<String> capabilities;
+
+        private void read(String name, JsonReader in) throws IOException {
+            switch (name) {
+                case "configRepoUrl": configRepoUrl = readString(in); break;
+                case "version": version = readString(in); break;
+                case "executorUrl": executorUrl = readString(in); break;
+                case "crumb": crumb = readString(in); break;
+                case "crumbRequestField": crumbRequestField = readString(in); break;
+                case "diagnosis": diagnosis = readString(in); break;
+                case "nodeName": nodeName = readString(in); break;
+                case "status": status = readString(in); break;
+                case "message": message = readString(in); break;
+                case "fileName": fileName = readString(in); break;
+                case "definition": definition = readString(in); break;
+                case "reservationId": reservationId = readString(in); break;
+                case "idempotencyKey": idempotencyKey = readString(in); break;
+                case "labels": case "usedNodes": case "nodeNames": strings = readStrings(in); break;
+                case "workload": items = readWorkload(in); break;
+                case "added": added = readWorkloadItems(in); break;
+                case "removed": removed = readWorkloadItems(in); break;
+                case "sequence": sequence = in.nextLong(); break;
+                case "resync": resync = in.nextBoolean(); break;
+                case "operations": operations = readOperations(in); break;
+                case "results": results = readResults(in); break;
+                case "statuses": statuses = readStatuses(in); break;
+                case "channelId": channelId = readString(in); break;
+                case "ack": ack = in.nextLong(); break;
+                case "replies": replies = readReplies(in); break;
+                case "messages": messages = readMessages(in); break;
+                case "events": events = readEvents(in); break;
+                case "capabilities": capabilities = readStrings(in); break;
+                default: in.skipValue(); // Unknown fields are ignored
+            }
+        }
+
+        private ExecutorEntity.Fingerprint fingerprint() {
+            return new ExecutorEntity.Fingerprint(
+                    require(configRepoUrl, "configRepoUrl"), require(version, "version"), require(executorUrl, "executorUrl")
+            );
+        }
+    }
+
+    private static void writeAbstractEntity(JsonWriter out, AbstractEntity value) throws IOException {
+        out.name("configRepoUrl").value(value.getConfigRepoUrl());
+        out.name("version").value(value.getVersion());
+        out.name("capabilities");
+        writeStrings(out, value.getCapabilities());
+    }
+
+    private static void writeExecutorEntity(JsonWriter out, ExecutorEntity value) throws IOException {
+        out.name("executorUrl").value(value.getExecutorUrl());
+        writeAbstractEntity(out, value);
+    }
+
+    private static void writeWorkloadItems(JsonWriter out, Collection<ReportWorkloadRequest.Workload.WorkloadItem> items) throws IOException {
+        out.beginArray();
+        for (ReportWorkloadRequest.Workload.WorkloadItem item : items) {
+            out.beginObject()
+                    .name("id").value(item.getId())
+                    .name("name").value(item.getName())
+                    .name("labelExpr").value(item.getLabelExpr())
+                    .endObject()
+            ;
+        }
+        out.endArray();
+    }
+
+    private static void writeStrings(JsonWriter out, Collection<String> strings) throws IOException {
+        out.beginArray();
+        for (String string : strings) {
+            out.value(string);
+        }
+        out.endArray();
+    }
+
+    private static @CheckForNull String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static @CheckForNull List<String> readStrings(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> strings = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            strings.add(readString(in));
+        }
+        in.endArray();
+        return strings;
+    }
+
+    private static @CheckForNull List<ReportWorkloadRequest.Workload.WorkloadItem> readWorkload(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<ReportWorkloadRequest.Workload.WorkloadItem> items = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!"items".equals(in.nextName()) || in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            items = readWorkloadItems(in);
+        }
+        in.endObject();
+        return items;
+    }
+
+    private static @CheckForNull List<ReportWorkloadRequest.Workload.WorkloadItem> readWorkloadItems(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<ReportWorkloadRequest.Workload.WorkloadItem> items = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            items.add(readWorkloadItem(in));
+        }
+        in.endArray();
+        return items;
+    }
+
+    private static @Nonnull ReportWorkloadRequest.Workload.WorkloadItem readWorkloadItem(JsonReader in) throws IOException {
+        long id = 0;
+        String name = null;
+        String labelExpr = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id": id = in.nextLong(); break;
+                case "name": name = readString(in); break;
+                case "labelExpr": labelExpr = readString(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return new ReportWorkloadRequest.Workload.WorkloadItem(id, require(name, "name"), require(labelExpr, "labelExpr"));
+    }
+
+    private static @CheckForNull List<BatchRequest.Operation> readOperations(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<BatchRequest.Operation> operations = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            String name = null;
+            String payload = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "name": name = readString(in); break;
+                    case "payload": payload = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            operations.add(new BatchRequest.Operation(require(name, "name"), require(payload, "payload")));
+        }
+        in.endArray();
+        return operations;
+    }
+
+    private static @CheckForNull List<BatchResponse.Result> readResults(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<BatchResponse.Result> results = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            int status = 0;
+            String payload = null;
+            long retryAfter = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "status": status = in.nextInt(); break;
+                    case "payload": payload = readString(in); break;
+                    case "retryAfter": retryAfter = in.nextLong(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            results.add(new BatchResponse.Result(status, require(payload, "payload"), retryAfter));
+        }
+        in.endArray();
+        return results;
+    }
+
+    private static @CheckForNull List<PollRequest.Reply> readReplies(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<PollRequest.Reply> replies = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            long id = 0;
+            int status = 0;
+            String payload = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id": id = in.nextLong(); break;
+                    case "status": status = in.nextInt(); break;
+                    case "payload": payload = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            replies.add(new PollRequest.Reply(id, status, require(payload, "payload")));
+        }
+        in.endArray();
+        return replies;
+    }
+
+    private static @CheckForNull List<PollResponse.Message> readMessages(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<PollResponse.Message> messages = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            long id = 0;
+            String name = null;
+            String payload = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id": id = in.nextLong(); break;
+                    case "name": name = readString(in); break;
+                    case "payload": payload = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            messages.add(new PollResponse.Message(id, require(name, "name"), require(payload, "payload")));
+        }
+        in.endArray();
+        return messages;
+    }
+
+    // Events of types unknown to this version are skipped
+    private static @CheckForNull List<UsageEventsRequest.Event> readEvents(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<UsageEventsRequest.Event> events = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            String nodeName = null;
+            String type = null;
+            long timestamp = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "nodeName": nodeName = readString(in); break;
+                    case "type": type = readString(in); break;
+                    case "timestamp": timestamp = in.nextLong(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            for (UsageEventsRequest.Type t : UsageEventsRequest.Type.values()) {
+                if (t.name().equals(type)) {
+                    events.add(new UsageEventsRequest.Event(require(nodeName, "nodeName"), t, timestamp));
+                    break;
+                }
+            }
+        }
+        in.endArray();
+        return events;
+    }
+
+    private static @CheckForNull Map<String, NodeStatusResponse.Status> readStatuses(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, NodeStatusResponse.Status> statuses = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String nodeName = in.nextName();
+            statuses.put(nodeName, nodeStatus(readString(in)));
+        }
+        in.endObject();
+        return statuses;
+    }
+
+    // Statuses unknown to this version are reported as invalid
+    private static @Nonnull NodeStatusResponse.Status nodeStatus(@CheckForNull String name) {
+        for (NodeStatusResponse.Status s : NodeStatusResponse.Status.values()) {
+            if (s.name().equals(name)) {
+                return s;
+            }
+        }
+        return NodeStatusResponse.Status.INVALID;
+    }
+
+    private static @Nonnull <T> T require(@CheckForNull T value, @Nonnull String name) throws JsonSyntaxException {
+        if (value == null) throw new JsonSyntaxException("Required field '" + name + "' missing");
+        return value;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Status of every node from {@link NodeStatusesRequest}.
+ */
+public class NodeStatusesResponse extends ExecutorEntity {
+    private final @Nonnull Map<String, NodeStatusResponse.Status> statuses;
+
+    public NodeStatusesResponse(
+            @Nonnull Fingerprint fingerprint,
+            @Nonnull Map<String, NodeStatusResponse.Status> statuses
+    ) {
+        super(fingerprint);
+        this.statuses = new LinkedHashMap<>(statuses);
+    }
+
+    /**
+     * @return Node status per node name, in the order the nodes ware requested.
+     */
+    public @Nonnull Map<String, NodeStatusResponse.Status> getStatuses() {
+        return Collections.unmodifiableMap(statuses);
+    }
+}
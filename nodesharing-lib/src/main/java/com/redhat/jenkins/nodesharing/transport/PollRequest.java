@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Executor asking for the calls orchestrator wants to push to it.
+ *
+ * Replies to the messages received in the previous poll are sent along. Messages up to {@link #getAck()} are
+ * acknowledged and not delivered again.
+ */
+public class PollRequest extends ExecutorEntity {
+    // Channel the executor was talking to so far, empty when connecting for the first time
+    private final @Nonnull String channelId;
+    // Id of the last message received
+    private final long ack;
+    private final @Nonnull List<Reply> replies;
+
+    public PollRequest(@Nonnull Fingerprint fingerprint, @Nonnull String channelId, long ack, @Nonnull List<Reply> replies) {
+        super(fingerprint);
+        this.channelId = channelId;
+        this.ack = ack;
+        this.replies = new ArrayList<>(replies);
+    }
+
+    public @Nonnull String getChannelId() {
+        return channelId;
+    }
+
+    public long getAck() {
+        return ack;
+    }
+
+    public @Nonnull List<Reply> getReplies() {
+        return Collections.unmodifiableList(replies);
+    }
+
+    /**
+     * Response to the pushed message, as if the call was served over HTTP.
+     */
+    public static final class Reply {
+        private final long id;
+        // HTTP status code
+        private final int status;
+        // Response entity in JSON or error message
+        private final @Nonnull String payload;
+
+        public Reply(long id, int status, @Nonnull String payload) {
+            this.id = id;
+            this.status = status;
+            this.payload = payload;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public @Nonnull String getPayload() {
+            return payload;
+        }
+
+        @Override public String toString() {
+            return "Reply " + id + ": " + status;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Calls orchestrator pushes to the polling executor.
+ *
+ * Messages are identified by ids increasing within the channel. Once the channel id changes, the orchestrator has lost
+ * the state and the numbering starts over.
+ */
+public class PollResponse extends AbstractEntity {
+    private final @Nonnull String channelId;
+    private final @Nonnull List<Message> messages;
+
+    public PollResponse(
+            @Nonnull String configRepoUrl, @Nonnull String version, @Nonnull String channelId, @Nonnull List<Message> messages
+    ) {
+        super(configRepoUrl, version);
+        this.channelId = channelId;
+        this.messages = new ArrayList<>(messages);
+    }
+
+    public @Nonnull String getChannelId() {
+        return channelId;
+    }
+
+    public @Nonnull List<Message> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * Single call, as if it was posted to endpoint of the given name.
+     */
+    public static final class Message {
+        private final long id;
+        private final @Nonnull String name;
+        // Request entity in JSON
+        private final @Nonnull String payload;
+
+        public Message(long id, @Nonnull String name, @Nonnull String payload) {
+            this.id = id;
+            this.name = name;
+            this.payload = payload;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public @Nonnull String getName() {
+            return name;
+        }
+
+        public @Nonnull String getPayload() {
+            return payload;
+        }
+
+        @Override public String toString() {
+            return "Message " + id + ": " + name;
+        }
+    }
+}
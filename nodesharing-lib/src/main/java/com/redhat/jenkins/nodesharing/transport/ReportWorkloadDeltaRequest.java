@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes in executor workload since the report with preceding sequence number.
+ *
+ * Orchestrator applies the delta only when it has seen the preceding report, it asks for full {@link ReportWorkloadRequest}
+ * otherwise.
+ *
+ * @see ReportWorkloadResponse#isResync()
+ */
+public class ReportWorkloadDeltaRequest extends ExecutorEntity {
+    private final long sequence;
+    private final @Nonnull List<ReportWorkloadRequest.Workload.WorkloadItem> added;
+    private final @Nonnull List<ReportWorkloadRequest.Workload.WorkloadItem> removed;
+
+    public ReportWorkloadDeltaRequest(
+            @Nonnull Fingerprint fingerprint,
+            long sequence,
+            @Nonnull Collection<ReportWorkloadRequest.Workload.WorkloadItem> added,
+            @Nonnull Collection<ReportWorkloadRequest.Workload.WorkloadItem> removed
+    ) {
+        super(fingerprint);
+        this.sequence = sequence;
+        this.added = new ArrayList<>(added);
+        this.removed = new ArrayList<>(removed);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return Items that entered the workload.
+     */
+    public @Nonnull List<ReportWorkloadRequest.Workload.WorkloadItem> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    /**
+     * @return Items that left the workload.
+     */
+    public @Nonnull List<ReportWorkloadRequest.Workload.WorkloadItem> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+}
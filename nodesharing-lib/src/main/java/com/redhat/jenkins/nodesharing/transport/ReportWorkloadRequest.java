@@ -13,16 +13,29 @@ import java.util.Objects;
 public class ReportWorkloadRequest extends ExecutorEntity {
 
     @Nonnull private final Workload workload;
+    private final long sequence;
 
     public ReportWorkloadRequest(@Nonnull Fingerprint fingerprint, @Nonnull Workload workload) {
+        this(fingerprint, 0, workload);
+    }
+
+    /**
+     * @param sequence Number the subsequent {@link ReportWorkloadDeltaRequest}s continue from, 0 for none.
+     */
+    public ReportWorkloadRequest(@Nonnull Fingerprint fingerprint, long sequence, @Nonnull Workload workload) {
         super(fingerprint);
         this.workload = workload;
+        this.sequence = sequence;
     }
 
     public @Nonnull Workload getWorkload() {
         return this.workload;
     }
 
+    public long getSequence() {
+        return sequence;
+    }
+
     public static final class Workload {
         private final @Nonnull List<WorkloadItem> items;
 
@@ -29,7 +29,21 @@ import javax.annotation.Nonnull;
  * @author ogondza.
  */
 public class ReportWorkloadResponse extends AbstractEntity {
+    private final boolean resync;
+
     public ReportWorkloadResponse(@Nonnull String configRepoUrl, @Nonnull String version) {
+        this(configRepoUrl, version, false);
+    }
+
+    public ReportWorkloadResponse(@Nonnull String configRepoUrl, @Nonnull String version, boolean resync) {
         super(configRepoUrl, version);
+        this.resync = resync;
+    }
+
+    /**
+     * @return true if the reported delta was not applied and full workload needs to be reported instead.
+     */
+    public boolean isResync() {
+        return resync;
     }
 }
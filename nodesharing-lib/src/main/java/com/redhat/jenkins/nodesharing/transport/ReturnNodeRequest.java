@@ -25,17 +25,31 @@ package com.redhat.jenkins.nodesharing.transport;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.util.UUID;
 
 public class ReturnNodeRequest extends ExecutorEntity {
     private final @Nonnull String nodeName;
     private final @Nonnull Status status;
     private final @CheckForNull String message;
+    // Null when the node was not utilized for an identified reservation
+    private final @CheckForNull String reservationId;
+    // Same for all the attempts to deliver the request
+    private final @CheckForNull String idempotencyKey;
 
     public ReturnNodeRequest(@Nonnull Fingerprint f, @Nonnull String nodeName, @Nonnull Status status, @CheckForNull String message) {
+        this(f, nodeName, status, message, null, UUID.randomUUID().toString());
+    }
+
+    public ReturnNodeRequest(
+            @Nonnull Fingerprint f, @Nonnull String nodeName, @Nonnull Status status, @CheckForNull String message,
+            @CheckForNull String reservationId, @CheckForNull String idempotencyKey
+    ) {
         super(f);
         this.nodeName = nodeName;
         this.status = status;
         this.message = message;
+        this.reservationId = reservationId;
+        this.idempotencyKey = idempotencyKey;
     }
 
     public @Nonnull String getNodeName() {
@@ -50,6 +64,17 @@ public class ReturnNodeRequest extends ExecutorEntity {
         return message;
     }
 
+    /**
+     * Reservation the node was utilized for.
+     */
+    public @CheckForNull String getReservationId() {
+        return reservationId;
+    }
+
+    public @CheckForNull String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
     public enum Status {
         /** When the host was used successfully. */
         OK,
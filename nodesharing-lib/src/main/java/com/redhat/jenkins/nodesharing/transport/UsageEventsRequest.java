@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing.transport;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes in the usage of shared nodes on executor, in the order they happened.
+ *
+ * Batches are numbered by a sequence so orchestrator can tell when some were lost and its view is incomplete.
+ */
+public class UsageEventsRequest extends ExecutorEntity {
+    private final long sequence;
+    private final @Nonnull List<Event> events;
+
+    public UsageEventsRequest(@Nonnull Fingerprint fingerprint, long sequence, @Nonnull List<Event> events) {
+        super(fingerprint);
+        this.sequence = sequence;
+        this.events = new ArrayList<>(events);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public @Nonnull List<Event> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    public enum Type {
+        /** Node was added to executor and connected */
+        ATTACHED(true),
+        /** Build started on the node */
+        BUSY(true),
+        /** Build completed on the node */
+        IDLE(true),
+        /** Node was removed from executor and returned to orchestrator */
+        RETURNED(false),
+        /** Node failed to connect and is being returned */
+        FAILED(false);
+
+        private final boolean used;
+
+        Type(boolean used) {
+            this.used = used;
+        }
+
+        /**
+         * @return true if the node is still used by the executor after the event.
+         */
+        public boolean isUsed() {
+            return used;
+        }
+    }
+
+    public static final class Event {
+        private final @Nonnull String nodeName;
+        private final @Nonnull Type type;
+        // Time in ms the event happened at, according to executor clock
+        private final long timestamp;
+
+        public Event(@Nonnull String nodeName, @Nonnull Type type, long timestamp) {
+            this.nodeName = nodeName;
+            this.type = type;
+            this.timestamp = timestamp;
+        }
+
+        public @Nonnull String getNodeName() {
+            return nodeName;
+        }
+
+        public @Nonnull Type getType() {
+            return type;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override public String toString() {
+            return type + " " + nodeName;
+        }
+    }
+}
@@ -25,7 +25,9 @@ package com.redhat.jenkins.nodesharing.transport;
 
 import com.redhat.jenkins.nodesharing.NodeDefinition;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import java.util.UUID;
 
 /**
  * @author ogondza.
@@ -34,11 +36,34 @@ public class UtilizeNodeRequest extends AbstractEntity {
 
     private final @Nonnull String fileName;
     private final @Nonnull String definition;
+    // Null when sent by orchestrator that does not identify reservations
+    private final @CheckForNull String reservationId;
+    // Same for all the attempts to deliver the request
+    private final @CheckForNull String idempotencyKey;
 
     public UtilizeNodeRequest(@Nonnull String configRepoUrl, @Nonnull String version, @Nonnull NodeDefinition node) {
+        this(configRepoUrl, version, node, null);
+    }
+
+    public UtilizeNodeRequest(
+            @Nonnull String configRepoUrl, @Nonnull String version, @Nonnull NodeDefinition node, @CheckForNull String reservationId
+    ) {
+        this(configRepoUrl, version, node.getDeclaringFileName(), node.getDefinition(), reservationId, UUID.randomUUID().toString());
+    }
+
+    /*package*/ UtilizeNodeRequest(@Nonnull String configRepoUrl, @Nonnull String version, @Nonnull String fileName, @Nonnull String definition) {
+        this(configRepoUrl, version, fileName, definition, null, null);
+    }
+
+    /*package*/ UtilizeNodeRequest(
+            @Nonnull String configRepoUrl, @Nonnull String version, @Nonnull String fileName, @Nonnull String definition,
+            @CheckForNull String reservationId, @CheckForNull String idempotencyKey
+    ) {
         super(configRepoUrl, version);
-        fileName = node.getDeclaringFileName();
-        definition = node.getDefinition();
+        this.fileName = fileName;
+        this.definition = definition;
+        this.reservationId = reservationId;
+        this.idempotencyKey = idempotencyKey;
     }
 
     public @Nonnull String getFileName() {
@@ -48,4 +73,15 @@ public class UtilizeNodeRequest extends AbstractEntity {
     public @Nonnull String getDefinition() {
         return definition;
     }
+
+    /**
+     * Reservation the node is utilized for.
+     */
+    public @CheckForNull String getReservationId() {
+        return reservationId;
+    }
+
+    public @CheckForNull String getIdempotencyKey() {
+        return idempotencyKey;
+    }
 }
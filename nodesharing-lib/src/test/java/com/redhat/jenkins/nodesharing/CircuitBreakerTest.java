@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private long now = 0;
+
+    private final CircuitBreaker breaker = new CircuitBreaker("https://executor.example.com/") {
+        @Override long now() {
+            return now;
+        }
+    };
+
+    @Test
+    public void openAfterConsecutiveFailures() {
+        breaker.acquire();
+        breaker.failed();
+        breaker.failed();
+        breaker.succeeded();
+        breaker.failed();
+        breaker.failed();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire();
+
+        breaker.failed();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFailFast();
+    }
+
+    @Test
+    public void probeAfterBackoff() {
+        open();
+
+        now += CircuitBreaker.getBackoff(30);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquire(); // Probe passes
+        assertFailFast(); // Others are not
+
+        breaker.succeeded();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire();
+    }
+
+    @Test
+    public void reopenWhenProbeFails() {
+        open();
+
+        now += CircuitBreaker.getBackoff(30);
+        breaker.acquire();
+        breaker.failed();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFailFast();
+    }
+
+    @Test
+    public void concurrentFailuresOpenOnce() throws Exception {
+        final int calls = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            breaker.acquire();
+            Thread thread = new Thread() {
+                @Override public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    breaker.failed();
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Backed off for the first opening only
+        now += CircuitBreaker.getBackoff(0) * 2;
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquire();
+
+        // Probe fails, the failure of a call made before it does not extend the backoff
+        breaker.failed();
+        breaker.failed();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        now += CircuitBreaker.getBackoff(1) * 2;
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void backoffGrowsWithJitter() {
+        long first = CircuitBreaker.getBackoff(0);
+        assertTrue(String.valueOf(first), first >= 2500 && first <= 5000);
+        long fourth = CircuitBreaker.getBackoff(3);
+        assertTrue(String.valueOf(fourth), fourth >= 20000 && fourth <= 40000);
+        long capped = CircuitBreaker.getBackoff(100);
+        assertTrue(String.valueOf(capped), capped >= 150000 && capped <= 300000);
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.failed();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void assertFailFast() {
+        try {
+            breaker.acquire();
+            fail();
+        } catch (ActionFailed.CircuitOpen ex) {
+            // Expected
+        }
+    }
+}
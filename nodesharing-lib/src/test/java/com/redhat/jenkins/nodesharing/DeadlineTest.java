@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeadlineTest {
+
+    @Test
+    public void unlimited() {
+        assertFalse(Deadline.NONE.isExpired());
+        assertEquals(Long.MAX_VALUE, Deadline.NONE.remaining(TimeUnit.MILLISECONDS));
+        assertEquals(42, Deadline.NONE.cap(42));
+    }
+
+    @Test
+    public void expired() {
+        Deadline deadline = Deadline.after(0, TimeUnit.MILLISECONDS);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remaining(TimeUnit.MILLISECONDS));
+        assertEquals(0, deadline.cap(42));
+    }
+
+    @Test
+    public void capTimeout() {
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        assertFalse(deadline.isExpired());
+        assertEquals(42, deadline.cap(42));
+        assertTrue(deadline.remaining(TimeUnit.MINUTES) <= 60);
+
+        deadline = Deadline.after(1, TimeUnit.SECONDS);
+        assertTrue(deadline.cap(60 * 1000) <= 1000);
+    }
+
+    @Test
+    public void minAndMax() {
+        Deadline early = Deadline.after(1, TimeUnit.MINUTES);
+        Deadline late = Deadline.after(1, TimeUnit.HOURS);
+        assertSame(early, early.min(late));
+        assertSame(early, late.min(early));
+        assertSame(late, early.max(late));
+        assertSame(late, late.max(early));
+
+        assertSame(early, Deadline.NONE.min(early));
+        assertSame(Deadline.NONE, Deadline.NONE.max(early));
+        assertSame(Deadline.NONE, early.max(Deadline.NONE));
+    }
+}
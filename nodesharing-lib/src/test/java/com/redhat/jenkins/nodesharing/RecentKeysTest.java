@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharing;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RecentKeysTest {
+
+    @Test
+    public void rememberOutcomes() {
+        RecentKeys<Integer> keys = new RecentKeys<>(10);
+        assertNull(keys.get("foo"));
+
+        keys.put("foo", 200);
+        keys.put("bar", 410);
+        assertEquals(200, (int) keys.get("foo"));
+        assertEquals(410, (int) keys.get("bar"));
+    }
+
+    @Test
+    public void ignoreMissingKeys() {
+        RecentKeys<Integer> keys = new RecentKeys<>(10);
+        keys.put(null, 200);
+        assertEquals(0, keys.size());
+        assertNull(keys.get(null));
+    }
+
+    @Test
+    public void forgetTheOldest() {
+        RecentKeys<Integer> keys = new RecentKeys<>(3);
+        for (int i = 0; i < 5; i++) {
+            keys.put("key" + i, i);
+        }
+        assertEquals(3, keys.size());
+        assertNull(keys.get("key0"));
+        assertNull(keys.get("key1"));
+        assertEquals(4, (int) keys.get("key4"));
+    }
+
+    @Test
+    public void duplicateWaitsForOutcome() throws Exception {
+        final RecentKeys<Integer> keys = new RecentKeys<>(10);
+        assertNull(keys.claim("foo"));
+        assertNull(keys.get("foo"));
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> duplicate = pool.submit(new Callable<Integer>() {
+                @Override public Integer call() throws Exception {
+                    return keys.claim("foo");
+                }
+            });
+            Thread.sleep(100);
+            assertFalse(duplicate.isDone());
+
+            keys.put("foo", 200);
+            keys.release("foo");
+            assertEquals(200, (int) duplicate.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void duplicateServesReleasedClaim() throws Exception {
+        RecentKeys<Integer> keys = new RecentKeys<>(10);
+        assertNull(keys.claim("foo"));
+        keys.release("foo");
+
+        assertNull(keys.claim("foo"));
+        keys.put("foo", 410);
+        assertEquals(410, (int) keys.claim("foo"));
+        assertNull(keys.claim(null));
+    }
+}
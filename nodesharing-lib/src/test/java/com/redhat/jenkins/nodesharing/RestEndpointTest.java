@@ -8,10 +8,19 @@ public class RestEndpointTest {
 
     static {
         System.setProperty("com.redhat.jenkins.nodesharing.RestEndpoint.TIMEOUT", "42");
+        System.setProperty("com.redhat.jenkins.nodesharing.RestEndpoint.TIMEOUT.nodeStatus", "7");
     }
 
     @Test
     public void configureTimeout() {
         assertEquals(42, RestEndpoint.TIMEOUT);
     }
+
+    @Test
+    public void configureOperationTimeout() {
+        assertEquals(7, RestEndpoint.getTimeout("nodeStatus"));
+        // Globally configured timeout takes precedence over built-in defaults
+        assertEquals(42, RestEndpoint.getTimeout("utilizeNode"));
+        assertEquals(42, RestEndpoint.getTimeout("noSuchOperation"));
+    }
 }
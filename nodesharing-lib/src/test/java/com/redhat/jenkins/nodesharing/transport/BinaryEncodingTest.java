@@ -0,0 +1,122 @@
+package com.redhat.jenkins.nodesharing.transport;
+
+import static org.junit.Assert.*;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryEncodingTest {
+
+    @Test
+    public void roundtrip() {
+        for (Entity entity : EntityAdaptersTest.samples()) {
+            Entity read = read(write(entity), entity.getClass());
+            assertEquals(entity.getClass(), read.getClass());
+            assertEquals(entity.getClass().getName(), JsonParser.parseString(entity.toString()), JsonParser.parseString(read.toString()));
+        }
+    }
+
+    @Test
+    public void compatibleWithJson() {
+        for (Entity entity : EntityAdaptersTest.samples()) {
+            // JSON -> binary -> JSON
+            Entity fromJson = Entity.fromString(entity.toString(), entity.getClass());
+            Entity fromBinary = read(write(fromJson), entity.getClass());
+            assertEquals(JsonParser.parseString(entity.toString()), JsonParser.parseString(fromBinary.toString()));
+
+            // binary -> JSON -> binary
+            fromBinary = read(write(entity), entity.getClass());
+            fromJson = Entity.fromString(fromBinary.toString(), entity.getClass());
+            assertArrayEquals(write(entity), write(fromJson));
+        }
+    }
+
+    @Test
+    public void reflectiveFallback() {
+        Entity sent = new ExtendedRequest();
+        Entity read = read(write(sent), sent.getClass());
+        assertEquals(JsonParser.parseString(sent.toString()), JsonParser.parseString(read.toString()));
+
+        // Unknown fields are skipped
+        ReportUsageRequest plain = read(write(sent), ReportUsageRequest.class);
+        assertEquals("configRepo", plain.getConfigRepoUrl());
+    }
+
+    // Subclass of known entity is serialized by reflection
+    private static final class ExtendedRequest extends ReportUsageRequest {
+        private final String extra = "unknown to the adapters";
+        private final long count = -42;
+        private final double ratio = 0.5;
+        private final boolean flag = true;
+        private final List<String> list = Arrays.asList("a", null, "c");
+
+        private ExtendedRequest() {
+            super("configRepo", "4.2");
+        }
+    }
+
+    @Test
+    public void smallerThanJson() {
+        List<ReportWorkloadRequest.Workload.WorkloadItem> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(new ReportWorkloadRequest.Workload.WorkloadItem(i, "job-" + i, "label-" + i));
+        }
+        ReportWorkloadRequest entity = new ReportWorkloadRequest(
+                new ExecutorEntity.Fingerprint("configRepo", "4.2", "my-executor"),
+                new ReportWorkloadRequest.Workload.WorkloadBuilder(items).build()
+        );
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        entity.toOutputStream(json);
+        assertTrue(write(entity).length + " < " + json.size(), write(entity).length < json.size() * 2 / 3);
+    }
+
+    @Test
+    public void rejectInvalidFrames() {
+        byte[] frame = write(new ReportUsageRequest("configRepo", "4.2"));
+
+        byte[] newer = frame.clone();
+        newer[3] = BinaryEncoding.VERSION + 1;
+        assertRejected(newer, "Unsupported node-sharing binary format version");
+
+        byte[] zero = frame.clone();
+        zero[3] = 0;
+        assertRejected(zero, "Unsupported node-sharing binary format version");
+
+        assertRejected(Arrays.copyOf(frame, frame.length - 1), "Truncated binary frame");
+
+        byte[] trailing = Arrays.copyOf(frame, frame.length + 1);
+        assertRejected(trailing, "not fully consumed");
+
+        byte[] corrupted = frame.clone();
+        corrupted[frame.length - 1] = 42; // Unknown tag in place of END_OBJECT
+        assertRejected(corrupted, "Unknown tag");
+    }
+
+    private void assertRejected(byte[] frame, String message) {
+        try {
+            read(frame, ReportUsageRequest.class);
+            fail("Frame accepted");
+        } catch (JsonSyntaxException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(message));
+        }
+    }
+
+    private static byte[] write(Entity entity) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.toOutputStream(out, Entity.Encoding.BINARY);
+        byte[] bytes = out.toByteArray();
+        assertEquals(BinaryEncoding.MAGIC, bytes[0] & 0xFF);
+        return bytes;
+    }
+
+    private static <T> T read(byte[] bytes, Class<T> type) {
+        return Entity.fromInputStream(new ByteArrayInputStream(bytes), type);
+    }
+}
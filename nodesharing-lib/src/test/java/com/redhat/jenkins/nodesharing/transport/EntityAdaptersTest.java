@@ -0,0 +1,165 @@
+package com.redhat.jenkins.nodesharing.transport;
+
+import static org.junit.Assert.*;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The streaming adapters must stay wire compatible with reflection based serialization.
+ */
+public class EntityAdaptersTest {
+
+    private static final Gson REFLECTIVE = new Gson();
+    private static final ExecutorEntity.Fingerprint FINGERPRINT = new ExecutorEntity.Fingerprint("configRepo", "4.2", "my-executor");
+
+    static List<Entity> samples() {
+        ReportWorkloadRequest.Workload workload = new ReportWorkloadRequest.Workload.WorkloadBuilder(Arrays.asList(
+                new ReportWorkloadRequest.Workload.WorkloadItem(1, "job #1", "solaris11 && !sparc"),
+                new ReportWorkloadRequest.Workload.WorkloadItem(42, "\u017e \"quoted\"", "w10")
+        )).build();
+        Map<String, NodeStatusResponse.Status> statuses = new LinkedHashMap<>();
+        statuses.put("node.acme.com", NodeStatusResponse.Status.IDLE);
+        statuses.put("other.acme.com", NodeStatusResponse.Status.NOT_FOUND);
+        return Arrays.asList(
+                new BatchRequest("configRepo", "4.2", Arrays.asList(
+                        new BatchRequest.Operation("nodeStatus", new NodeStatusRequest("configRepo", "4.2", "node.acme.com").toString()),
+                        new BatchRequest.Operation("reportUsage", new ReportUsageRequest("configRepo", "4.2").toString())
+                )),
+                new BatchResponse("configRepo", "4.2", Arrays.asList(
+                        new BatchResponse.Result(200, new UtilizeNodeResponse(FINGERPRINT).toString()),
+                        new BatchResponse.Result(410, ""),
+                        new BatchResponse.Result(429, "Too many calls", 30)
+                )),
+                new CrumbResponse("crumb-value", "Jenkins-Crumb"),
+                new DiscoverRequest(FINGERPRINT),
+                new DiscoverResponse("configRepo", "4.2", "diagnosis", new LinkedHashSet<>(Arrays.asList("a", "b"))),
+                new NodeStatusRequest("configRepo", "4.2", "node.acme.com"),
+                new NodeStatusResponse(FINGERPRINT, "node.acme.com", NodeStatusResponse.Status.BUSY),
+                new NodeStatusesRequest("configRepo", "4.2", Arrays.asList("node.acme.com", "other.acme.com")),
+                new NodeStatusesResponse(FINGERPRINT, statuses),
+                new PollRequest(FINGERPRINT, "", 0, Collections.<PollRequest.Reply>emptyList()),
+                new PollRequest(FINGERPRINT, "channel", 3, Arrays.asList(
+                        new PollRequest.Reply(2, 200, new NodeStatusResponse(FINGERPRINT, "node.acme.com", NodeStatusResponse.Status.IDLE).toString()),
+                        new PollRequest.Reply(3, 404, "No such operation: foo")
+                )),
+                new PollResponse("configRepo", "4.2", "channel", Arrays.asList(
+                        new PollResponse.Message(4, "nodeStatus", new NodeStatusRequest("configRepo", "4.2", "node.acme.com").toString()),
+                        new PollResponse.Message(5, "reportUsage", new ReportUsageRequest("configRepo", "4.2").toString())
+                )),
+                new ReportUsageRequest("configRepo", "4.2"),
+                new ReportUsageResponse(FINGERPRINT, Arrays.asList("foo", "bar")),
+                new ReportWorkloadRequest(FINGERPRINT, workload),
+                new ReportWorkloadRequest(FINGERPRINT, 7, workload),
+                new ReportWorkloadDeltaRequest(FINGERPRINT, 8, workload.getItems(), Collections.<ReportWorkloadRequest.Workload.WorkloadItem>emptyList()),
+                new ReportWorkloadResponse("configRepo", "4.2"),
+                new ReportWorkloadResponse("configRepo", "4.2", true),
+                new ReturnNodeRequest(FINGERPRINT, "node.acme.com", ReturnNodeRequest.Status.FAILED, "broken"),
+                new ReturnNodeRequest(FINGERPRINT, "node.acme.com", ReturnNodeRequest.Status.OK, null),
+                new ReturnNodeRequest(FINGERPRINT, "node.acme.com", ReturnNodeRequest.Status.OK, null, "reservation", "key"),
+                new UsageEventsRequest(FINGERPRINT, 1234567890123L, Arrays.asList(
+                        new UsageEventsRequest.Event("node.acme.com", UsageEventsRequest.Type.ATTACHED, 1500000000000L),
+                        new UsageEventsRequest.Event("node.acme.com", UsageEventsRequest.Type.RETURNED, 1500000000042L)
+                )),
+                new UsageEventsResponse("configRepo", "4.2"),
+                new UtilizeNodeRequest("configRepo", "4.2", "node.acme.com.xml", "<definition/>"),
+                new UtilizeNodeRequest("configRepo", "4.2", "node.acme.com.xml", "<definition/>", "reservation", "key"),
+                new UtilizeNodeResponse(FINGERPRINT)
+        );
+    }
+
+    @Test
+    public void writeSameAsReflection() {
+        for (Entity entity : samples()) {
+            assertEquals(entity.getClass().getName(), JsonParser.parseString(REFLECTIVE.toJson(entity)), JsonParser.parseString(entity.toString()));
+        }
+    }
+
+    @Test
+    public void readWhatReflectionWrites() {
+        for (Entity entity : samples()) {
+            Entity read = Entity.fromString(REFLECTIVE.toJson(entity), entity.getClass());
+            assertEquals(entity.getClass(), read.getClass());
+            assertEquals(REFLECTIVE.toJson(entity), REFLECTIVE.toJson(read));
+        }
+    }
+
+    @Test
+    public void ignoreUnknownFields() {
+        ReportUsageRequest read = Entity.fromString(
+                "{\"_class\":\"x\",\"nested\":{\"a\":[1,2]},\"configRepoUrl\":\"configRepo\",\"version\":\"4.2\"}",
+                ReportUsageRequest.class
+        );
+        assertEquals("configRepo", read.getConfigRepoUrl());
+        assertEquals("4.2", read.getVersion());
+    }
+
+    @Test
+    public void unknownNodeStatus() {
+        NodeStatusResponse read = Entity.fromString(
+                "{\"nodeName\":\"n\",\"status\":\"FROM_THE_FUTURE\",\"executorUrl\":\"e\",\"configRepoUrl\":\"c\",\"version\":\"v\"}",
+                NodeStatusResponse.class
+        );
+        assertEquals(NodeStatusResponse.Status.INVALID, read.getStatus());
+    }
+
+    @Test
+    public void skipUnknownUsageEvents() {
+        UsageEventsRequest read = Entity.fromString(
+                "{\"sequence\":3,\"events\":[{\"nodeName\":\"n\",\"type\":\"FROM_THE_FUTURE\",\"timestamp\":1},"
+                        + "{\"nodeName\":\"n\",\"type\":\"IDLE\",\"timestamp\":2}],"
+                        + "\"executorUrl\":\"e\",\"configRepoUrl\":\"c\",\"version\":\"v\"}",
+                UsageEventsRequest.class
+        );
+        assertEquals(3L, read.getSequence());
+        assertEquals(1, read.getEvents().size());
+        assertEquals(UsageEventsRequest.Type.IDLE, read.getEvents().get(0).getType());
+    }
+
+    @Test
+    public void rejectInvalidPayloads() {
+        for (String payload : Arrays.asList("", "  ", "{\"version\":\"4.2\"}", "[]", "{\"configRepoUrl\":\"c\",\"version\":\"v\"} {}", "{")) {
+            try {
+                Entity.fromString(payload, ReportUsageRequest.class);
+                fail("Payload accepted: '" + payload + "'");
+            } catch (JsonSyntaxException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void emptyCollections() {
+        ReportUsageResponse read = Entity.fromString(new ReportUsageResponse(FINGERPRINT, Collections.<String>emptyList()).toString(), ReportUsageResponse.class);
+        assertEquals(Collections.emptyList(), read.getUsedNodes());
+    }
+
+    @Test
+    public void capabilities() {
+        ReportUsageRequest sent = new ReportUsageRequest("configRepo", "4.2");
+        assertTrue(sent.getCapabilities().contains(AbstractEntity.CAPABILITY_GZIP));
+        assertEquals(sent.getCapabilities(), Entity.fromString(sent.toString(), ReportUsageRequest.class).getCapabilities());
+
+        // Sent by peer that does not advertise anything
+        ReportUsageRequest legacy = Entity.fromString("{\"configRepoUrl\":\"configRepo\",\"version\":\"4.2\"}", ReportUsageRequest.class);
+        assertEquals(Collections.emptySet(), legacy.getCapabilities());
+        legacy = REFLECTIVE.fromJson("{\"configRepoUrl\":\"configRepo\",\"version\":\"4.2\"}", ReportUsageRequest.class);
+        assertEquals(Collections.emptySet(), legacy.getCapabilities());
+
+        // Unknown ones are preserved
+        ReportUsageRequest future = Entity.fromString(
+                "{\"configRepoUrl\":\"configRepo\",\"version\":\"4.2\",\"capabilities\":[\"gzip\",\"teleport\"]}",
+                ReportUsageRequest.class
+        );
+        assertEquals(new LinkedHashSet<>(Arrays.asList("gzip", "teleport")), future.getCapabilities());
+    }
+}
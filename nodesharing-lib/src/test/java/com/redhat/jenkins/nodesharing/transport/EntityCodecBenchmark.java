@@ -0,0 +1,63 @@
+package com.redhat.jenkins.nodesharing.transport;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compare the streaming entity codec with reflection based Gson.
+ *
+ * Not a test, run manually: {@code mvn -pl nodesharing-lib test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.redhat.jenkins.nodesharing.transport.EntityCodecBenchmark}
+ */
+public class EntityCodecBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        Gson reflective = new Gson();
+        List<Entity> entities = new ArrayList<>(EntityAdaptersTest.samples());
+        List<ReportWorkloadRequest.Workload.WorkloadItem> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) { // Busy executor queue
+            items.add(new ReportWorkloadRequest.Workload.WorkloadItem(i, "folder/job-" + i + " #" + i, "label-" + i % 10 + " && !windows"));
+        }
+        entities.add(new ReportWorkloadRequest(
+                new ExecutorEntity.Fingerprint("configRepo", "4.2", "my-executor"),
+                new ReportWorkloadRequest.Workload.WorkloadBuilder(items).build()
+        ));
+        for (int round = 0; round < ROUNDS; round++) { // Early rounds are warmup
+            long codec = 0;
+            long reflection = 0;
+            for (Entity entity : entities) {
+                Class<? extends Entity> type = entity.getClass();
+
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    entity.toOutputStream(out);
+                    Entity.fromInputStream(new ByteArrayInputStream(out.toByteArray()), type);
+                }
+                codec += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    reflective.toJson(entity, writer);
+                    writer.flush();
+                    reflective.fromJson(new InputStreamReader(new ByteArrayInputStream(out.toByteArray()), StandardCharsets.UTF_8), type);
+                }
+                reflection += System.nanoTime() - start;
+            }
+            System.out.printf("Round %d: codec %d ms, reflection %d ms%n", round, codec / 1_000_000, reflection / 1_000_000);
+        }
+    }
+}
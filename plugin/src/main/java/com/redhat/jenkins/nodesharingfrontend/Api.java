@@ -28,20 +28,31 @@ import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.redhat.jenkins.nodesharing.ActionFailed;
+import com.redhat.jenkins.nodesharing.Batch;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
 import com.redhat.jenkins.nodesharing.NodeDefinition;
+import com.redhat.jenkins.nodesharing.RecentKeys;
 import com.redhat.jenkins.nodesharing.RestEndpoint;
+import com.redhat.jenkins.nodesharing.transport.AbstractEntity;
+import com.redhat.jenkins.nodesharing.transport.BatchRequest;
+import com.redhat.jenkins.nodesharing.transport.BatchResponse;
 import com.redhat.jenkins.nodesharing.transport.DiscoverRequest;
 import com.redhat.jenkins.nodesharing.transport.DiscoverResponse;
-import com.redhat.jenkins.nodesharing.transport.Entity;
 import com.redhat.jenkins.nodesharing.transport.ExecutorEntity;
 import com.redhat.jenkins.nodesharing.transport.NodeStatusRequest;
 import com.redhat.jenkins.nodesharing.transport.NodeStatusResponse;
+import com.redhat.jenkins.nodesharing.transport.NodeStatusesRequest;
+import com.redhat.jenkins.nodesharing.transport.NodeStatusesResponse;
+import com.redhat.jenkins.nodesharing.transport.PollRequest;
+import com.redhat.jenkins.nodesharing.transport.PollResponse;
 import com.redhat.jenkins.nodesharing.transport.ReportUsageRequest;
 import com.redhat.jenkins.nodesharing.transport.ReportUsageResponse;
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadDeltaRequest;
 import com.redhat.jenkins.nodesharing.transport.ReportWorkloadRequest;
 import com.redhat.jenkins.nodesharing.transport.ReportWorkloadResponse;
 import com.redhat.jenkins.nodesharing.transport.ReturnNodeRequest;
+import com.redhat.jenkins.nodesharing.transport.UsageEventsRequest;
+import com.redhat.jenkins.nodesharing.transport.UsageEventsResponse;
 import com.redhat.jenkins.nodesharing.transport.UtilizeNodeRequest;
 import com.redhat.jenkins.nodesharing.transport.UtilizeNodeResponse;
 import hudson.model.Computer;
@@ -51,6 +62,8 @@ import hudson.model.labels.LabelAtom;
 import hudson.security.ACL;
 import jenkins.model.Jenkins;
 import jenkins.security.NotReallyRoleSensitiveCallable;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpPost;
 import org.kohsuke.accmod.Restricted;
@@ -61,6 +74,7 @@ import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
@@ -69,7 +83,17 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
@@ -79,6 +103,17 @@ import java.util.logging.Logger;
 public class Api {
 
     private static final Logger LOGGER = Logger.getLogger(Api.class.getName());
+
+    // Status codes utilizeNode calls were answered with, so the replays do not add the node again. Shared by all the
+    // clouds as the instances are recreated when the cloud changes.
+    private static final RecentKeys<Integer> UTILIZED_NODES = new RecentKeys<>(
+            Integer.getInteger(Api.class.getName() + ".RECENT_KEYS", 1000)
+    );
+
+    // Last discover response per orchestrator and executor fingerprint. Shared by the instances as those are recreated
+    // whenever the cloud changes, including the connection tests.
+    private static final Map<String, Discovered> DISCOVERED = new ConcurrentHashMap<>();
+
     @Nonnull
     private final ExecutorEntity.Fingerprint fingerprint;
 
@@ -86,6 +121,12 @@ public class Api {
     private final RestEndpoint rest;
     private final String version;
 
+    // Workload orchestrator is known to have, null when the next report needs to be a full one
+    @GuardedBy("this")
+    private @CheckForNull Set<ReportWorkloadRequest.Workload.WorkloadItem> reportedWorkload;
+    @GuardedBy("this")
+    private long workloadSequence;
+
     public Api(@Nonnull ConfigRepo.Snapshot snapshot,
                @Nonnull String configRepoUrl,
                @Nonnull SharedNodeCloud cloud,
@@ -110,7 +151,7 @@ public class Api {
         }
 
         this.fingerprint = new ExecutorEntity.Fingerprint(configRepoUrl, version, jenkinsUrl);
-        rest = new RestEndpoint(snapshot.getOrchestratorUrl(), "node-sharing-orchestrator", getRestCredential(cloud));
+        rest = new RestEndpoint(snapshot.getOrchestratorUrl(), "node-sharing-orchestrator", getRestCredential(cloud), cloud.getTransport().get());
     }
 
     @Nonnull
@@ -132,11 +173,95 @@ public class Api {
     /**
      * Put the queue items to Orchestrator
      */
-    // Response never used as there is likely nothing to report - async request candidate
     public void reportWorkload(@Nonnull final ReportWorkloadRequest.Workload workload) {
         if (cloud.isDisabled()) return;
-        final ReportWorkloadRequest request = new ReportWorkloadRequest(fingerprint, workload);
-        rest.executeRequest(rest.post("reportWorkload"), request, ReportWorkloadResponse.class);
+        try {
+            reportWorkloadAsync(workload).join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw ex;
+        }
+    }
+
+    /**
+     * Put the queue items to Orchestrator without blocking the caller.
+     *
+     * Once orchestrator accepted the full workload and advertised it understands deltas, only the items added and removed
+     * since the last report are sent. Full workload is reported again when the delta is rejected or the last report failed.
+     *
+     * @return Future completed once delivered, with null response when the cloud is disabled.
+     */
+    public @Nonnull CompletableFuture<ReportWorkloadResponse> reportWorkloadAsync(@Nonnull final ReportWorkloadRequest.Workload workload) {
+        if (cloud.isDisabled()) return CompletableFuture.completedFuture(null);
+
+        final Set<ReportWorkloadRequest.Workload.WorkloadItem> items = new LinkedHashSet<>(workload.getItems());
+        final Set<ReportWorkloadRequest.Workload.WorkloadItem> reported;
+        final long sequence;
+        synchronized (this) {
+            reported = reportedWorkload;
+            reportedWorkload = null; // Restored once delivered
+            sequence = ++workloadSequence;
+        }
+
+        if (reported == null) return reportFullWorkload(items, sequence);
+
+        List<ReportWorkloadRequest.Workload.WorkloadItem> added = new ArrayList<>();
+        for (ReportWorkloadRequest.Workload.WorkloadItem item : items) {
+            if (!reported.contains(item)) {
+                added.add(item);
+            }
+        }
+        List<ReportWorkloadRequest.Workload.WorkloadItem> removed = new ArrayList<>();
+        for (ReportWorkloadRequest.Workload.WorkloadItem item : reported) {
+            if (!items.contains(item)) {
+                removed.add(item);
+            }
+        }
+
+        final ReportWorkloadDeltaRequest request = new ReportWorkloadDeltaRequest(fingerprint, sequence, added, removed);
+        return rest.executeRequestAsync(rest.post("reportWorkloadDelta"), request, ReportWorkloadResponse.class).thenCompose(
+                new Function<ReportWorkloadResponse, CompletableFuture<ReportWorkloadResponse>>() {
+                    @Override public CompletableFuture<ReportWorkloadResponse> apply(ReportWorkloadResponse response) {
+                        if (response.isResync()) {
+                            LOGGER.fine("Orchestrator requested full workload for cloud " + cloud.name);
+                            return reportFullWorkload(items, nextWorkloadSequence());
+                        }
+                        workloadDelivered(items, sequence);
+                        return CompletableFuture.completedFuture(response);
+                    }
+                }
+        );
+    }
+
+    private @Nonnull CompletableFuture<ReportWorkloadResponse> reportFullWorkload(
+            @Nonnull final Set<ReportWorkloadRequest.Workload.WorkloadItem> items, final long sequence
+    ) {
+        ReportWorkloadRequest.Workload workload = new ReportWorkloadRequest.Workload.WorkloadBuilder(new ArrayList<>(items)).build();
+        final ReportWorkloadRequest request = new ReportWorkloadRequest(fingerprint, sequence, workload);
+        return rest.executeRequestAsync(rest.post("reportWorkload"), request, ReportWorkloadResponse.class).thenApply(
+                new Function<ReportWorkloadResponse, ReportWorkloadResponse>() {
+                    @Override public ReportWorkloadResponse apply(ReportWorkloadResponse response) {
+                        // Older orchestrators keep receiving full workload
+                        if (response.getCapabilities().contains(AbstractEntity.CAPABILITY_WORKLOAD_DELTA)) {
+                            workloadDelivered(items, sequence);
+                        }
+                        return response;
+                    }
+                }
+        );
+    }
+
+    private synchronized long nextWorkloadSequence() {
+        return ++workloadSequence;
+    }
+
+    // Continue with deltas from here unless other report was initiated in the meantime
+    private synchronized void workloadDelivered(@Nonnull Set<ReportWorkloadRequest.Workload.WorkloadItem> items, long sequence) {
+        if (sequence == workloadSequence) {
+            reportedWorkload = items;
+        }
     }
 
     /**
@@ -149,19 +274,64 @@ public class Api {
      */
     @Nonnull
     public DiscoverResponse discover() throws ActionFailed {
-        return rest.executeRequest(
-                rest.post("discover"),
-                new DiscoverRequest(fingerprint), DiscoverResponse.class
-        );
+        DiscoverRequest request = new DiscoverRequest(fingerprint);
+        HttpPost method = rest.post("discover");
+        final String cacheKey = method.getURI() + " " + request.getConfigRepoUrl() + " " + request.getExecutorUrl() + " " + request.getVersion();
+        final Discovered cached = DISCOVERED.get(cacheKey);
+        if (cached != null) {
+            method.setHeader("If-None-Match", cached.etag);
+        }
+        DiscoverResponse response = rest.executeRequest(method, request, new RestEndpoint.AbstractResponseHandler<DiscoverResponse>(method) {
+            @Override
+            protected boolean shouldFail(@Nonnull StatusLine sl) {
+                return sl.getStatusCode() != HttpServletResponse.SC_OK
+                        && !(cached != null && sl.getStatusCode() == HttpServletResponse.SC_NOT_MODIFIED)
+                ;
+            }
+
+            @Override
+            protected @CheckForNull DiscoverResponse consumeEntity(@Nonnull HttpResponse response) throws IOException {
+                if (response.getStatusLine().getStatusCode() == HttpServletResponse.SC_NOT_MODIFIED) return null;
+
+                DiscoverResponse discovered = createEntity(response, DiscoverResponse.class);
+                Header etag = response.getFirstHeader("ETag");
+                if (etag != null) {
+                    DISCOVERED.put(cacheKey, new Discovered(etag.getValue(), discovered));
+                }
+                return discovered;
+            }
+        });
+        if (response != null) return response;
+
+        assert cached != null;
+        return cached.response;
+    }
+
+    private static final class Discovered {
+        private final @Nonnull String etag;
+        private final @Nonnull DiscoverResponse response;
+
+        private Discovered(@Nonnull String etag, @Nonnull DiscoverResponse response) {
+            this.etag = etag;
+            this.response = response;
+        }
     }
 
     /**
-     * Send request to return node. No response needed.
+     * Send request to return node once, as created by {@link #createReturnNodeRequest(SharedNode)} possibly before
+     * executor restarted.
      *
-     * Note is is expected this call is made when executor is no longer part of the grid in order to complete existing
-     * reservations.
+     * @see DurableOutbox
+     */
+    public void returnNode(@Nonnull ReturnNodeRequest request) throws ActionFailed {
+        HttpPost method = rest.post("returnNode");
+        rest.executeRequest(method, request, new ReturnNodeHandler(method));
+    }
+
+    /**
+     * Create request to return node, so it can be sent later.
      */
-    public void returnNode(@Nonnull SharedNode node) {
+    public @Nonnull ReturnNodeRequest createReturnNodeRequest(@Nonnull SharedNode node) {
         Computer computer = node.toComputer();
         String offlineCause = null;
         if (computer != null && computer.getOfflineCause() != null) {
@@ -171,19 +341,56 @@ public class Api {
                 ? ReturnNodeRequest.Status.OK
                 : ReturnNodeRequest.Status.FAILED
         ;
-        ReturnNodeRequest request = new ReturnNodeRequest(fingerprint, node.getHostName(), status, offlineCause);
+        return new ReturnNodeRequest(
+                fingerprint, node.getHostName(), status, offlineCause, node.getReservationId(), UUID.randomUUID().toString()
+        );
+    }
 
-        final HttpPost method = rest.post("returnNode");
-        rest.executeRequest(method, request, new RestEndpoint.AbstractResponseHandler<Void>(method) {
-            @Override
-            protected boolean shouldFail(@Nonnull StatusLine sl) {
-                return sl.getStatusCode() != 200 && sl.getStatusCode() != 404;
-            }
-        });
+    // Node that does not exist is as good as returned
+    private static final class ReturnNodeHandler extends RestEndpoint.AbstractResponseHandler<Void> {
+        private ReturnNodeHandler(@Nonnull HttpPost method) {
+            super(method);
+        }
+
+        @Override
+        protected boolean shouldFail(@Nonnull StatusLine sl) {
+            return sl.getStatusCode() != 200 && sl.getStatusCode() != 404;
+        }
+    }
+
+    /**
+     * Send batch of node usage changes to orchestrator without blocking the caller.
+     *
+     * @see UsageEventStream
+     */
+    public @Nonnull CompletableFuture<UsageEventsResponse> reportUsageEventsAsync(
+            long sequence, @Nonnull List<UsageEventsRequest.Event> events
+    ) {
+        UsageEventsRequest request = new UsageEventsRequest(fingerprint, sequence, events);
+        return rest.executeRequestAsync(rest.post("usageEvents"), request, UsageEventsResponse.class);
+    }
+
+    /**
+     * Wait for calls orchestrator pushes, delivering the replies to the previous ones.
+     *
+     * @param channelId Channel id orchestrator responded with last time, empty for the first poll.
+     * @param ack Id of the last message received.
+     * @param replies Replies to the messages received.
+     */
+    public @Nonnull PollResponse poll(@Nonnull String channelId, long ack, @Nonnull List<PollRequest.Reply> replies) throws ActionFailed {
+        return rest.executeRequest(rest.post("poll"), new PollRequest(fingerprint, channelId, ack, replies), PollResponse.class);
     }
 
     //// Incoming
 
+    /**
+     * Serve the call pushed by orchestrator by the very method that would serve it if received over HTTP.
+     */
+    public @Nonnull PollRequest.Reply serve(@Nonnull PollResponse.Message message) {
+        BatchResponse.Result result = Batch.perform(this, null, new BatchRequest.Operation(message.getName(), message.getPayload()));
+        return new PollRequest.Reply(message.getId(), result.getStatus(), result.getPayload());
+    }
+
     /**
      * Request to utilize reserved computer.
      *
@@ -191,58 +398,102 @@ public class Api {
      * - "200 OK" is used when the node was accepted, the node is expected to be correctly added to Jenkins by the time
      *   the request completes with the code. The code is also returned when the node is already helt by this executor.
      * - "410 Gone" when there is no longer the need for such host and orchestrator can reuse it immediately. The node must not be created.
+     *
+     * Replay of the request served already is answered with the same code, not adding the node again even if it was
+     * returned in the meantime. Replay arriving while the original request is served waits for its code.
      */
     @RequirePOST
+    @Batch.Batchable
     public void doUtilizeNode(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
         final Jenkins jenkins = Jenkins.getInstance();
         jenkins.checkPermission(RestEndpoint.RESERVE);
 
-        UtilizeNodeRequest request = Entity.fromInputStream(req.getInputStream(), UtilizeNodeRequest.class);
-        final NodeDefinition definition = NodeDefinition.create(request.getFileName(), request.getDefinition());
-        if (definition == null) throw new AssertionError("Unknown node definition: " + request.getFileName());
-
-        final String name = definition.getName();
-
-        // utilizeNode call received even though the node is already being utilized
-        Node node = getCollidingNode(jenkins, name);
-        if (node != null) {
-            new UtilizeNodeResponse(fingerprint).toOutputStream(rsp.getOutputStream());
-            rsp.setStatus(HttpServletResponse.SC_OK);
-            LOGGER.warning("Skipping node addition as it already exists");
-            return;
+        UtilizeNodeRequest request = RestEndpoint.readEntity(req, UtilizeNodeRequest.class);
+        String key = request.getIdempotencyKey();
+        Integer replayed;
+        try {
+            replayed = UTILIZED_NODES.claim(key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the original utilizeNode " + request.getFileName(), e);
         }
-
-        // Do not accept the node when there is no load for it or cloud is temporary disabled
-        if (cloud.isDisabled() || !isThereAWorkloadFor(jenkins, definition)) {
-            rsp.setStatus(HttpServletResponse.SC_GONE);
-            LOGGER.info("Skipping node addition " +
-                    (cloud.isDisabled() ? "- the cloud is temporary disabled" : "as there isn't a workload for it"));
+        if (replayed != null) {
+            LOGGER.fine("Replayed utilizeNode " + request.getFileName() + " answered with " + replayed);
+            if (replayed == HttpServletResponse.SC_OK) {
+                RestEndpoint.writeEntity(req, rsp, new UtilizeNodeResponse(fingerprint));
+            }
+            rsp.setStatus(replayed);
             return;
         }
 
         try {
-            final SharedNode newNode = cloud.createNode(definition);
-            // Prevent replacing existing node due to a race condition in repeated utilizeNode calls
-            Queue.withLock(new NotReallyRoleSensitiveCallable<Void, IOException>() {
-                @Override public Void call() throws IOException {
-                    Node node = getCollidingNode(jenkins, name);
-                    if (node == null) {
-                        jenkins.addNode(newNode);
-                    } else {
-                        LOGGER.warning("Skipping node addition due to race condition");
-                    }
-                    return null;
-                }
-            });
+            final NodeDefinition definition = NodeDefinition.create(request.getFileName(), request.getDefinition());
+            if (definition == null) throw new AssertionError("Unknown node definition: " + request.getFileName());
+
+            final String name = cloud.getNodeName(definition.getName());
+
+            // utilizeNode call received even though the node is already being utilized
+            Node node = getCollidingNode(jenkins, name);
+            if (node != null) {
+                holdFor(jenkins, node, request.getReservationId());
+                UTILIZED_NODES.put(key, HttpServletResponse.SC_OK);
+                RestEndpoint.writeEntity(req, rsp, new UtilizeNodeResponse(fingerprint));
+                rsp.setStatus(HttpServletResponse.SC_OK);
+                LOGGER.warning("Skipping node addition as it already exists");
+                return;
+            }
+
+            // Do not accept the node when there is no load for it or cloud is temporary disabled
+            if (cloud.isDisabled() || !isThereAWorkloadFor(jenkins, definition)) {
+                UTILIZED_NODES.put(key, HttpServletResponse.SC_GONE);
+                rsp.setStatus(HttpServletResponse.SC_GONE);
+                LOGGER.info("Skipping node addition " +
+                        (cloud.isDisabled() ? "- the cloud is temporary disabled" : "as there isn't a workload for it"));
+                return;
+            }
 
-            new UtilizeNodeResponse(fingerprint).toOutputStream(rsp.getOutputStream());
-            rsp.setStatus(HttpServletResponse.SC_OK);
-        } catch (IllegalArgumentException e) {
-            e.printStackTrace(new PrintStream(rsp.getOutputStream(), false, StandardCharsets.UTF_8.name()));
-            rsp.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            try {
+                final SharedNode newNode = cloud.createNode(definition);
+                newNode.setReservationId(request.getReservationId());
+                // Prevent replacing existing node due to a race condition in repeated utilizeNode calls
+                Queue.withLock(new NotReallyRoleSensitiveCallable<Void, IOException>() {
+                    @Override public Void call() throws IOException {
+                        Node node = getCollidingNode(jenkins, name);
+                        if (node == null) {
+                            jenkins.addNode(newNode);
+                        } else {
+                            holdFor(jenkins, node, newNode.getReservationId());
+                            LOGGER.warning("Skipping node addition due to race condition");
+                        }
+                        return null;
+                    }
+                });
+
+                UTILIZED_NODES.put(key, HttpServletResponse.SC_OK);
+                RestEndpoint.writeEntity(req, rsp, new UtilizeNodeResponse(fingerprint));
+                rsp.setStatus(HttpServletResponse.SC_OK);
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace(new PrintStream(rsp.getOutputStream(), false, StandardCharsets.UTF_8.name()));
+                rsp.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            }
+        } finally {
+            UTILIZED_NODES.release(key); // In case it was not served, so the replay is
         }
     }
 
+    // The node already utilized is now held for the latest reservation, so its return completes that one
+    private static void holdFor(
+            @Nonnull Jenkins jenkins, @Nonnull Node node, @CheckForNull String reservationId
+    ) throws IOException {
+        if (!(node instanceof SharedNode)) return;
+
+        SharedNode sharedNode = (SharedNode) node;
+        if (Objects.equals(sharedNode.getReservationId(), reservationId)) return;
+
+        sharedNode.setReservationId(reservationId);
+        jenkins.updateNode(sharedNode);
+    }
+
     private boolean isThereAWorkloadFor(Jenkins jenkins, NodeDefinition definition) {
         // Nothing will be executed
         if (jenkins.isQuietingDown() || jenkins.isTerminating()) {
@@ -282,23 +533,38 @@ public class Api {
      * Query Executor Jenkins to report the status of shared node.
      */
     @RequirePOST
+    @Batch.Batchable
     public void doNodeStatus(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
         Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
 
-        NodeStatusRequest request = Entity.fromInputStream(req.getInputStream(), NodeStatusRequest.class);
+        NodeStatusRequest request = RestEndpoint.readEntity(req, NodeStatusRequest.class);
         String nodeName = request.getNodeName();
         NodeStatusResponse.Status status = NodeStatusResponse.Status.NOT_FOUND;
         if (nodeName != null) // TODO Why would it be null?
             status = cloud.getNodeStatus(request.getNodeName());
         NodeStatusResponse response = new NodeStatusResponse(fingerprint, request.getNodeName(), status);
-        response.toOutputStream(rsp.getOutputStream());
+        RestEndpoint.writeEntity(req, rsp, response);
     }
 
+    /**
+     * Query status of several nodes at once.
+     */
     @RequirePOST
+    @Batch.Batchable
+    public void doNodeStatuses(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
+
+        NodeStatusesRequest request = RestEndpoint.readEntity(req, NodeStatusesRequest.class);
+        NodeStatusesResponse response = new NodeStatusesResponse(fingerprint, cloud.getNodeStatus(request.getNodeNames()));
+        RestEndpoint.writeEntity(req, rsp, response);
+    }
+
+    @RequirePOST
+    @Batch.Batchable
     public void doReportUsage(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
         Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
 
-        ReportUsageRequest request = Entity.fromInputStream(req.getInputStream(), ReportUsageRequest.class);
+        ReportUsageRequest request = RestEndpoint.readEntity(req, ReportUsageRequest.class);
         ArrayList<String> usedNodes = new ArrayList<>();
         for (Node node : Jenkins.getInstance().getNodes()) {
             if (node instanceof SharedNode) {
@@ -315,7 +581,18 @@ public class Api {
         // Schedule report workload to Orchestrator
         WorkloadReporter.Detector.getInstance().scheduleUpdate();
 
-        new ReportUsageResponse(fingerprint, usedNodes).toOutputStream(rsp.getOutputStream());
+        RestEndpoint.writeEntity(req, rsp, new ReportUsageResponse(fingerprint, usedNodes));
+    }
+
+    /**
+     * Perform several operations sent together, in order.
+     */
+    @RequirePOST
+    public void doBatch(@Nonnull final StaplerRequest req, @Nonnull final StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(RestEndpoint.RESERVE);
+
+        BatchRequest request = RestEndpoint.readEntity(req, BatchRequest.class);
+        RestEndpoint.writeEntity(req, rsp, Batch.serve(this, req, request, cloud.getConfigRepoUrl(), version));
     }
 
     /**
@@ -0,0 +1,375 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingfrontend;
+
+import com.google.gson.JsonParseException;
+import com.redhat.jenkins.nodesharing.ActionFailed;
+import com.redhat.jenkins.nodesharing.transport.Entity;
+import com.redhat.jenkins.nodesharing.transport.ReturnNodeRequest;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.triggers.SafeTimerTask;
+import hudson.util.AtomicFileWriter;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.DoNotUse;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Messages to orchestrators that must not be lost, sent in the background.
+ *
+ * Every message is appended to a journal in <tt>JENKINS_HOME/node-sharing/</tt> before it is sent and its delivery is
+ * appended once confirmed, so the messages not delivered before executor restarts are replayed from the journal. Failed
+ * deliveries are retried with exponential backoff per cloud. Messages for single cloud are delivered in order.
+ *
+ * Workload is not journaled as it is recomputed from the persisted queue and reported periodically anyway.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class DurableOutbox {
+    private static final Logger LOGGER = Logger.getLogger(DurableOutbox.class.getName());
+
+    private static final String PROPERTY_PREFIX = DurableOutbox.class.getName() + ".";
+
+    // Time in ms to wait before resending message that failed, doubled with every consecutive failure
+    private static final long RETRY_DELAY = Long.getLong(PROPERTY_PREFIX + "RETRY_DELAY", 10 * 1000);
+    // Maximal time in ms to wait before resending message that failed
+    private static final long MAX_RETRY_DELAY = Long.getLong(PROPERTY_PREFIX + "MAX_RETRY_DELAY", TimeUnit.MINUTES.toMillis(5));
+    // Number of journal records after which it is rewritten to contain the pending messages only
+    private static final int COMPACT_AFTER = 1000;
+
+    private static final String RETURN_NODE = "returnNode";
+
+    private static final String ADDED = "ADDED";
+    private static final String DELIVERED = "DELIVERED";
+
+    private final @Nonnull File journal;
+
+    // Held while sending so the message is not sent by several threads at once
+    private final @Nonnull Object sending = new Object();
+
+    @GuardedBy("this")
+    private boolean loaded;
+    @GuardedBy("this")
+    private final @Nonnull Map<Long, Message> pending = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private long lastId;
+    @GuardedBy("this")
+    private int records;
+    @GuardedBy("this")
+    private final @Nonnull Map<String, Backoff> backoffs = new HashMap<>();
+    // Time the next delivery is scheduled for, 0 if not scheduled
+    @GuardedBy("this")
+    private long scheduledAt;
+
+    public DurableOutbox() {
+        journal = new File(new File(Jenkins.getInstance().getRootDir(), "node-sharing"), "outbox.journal");
+    }
+
+    public static @Nonnull DurableOutbox getInstance() {
+        ExtensionList<DurableOutbox> list = Jenkins.getInstance().getExtensionList(DurableOutbox.class);
+        assert list.size() == 1;
+        return list.iterator().next();
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED) @Restricted(DoNotUse.class)
+    public static void replayJournal() {
+        getInstance().replay();
+    }
+
+    /**
+     * Return node to orchestrator of the cloud without waiting for it to be delivered.
+     */
+    public void returnNode(@Nonnull SharedNodeCloud cloud, @Nonnull SharedNode node) {
+        add(RETURN_NODE, cloud.name, cloud.getApi().createReturnNodeRequest(node));
+    }
+
+    /**
+     * Send messages not delivered before, as recorded in the journal.
+     */
+    public synchronized void replay() {
+        load();
+        if (!pending.isEmpty()) {
+            LOGGER.info("Replaying " + pending.size() + " undelivered messages to orchestrators");
+            schedule(0);
+        }
+    }
+
+    /**
+     * Number of messages not delivered yet.
+     */
+    public synchronized int getPendingCount() {
+        load();
+        return pending.size();
+    }
+
+    private synchronized void add(@Nonnull String operation, @Nonnull String cloudName, @Nonnull Entity entity) {
+        load();
+        Message message = new Message(++lastId, operation, cloudName, entity.toString());
+        try {
+            append(ADDED + "\t" + message.id + "\t" + operation + "\t" + cloudName + "\t" + message.payload);
+        } catch (IOException ex) {
+            // Still deliver it unless executor restarts in the meantime
+            LOGGER.log(Level.WARNING, "Unable to journal message to orchestrator", ex);
+        }
+        pending.put(message.id, message);
+        schedule(0);
+    }
+
+    @GuardedBy("this")
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!journal.exists()) return;
+
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to read journal of messages to orchestrators " + journal, ex);
+            return;
+        }
+        for (String line : lines) {
+            String[] record = line.split("\t", 5);
+            try {
+                if (ADDED.equals(record[0]) && record.length == 5) {
+                    long id = Long.parseLong(record[1]);
+                    pending.put(id, new Message(id, record[2], record[3], record[4]));
+                    lastId = Math.max(lastId, id);
+                } else if (DELIVERED.equals(record[0]) && record.length == 2) {
+                    pending.remove(Long.parseLong(record[1]));
+                } else {
+                    LOGGER.warning("Skipping malformed journal record: " + line);
+                }
+            } catch (NumberFormatException ex) {
+                // The record was not written completely when executor terminated
+                LOGGER.warning("Skipping malformed journal record: " + line);
+            }
+        }
+        records = lines.size();
+        compact();
+    }
+
+    @GuardedBy("this")
+    private void append(@Nonnull String record) throws IOException {
+        assert record.indexOf('\n') == -1: "Record spans multiple lines: " + record;
+
+        Files.createDirectories(journal.getParentFile().toPath());
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getChannel().force(false);
+        }
+        records++;
+    }
+
+    // Rewrite the journal to contain only the pending messages
+    @GuardedBy("this")
+    private void compact() {
+        try {
+            if (pending.isEmpty()) {
+                Files.deleteIfExists(journal.toPath());
+                records = 0;
+                return;
+            }
+
+            AtomicFileWriter writer = new AtomicFileWriter(journal);
+            try {
+                for (Message message : pending.values()) {
+                    writer.write(ADDED + "\t" + message.id + "\t" + message.operation + "\t" + message.cloudName + "\t" + message.payload + "\n");
+                }
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+            records = pending.size();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to compact journal of messages to orchestrators " + journal, ex);
+        }
+    }
+
+    @GuardedBy("this")
+    private void schedule(long delay) {
+        long at = System.currentTimeMillis() + delay;
+        // Already scheduled to run sooner
+        if (scheduledAt != 0 && scheduledAt <= at) return;
+
+        scheduledAt = at;
+        Timer.get().schedule(new SafeTimerTask() {
+            @Override protected void doRun() {
+                deliver();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void deliver() {
+        synchronized (sending) {
+            List<Message> messages;
+            synchronized (this) {
+                scheduledAt = 0;
+                messages = new ArrayList<>(pending.values());
+            }
+
+            Map<String, Long> failedClouds = new HashMap<>();
+            for (Message message : messages) {
+                if (failedClouds.containsKey(message.cloudName)) continue; // Keep the order
+
+                synchronized (this) {
+                    Backoff backoff = backoffs.get(message.cloudName);
+                    if (backoff != null && backoff.retryAt > System.currentTimeMillis()) continue;
+                }
+
+                long retryAfter;
+                try {
+                    retryAfter = send(message);
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Unable to send message to orchestrator of cloud " + message.cloudName, ex);
+                    retryAfter = 0;
+                }
+                if (retryAfter < 0) {
+                    delivered(message);
+                } else {
+                    failedClouds.put(message.cloudName, retryAfter);
+                }
+            }
+
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, Long> failed : failedClouds.entrySet()) {
+                    Backoff backoff = backoffs.get(failed.getKey());
+                    if (backoff == null) {
+                        backoffs.put(failed.getKey(), backoff = new Backoff());
+                    }
+                    backoff.failed(now, failed.getValue());
+                }
+
+                long next = Long.MAX_VALUE;
+                for (Message message : pending.values()) {
+                    Backoff backoff = backoffs.get(message.cloudName);
+                    next = Math.min(next, backoff == null ? now : backoff.retryAt);
+                }
+                if (next != Long.MAX_VALUE) {
+                    schedule(Math.max(0, next - now));
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the message.
+     *
+     * @return Negative number if the message is done with, or time in ms to wait before resending it, 0 when unknown.
+     */
+    private long send(@Nonnull Message message) {
+        SharedNodeCloud cloud = SharedNodeCloud.getByName(message.cloudName);
+        if (cloud == null) {
+            LOGGER.info("Dropping message to orchestrator of cloud " + message.cloudName + " that no longer exists");
+            return -1;
+        }
+        if (cloud.isDisabled()) return 0;
+
+        try {
+            if (RETURN_NODE.equals(message.operation)) {
+                cloud.getApi().returnNode(Entity.fromString(message.payload, ReturnNodeRequest.class));
+            } else {
+                LOGGER.warning("Dropping unknown message to orchestrator: " + message.operation);
+            }
+            return -1;
+        } catch (JsonParseException ex) {
+            LOGGER.log(Level.WARNING, "Dropping malformed message to orchestrator of cloud " + message.cloudName, ex);
+            return -1;
+        } catch (ActionFailed.CircuitOpen ex) {
+            return ex.getRetryAfter();
+        } catch (ActionFailed.RequestFailed ex) {
+            if (ex.getStatusCode() < 500 && !ex.isThrottled()) {
+                // Resending will not help
+                LOGGER.log(Level.WARNING, "Orchestrator of cloud " + message.cloudName + " rejected " + message.operation, ex);
+                return -1;
+            }
+            return ex.getRetryAfter();
+        } catch (ActionFailed ex) {
+            LOGGER.log(Level.FINE, "Failed sending " + message.operation + " to orchestrator of cloud " + message.cloudName, ex);
+            return 0;
+        }
+    }
+
+    private synchronized void delivered(@Nonnull Message message) {
+        backoffs.remove(message.cloudName);
+        if (pending.remove(message.id) == null) return;
+
+        if (pending.isEmpty() || records >= COMPACT_AFTER) {
+            compact();
+            return;
+        }
+        try {
+            append(DELIVERED + "\t" + message.id);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to journal delivery of message to orchestrator", ex);
+        }
+    }
+
+    private static final class Message {
+        private final long id;
+        private final @Nonnull String operation;
+        private final @Nonnull String cloudName;
+        private final @Nonnull String payload;
+
+        private Message(long id, @Nonnull String operation, @Nonnull String cloudName, @Nonnull String payload) {
+            this.id = id;
+            this.operation = operation;
+            this.cloudName = cloudName;
+            this.payload = payload;
+        }
+    }
+
+    // Consecutive failures delivering to single cloud
+    private static final class Backoff {
+        private int failures;
+        private long retryAt;
+
+        private void failed(long now, long retryAfter) {
+            long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(failures, 20));
+            failures++;
+            retryAt = now + Math.max(delay, retryAfter);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.redhat.jenkins.nodesharingfrontend;
 
+import com.redhat.jenkins.nodesharing.transport.UsageEventsRequest;
 import hudson.AbortException;
 import hudson.Extension;
 import hudson.model.Computer;
@@ -16,7 +17,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Computer listener to cleanup after failed launches.
+ * Computer listener to cleanup after failed launches and stream the node usage changes.
  */
 @Extension
 public class NodeSharingComputerListener extends ComputerListener {
@@ -32,6 +33,7 @@ public class NodeSharingComputerListener extends ComputerListener {
                     "Uncaught unexpected exception occurred while calling super.onLaunchFailed(): ", e);
         }
         if (c instanceof SharedComputer) {
+            UsageEventStream.publish(c, UsageEventsRequest.Type.FAILED);
             SharedComputer fc = (SharedComputer) c;
             ProvisioningActivity activity = CloudStatistics.get().getActivityFor(fc.getId());
             if (activity != null) {
@@ -45,6 +47,11 @@ public class NodeSharingComputerListener extends ComputerListener {
         }
     }
 
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        UsageEventStream.publish(c, UsageEventsRequest.Type.ATTACHED);
+    }
+
     // Stripping off the decoration that is not rendered anyway
     private String getLogText(Computer c) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
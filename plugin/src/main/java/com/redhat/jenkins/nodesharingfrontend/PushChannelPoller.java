@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingfrontend;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.redhat.jenkins.nodesharing.ActionFailed;
+import com.redhat.jenkins.nodesharing.transport.PollRequest;
+import com.redhat.jenkins.nodesharing.transport.PollResponse;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.model.PeriodicWork;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Poll orchestrator for the calls it pushes, for clouds configured so.
+ *
+ * Every such cloud has a thread keeping a poll request open. Pushed calls are served the same way as if received over
+ * HTTP and the replies are sent with the next poll, acknowledging the messages received. Replies are retained until the
+ * poll succeeds so they survive reconnection. Periodic run restarts the loops that ended.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class PushChannelPoller extends PeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(PushChannelPoller.class.getName());
+
+    // Time in ms to wait before polling again after a failure
+    private static final long RETRY_DELAY = Long.getLong(PushChannelPoller.class.getName() + ".RETRY_DELAY", 5 * 1000);
+    // Time in ms to wait before polling orchestrator that does not serve the channel again
+    private static final long NOT_SERVED_DELAY = 10 * MIN;
+
+    private final @Nonnull Map<String, Future<?>> loops = new ConcurrentHashMap<>();
+
+    public static @Nonnull PushChannelPoller getInstance() {
+        ExtensionList<PushChannelPoller> list = Jenkins.getInstance().getExtensionList(PushChannelPoller.class);
+        assert list.size() == 1;
+        return list.iterator().next();
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    @VisibleForTesting
+    public void doRun() {
+        for (SharedNodeCloud cloud : SharedNodeCloud.getAll()) {
+            if (!isPolling(cloud)) continue;
+
+            Future<?> loop = loops.get(cloud.name);
+            if (loop == null || loop.isDone()) {
+                LOGGER.fine("Start polling orchestrator for cloud " + cloud.name);
+                loops.put(cloud.name, Computer.threadPoolForRemoting.submit(new PollLoop(cloud.name)));
+            }
+        }
+    }
+
+    private static boolean isPolling(@Nonnull SharedNodeCloud cloud) {
+        return cloud.isPushChannel() && !cloud.isDisabled() && cloud.isActive();
+    }
+
+    // The cloud to poll for, null when polling should stop
+    private static @CheckForNull SharedNodeCloud getCloud(@Nonnull String name) {
+        if (Jenkins.getInstanceOrNull() == null) return null;
+
+        SharedNodeCloud cloud = SharedNodeCloud.getByName(name);
+        return cloud != null && isPolling(cloud) ? cloud : null;
+    }
+
+    private static final class PollLoop implements Runnable {
+        private final @Nonnull String cloudName;
+
+        private PollLoop(@Nonnull String cloudName) {
+            this.cloudName = cloudName;
+        }
+
+        @Override
+        public void run() {
+            try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                String channelId = "";
+                long ack = 0;
+                List<PollRequest.Reply> replies = Collections.emptyList();
+                SharedNodeCloud cloud;
+                while ((cloud = getCloud(cloudName)) != null) {
+                    // Recreated when cloud config changes
+                    Api api = cloud.getApi();
+                    PollResponse response;
+                    try {
+                        response = api.poll(channelId, ack, replies);
+                    } catch (ActionFailed.RequestFailed ex) {
+                        if (ex.getStatusCode() == 404) {
+                            LOGGER.info("Orchestrator of cloud " + cloudName + " does not serve push channel");
+                            Thread.sleep(NOT_SERVED_DELAY);
+                        } else {
+                            LOGGER.log(Level.WARNING, "Failed polling orchestrator of cloud " + cloudName, ex);
+                            Thread.sleep(RETRY_DELAY);
+                        }
+                        continue;
+                    } catch (ActionFailed ex) {
+                        LOGGER.log(Level.FINE, "Failed polling orchestrator of cloud " + cloudName, ex);
+                        Thread.sleep(RETRY_DELAY);
+                        continue;
+                    }
+
+                    // Orchestrator restarted, messages not replied to are gone so are the replies
+                    if (!response.getChannelId().equals(channelId)) {
+                        channelId = response.getChannelId();
+                        ack = 0;
+                    }
+                    replies = new ArrayList<>();
+                    for (PollResponse.Message message : response.getMessages()) {
+                        if (message.getId() <= ack) continue;
+
+                        replies.add(api.serve(message));
+                        ack = message.getId();
+                    }
+                }
+                LOGGER.fine("Stop polling orchestrator for cloud " + cloudName);
+            } catch (InterruptedException ex) {
+                LOGGER.fine("Polling orchestrator for cloud " + cloudName + " interrupted");
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Polling orchestrator for cloud " + cloudName + " failed", ex);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.redhat.jenkins.nodesharingfrontend;
 
+import com.redhat.jenkins.nodesharing.transport.UsageEventsRequest;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.FilePath;
@@ -57,6 +58,9 @@ public class SharedNode extends AbstractCloudSlave implements EphemeralNode, Tra
     @Nonnull
     private String hostname;
 
+    // Orchestrator reservation the node is utilized for, null if not identified by orchestrator
+    private @CheckForNull String reservationId;
+
     // Never used, the class is always created from NodeDefinition. See: SharedNodeCloud#createNode()
     @Restricted(DoNotUse.class)
     private SharedNode(
@@ -138,7 +142,8 @@ public class SharedNode extends AbstractCloudSlave implements EphemeralNode, Tra
                     logSlave("Wipeout procedure failed - Unexpected Throwable occurred during wipeout workspace content!\n" + t);
                 }
             } // skipWipeout
-            cloud.getApi().returnNode(this);
+            UsageEventStream.publish(this, UsageEventsRequest.Type.RETURNED);
+            DurableOutbox.getInstance().returnNode(cloud, this);
         }
     }
 
@@ -155,6 +160,14 @@ public class SharedNode extends AbstractCloudSlave implements EphemeralNode, Tra
         return hostname;
     }
 
+    public @CheckForNull String getReservationId() {
+        return reservationId;
+    }
+
+    /*package*/ void setReservationId(@CheckForNull String reservationId) {
+        this.reservationId = reservationId;
+    }
+
     @Override
     @Nonnull
     public ProvisioningActivity.Id getId() {
@@ -5,6 +5,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.redhat.jenkins.nodesharing.ConfigRepo;
 import com.redhat.jenkins.nodesharing.ConfigRepoAdminMonitor;
 import com.redhat.jenkins.nodesharing.ExecutorJenkins;
+import com.redhat.jenkins.nodesharing.HttpTransport;
 import com.redhat.jenkins.nodesharing.NodeDefinition;
 import com.redhat.jenkins.nodesharing.RestEndpoint;
 import com.redhat.jenkins.nodesharing.TaskLog;
@@ -12,6 +13,7 @@ import com.redhat.jenkins.nodesharing.transport.DiscoverResponse;
 import com.redhat.jenkins.nodesharing.transport.NodeStatusResponse;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
+import hudson.Util;
 import hudson.FilePath;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
@@ -44,6 +46,9 @@ import javax.servlet.ServletException;
 import jenkins.model.Jenkins;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -56,6 +61,7 @@ import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
@@ -82,6 +88,13 @@ public class SharedNodeCloud extends Cloud {
     /** True if cloud is temporary disabled -> not operational */
     private boolean disabled;
 
+    /** HTTP transport to talk to orchestrator, null for the default */
+    @CheckForNull
+    private HttpTransport.Implementation transport;
+
+    /** True if orchestrator is polled for the calls it has for this executor */
+    private boolean pushChannel;
+
     /** DELETED - The id of the ssh credentials for hosts. */
     @Deprecated private transient String sshCredentialsId;
 
@@ -185,6 +198,29 @@ public class SharedNodeCloud extends Cloud {
         return orchestratorCredentialsId;
     }
 
+    @Nonnull
+    public HttpTransport.Implementation getTransport() {
+        return transport == null ? HttpTransport.Implementation.APACHE : transport;
+    }
+
+    @DataBoundSetter
+    public void setTransport(@CheckForNull HttpTransport.Implementation transport) {
+        this.transport = transport == HttpTransport.Implementation.APACHE ? null : transport;
+        this.api = null;
+    }
+
+    public boolean isPushChannel() {
+        return pushChannel;
+    }
+
+    /**
+     * Poll orchestrator for its calls instead of receiving them over HTTP, see {@link PushChannelPoller}.
+     */
+    @DataBoundSetter
+    public void setPushChannel(boolean pushChannel) {
+        this.pushChannel = pushChannel;
+    }
+
     @Nonnull
     private ConfigRepo getConfigRepo() {
         synchronized (this) { // Prevent several ConfigRepo instances to be created over same directory
@@ -278,8 +314,35 @@ public class SharedNodeCloud extends Cloud {
      */
     @Nonnull
     public NodeStatusResponse.Status getNodeStatus(@Nonnull final String nodeName) {
+        return getNodeStatus(Jenkins.getInstance().getComputer(getNodeName(nodeName)));
+    }
+
+    /**
+     * Get the status of several nodes.
+     *
+     * Computers are traversed once no matter how many nodes are queried.
+     *
+     * @param nodeNames The node names.
+     * @return The node status per node name, in the order of nodeNames.
+     */
+    @Nonnull
+    public Map<String, NodeStatusResponse.Status> getNodeStatus(@Nonnull final Collection<String> nodeNames) {
+        Map<String, Computer> computers = new HashMap<>();
+        for (Computer computer : Jenkins.getInstance().getComputers()) {
+            if (computer instanceof SharedComputer) {
+                computers.put(computer.getName(), computer);
+            }
+        }
+
+        Map<String, NodeStatusResponse.Status> statuses = new LinkedHashMap<>();
+        for (String nodeName : nodeNames) {
+            statuses.put(nodeName, getNodeStatus(computers.get(getNodeName(nodeName))));
+        }
+        return statuses;
+    }
+
+    private @Nonnull NodeStatusResponse.Status getNodeStatus(@CheckForNull Computer computer) {
         NodeStatusResponse.Status status = NodeStatusResponse.Status.NOT_FOUND;
-        Computer computer = Jenkins.getInstance().getComputer(getNodeName(nodeName));
         if (computer instanceof SharedComputer) {
             status = NodeStatusResponse.Status.FOUND;
             if (computer.isIdle() && !computer.isConnecting()) {
@@ -419,6 +482,7 @@ public class SharedNodeCloud extends Cloud {
          * method. Orchestrator does that for us.
          *
          * @param configRepoUrl Config repository URL.
+         * @param transport HTTP transport name.
          * @return Form Validation.
          * @throws ServletException if occurs.
          */
@@ -427,7 +491,8 @@ public class SharedNodeCloud extends Cloud {
         @Nonnull
         public FormValidation doTestConnection(
                 @Nonnull @QueryParameter("configRepoUrl") String configRepoUrl,
-                @Nonnull @QueryParameter("orchestratorCredentialsId") String restCredentialId
+                @Nonnull @QueryParameter("orchestratorCredentialsId") String restCredentialId,
+                @CheckForNull @QueryParameter("transport") String transport
         ) throws Exception {
             Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
             try {
@@ -440,6 +505,9 @@ public class SharedNodeCloud extends Cloud {
             testConfigRepoDir.deleteRecursive();
             try {
                 SharedNodeCloud cloud = new SharedNodeCloud(configRepoUrl, restCredentialId);
+                if (Util.fixEmpty(transport) != null) {
+                    cloud.setTransport(HttpTransport.Implementation.valueOf(transport));
+                }
                 String jenkinsUrl = getJenkinsUrl();
                 Api api = new Api(cloud.getConfigRepo().getSnapshot(), configRepoUrl, cloud, jenkinsUrl);
                 DiscoverResponse discover = api.discover();
@@ -1,6 +1,7 @@
 package com.redhat.jenkins.nodesharingfrontend;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.redhat.jenkins.nodesharing.transport.UsageEventsRequest;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.model.Computer;
 import hudson.model.Executor;
@@ -58,15 +59,19 @@ public final class SharedOnceRetentionStrategy extends CloudRetentionStrategy im
     }
 
     @Override
-    public void taskAccepted(Executor executor, Queue.Task task) {}
+    public void taskAccepted(Executor executor, Queue.Task task) {
+        UsageEventStream.publish(executor.getOwner(), UsageEventsRequest.Type.BUSY);
+    }
 
     @Override
     public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+        UsageEventStream.publish(executor.getOwner(), UsageEventsRequest.Type.IDLE);
         done(executor);
     }
 
     @Override
     public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+        UsageEventStream.publish(executor.getOwner(), UsageEventsRequest.Type.IDLE);
         done(executor);
     }
 
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.redhat.jenkins.nodesharingfrontend;
+
+import com.redhat.jenkins.nodesharing.ActionFailed;
+import com.redhat.jenkins.nodesharing.transport.UsageEventsRequest;
+import com.redhat.jenkins.nodesharing.transport.UsageEventsResponse;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.triggers.SafeTimerTask;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stream changes in the usage of shared nodes to orchestrator as they happen.
+ *
+ * Events are buffered per cloud and sent in batches numbered by a sequence. Batch that failed to be delivered is resent
+ * with the same number so orchestrator can ignore the duplicates, while the events dropped when the buffer overflows
+ * leave a gap in the sequence orchestrator detects. Sequence starts at current time so it continues past the last one
+ * sent before executor restarted.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class UsageEventStream {
+    private static final Logger LOGGER = Logger.getLogger(UsageEventStream.class.getName());
+
+    private static final String PROPERTY_PREFIX = UsageEventStream.class.getName() + ".";
+
+    // Time in ms events are collected before sent together
+    private static final long FLUSH_DELAY = Long.getLong(PROPERTY_PREFIX + "FLUSH_DELAY", 1000);
+    // Time in ms to wait before resending batch that failed
+    private static final long RETRY_DELAY = Long.getLong(PROPERTY_PREFIX + "RETRY_DELAY", 10 * 1000);
+    // Time in ms to wait before streaming to orchestrator that does not serve the events again
+    private static final long NOT_SERVED_DELAY = TimeUnit.MINUTES.toMillis(10);
+    // Maximal number of events waiting to be sent per cloud, the oldest are dropped
+    private static final int MAX_BUFFERED = Integer.getInteger(PROPERTY_PREFIX + "MAX_BUFFERED", 1000);
+
+    private final @Nonnull Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    public static @Nonnull UsageEventStream getInstance() {
+        ExtensionList<UsageEventStream> list = Jenkins.getInstance().getExtensionList(UsageEventStream.class);
+        assert list.size() == 1;
+        return list.iterator().next();
+    }
+
+    /**
+     * Publish usage change of the node if it is shared.
+     */
+    public static void publish(@CheckForNull Computer computer, @Nonnull UsageEventsRequest.Type type) {
+        if (!(computer instanceof SharedComputer)) return;
+
+        SharedNode node = ((SharedComputer) computer).getNode();
+        if (node == null) return;
+
+        publish(node, type);
+    }
+
+    /**
+     * Publish usage change of the node.
+     */
+    public static void publish(@Nonnull SharedNode node, @Nonnull UsageEventsRequest.Type type) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) return;
+
+        getInstance().publish(node.getId().getCloudName(), new UsageEventsRequest.Event(node.getHostName(), type, System.currentTimeMillis()));
+    }
+
+    private void publish(@Nonnull String cloudName, @Nonnull UsageEventsRequest.Event event) {
+        Outbox outbox = outboxes.get(cloudName);
+        if (outbox == null) {
+            outbox = new Outbox(cloudName);
+            Outbox existing = outboxes.putIfAbsent(cloudName, outbox);
+            if (existing != null) {
+                outbox = existing;
+            }
+        }
+        outbox.add(event);
+    }
+
+    private static final class Outbox {
+        private final @Nonnull String cloudName;
+
+        @GuardedBy("this")
+        private final @Nonnull Deque<UsageEventsRequest.Event> buffered = new ArrayDeque<>();
+        // Batch sent but not yet acknowledged, resent as is until it is
+        @GuardedBy("this")
+        private @CheckForNull List<UsageEventsRequest.Event> unacked;
+        @GuardedBy("this")
+        private long unackedSequence;
+        @GuardedBy("this")
+        private long sequence = System.currentTimeMillis();
+        @GuardedBy("this")
+        private boolean scheduled;
+        @GuardedBy("this")
+        private long notServedUntil;
+
+        private Outbox(@Nonnull String cloudName) {
+            this.cloudName = cloudName;
+        }
+
+        private synchronized void add(@Nonnull UsageEventsRequest.Event event) {
+            if (System.currentTimeMillis() < notServedUntil) return;
+
+            buffered.add(event);
+            if (buffered.size() > MAX_BUFFERED) {
+                buffered.removeFirst();
+                // Skip a number so orchestrator knows some events are missing
+                sequence++;
+            }
+            schedule(FLUSH_DELAY);
+        }
+
+        @GuardedBy("this")
+        private void schedule(long delay) {
+            if (scheduled) return;
+            scheduled = true;
+            Timer.get().schedule(new SafeTimerTask() {
+                @Override protected void doRun() {
+                    flush();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void flush() {
+            final long batchSequence;
+            final List<UsageEventsRequest.Event> batch;
+            synchronized (this) {
+                scheduled = false;
+                if (unacked == null) {
+                    if (buffered.isEmpty()) return;
+
+                    unacked = new ArrayList<>(buffered);
+                    buffered.clear();
+                    unackedSequence = ++sequence;
+                }
+                batchSequence = unackedSequence;
+                batch = unacked;
+            }
+
+            CompletableFuture<UsageEventsResponse> future;
+            SharedNodeCloud cloud = SharedNodeCloud.getByName(cloudName);
+            if (cloud == null || cloud.isDisabled() || !cloud.isActive()) {
+                discard(); // Nobody to deliver them to
+                return;
+            }
+            try {
+                future = cloud.getApi().reportUsageEventsAsync(batchSequence, batch);
+            } catch (RuntimeException ex) {
+                future = CompletableFuture.failedFuture(ex);
+            }
+            future.whenComplete(new BiConsumer<UsageEventsResponse, Throwable>() {
+                @Override public void accept(UsageEventsResponse response, Throwable throwable) {
+                    delivered(batchSequence, throwable);
+                }
+            });
+        }
+
+        private synchronized void delivered(long batchSequence, @CheckForNull Throwable throwable) {
+            if (unackedSequence != batchSequence) return; // Discarded in the meantime
+
+            if (throwable == null) {
+                unacked = null;
+                if (!buffered.isEmpty()) {
+                    schedule(FLUSH_DELAY);
+                }
+                return;
+            }
+
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable
+            ;
+            if (cause instanceof ActionFailed.RequestFailed && ((ActionFailed.RequestFailed) cause).getStatusCode() == 404) {
+                LOGGER.info("Orchestrator of cloud " + cloudName + " does not serve usage events");
+                notServedUntil = System.currentTimeMillis() + NOT_SERVED_DELAY;
+                discard();
+                return;
+            }
+
+            LOGGER.log(Level.FINE, "Failed streaming usage events for cloud " + cloudName, cause);
+            schedule(RETRY_DELAY);
+        }
+
+        // Leave a gap in the sequence for the events that will never be delivered
+        private synchronized void discard() {
+            if (unacked == null && buffered.isEmpty()) return;
+
+            unacked = null;
+            buffered.clear();
+            sequence++;
+        }
+    }
+}
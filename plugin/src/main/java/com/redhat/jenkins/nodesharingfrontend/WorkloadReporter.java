@@ -24,7 +24,9 @@
 package com.redhat.jenkins.nodesharingfrontend;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.redhat.jenkins.nodesharing.ActionFailed;
 import com.redhat.jenkins.nodesharing.transport.ReportWorkloadRequest;
+import com.redhat.jenkins.nodesharing.transport.ReportWorkloadResponse;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.model.PeriodicWork;
@@ -39,16 +41,28 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Report executor Queue workload to orchestrator periodically.
  *
+ * Only the changes are transferred once orchestrator has the full workload, see {@link Api#reportWorkloadAsync}.
+ *
+ * Orchestrator rejecting the report as too frequent is not called again until the time it advised. The changes made in
+ * the meantime are reported together afterwards, while the other clouds are reported as usual. Failed reports are not
+ * journaled in {@link DurableOutbox}, as the workload is recomputed from the queue, but retried shortly.
+ *
  * @author ogondza.
  */
 @Extension
@@ -56,6 +70,12 @@ import java.util.logging.Logger;
 public class WorkloadReporter extends PeriodicWork {
     private static final Logger LOGGER = Logger.getLogger(WorkloadReporter.class.getName());
 
+    // Time in ms to wait when throttling orchestrator has not advised any
+    private static final long THROTTLED_DELAY = 10 * 1000;
+
+    // Time until which the orchestrator asked not to be called, per cloud
+    private final Map<String, Long> throttledUntil = new ConcurrentHashMap<>();
+
     @Override
     public long getRecurrencePeriod() {
         return 3 * MIN;
@@ -66,14 +86,29 @@ public class WorkloadReporter extends PeriodicWork {
     public void doRun() {
         assert Jenkins.getAuthentication() == ACL.SYSTEM: "Must be called as SYSTEM, not " + Jenkins.getAuthentication();
 
+        report(SharedNodeCloud.getAll());
+    }
+
+    private void report(@Nonnull Collection<SharedNodeCloud> clouds) {
         Map<SharedNodeCloud, ReportWorkloadRequest.Workload.WorkloadBuilder> workloadMapping = new HashMap<>();
-        for (SharedNodeCloud cloud : SharedNodeCloud.getAll()) {
+        for (SharedNodeCloud cloud : clouds) {
 
             if (!cloud.isActive()) {
                 LOGGER.fine("Skipping cloud " + cloud.name + " as it is not declared in config repo: " + cloud.getConfigRepoUrl());
                 continue;
             }
 
+            Long until = throttledUntil.get(cloud.name);
+            if (until != null) {
+                long remaining = until - System.currentTimeMillis();
+                if (remaining > 0) {
+                    // Reported once permitted, other clouds are reported right away
+                    LOGGER.fine("Postponing workload report for cloud " + cloud.name + " as the orchestrator is throttling");
+                    continue;
+                }
+                throttledUntil.remove(cloud.name);
+            }
+
             // Create empty workload for every cloud to make sure clouds we have no workload for will receive empty workload
             ReportWorkloadRequest.Workload.WorkloadBuilder workload = ReportWorkloadRequest.Workload.builder();
             workloadMapping.put(cloud, workload);
@@ -99,11 +134,44 @@ public class WorkloadReporter extends PeriodicWork {
             }
         }
 
+        // Report to all orchestrators at once and wait for all of them to complete
+        Map<SharedNodeCloud, CompletableFuture<ReportWorkloadResponse>> reports = new HashMap<>();
         for (Map.Entry<SharedNodeCloud, ReportWorkloadRequest.Workload.WorkloadBuilder> entry : workloadMapping.entrySet()) {
             ReportWorkloadRequest.Workload.WorkloadBuilder workload = entry.getValue();
             SharedNodeCloud cloud = entry.getKey();
-            cloud.getApi().reportWorkload(workload.build());
+            reports.put(cloud, cloud.getApi().reportWorkloadAsync(workload.build()));
         }
+
+        for (Map.Entry<SharedNodeCloud, CompletableFuture<ReportWorkloadResponse>> report : reports.entrySet()) {
+            try {
+                report.getValue().join();
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof ActionFailed.RequestFailed && ((ActionFailed.RequestFailed) cause).isThrottled()) {
+                    long retryAfter = ((ActionFailed.RequestFailed) cause).getRetryAfter();
+                    throttled(report.getKey(), retryAfter > 0 ? retryAfter : THROTTLED_DELAY);
+                    continue;
+                }
+                LOGGER.log(Level.WARNING, "Failed to report workload for cloud " + report.getKey().name, cause);
+                // Try again soon instead of waiting for the next period
+                Detector.getInstance().scheduleUpdate();
+            }
+        }
+    }
+
+    // Report once the orchestrator permits. All the changes until then are coalesced into that report.
+    private void throttled(@Nonnull SharedNodeCloud cloud, long retryAfter) {
+        LOGGER.info("Orchestrator throttled workload report for cloud " + cloud.name + ", retrying in " + retryAfter + "ms");
+        throttledUntil.put(cloud.name, System.currentTimeMillis() + retryAfter);
+
+        final String name = cloud.name;
+        Timer.get().schedule(new SafeTimerTask() {
+            @Override protected void doRun() {
+                SharedNodeCloud current = SharedNodeCloud.getByName(name);
+                if (current == null) return; // Removed in the meantime
+                report(Collections.singleton(current));
+            }
+        }, retryAfter, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -113,7 +181,7 @@ public class WorkloadReporter extends PeriodicWork {
     @Extension
     @Restricted(NoExternalUse.class)
     public static final class Detector extends QueueListener {
-        private volatile Future<?> nextPush;
+        private volatile ScheduledFuture<?> nextPush;
 
         public static @Nonnull Detector getInstance() {
             ExtensionList<Detector> list = Jenkins.getInstance().getExtensionList(Detector.class);
@@ -148,7 +216,7 @@ public class WorkloadReporter extends PeriodicWork {
             scheduleUpdate();
         }
 
-        /* package */ void scheduleUpdate() {
+        /* package */ synchronized void scheduleUpdate() {
             // Can be done or canceled in case of a bug or external intervention - do not allow it to hang there forever
             if (nextPush != null && !(nextPush.isDone() || nextPush.isCancelled())) return;
             nextPush = Timer.get().schedule(safeTimerTask, 10, TimeUnit.SECONDS);